@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.codec.codables.Codable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare Bin2 string modes on a string heavy object, for both mostly-ascii and multi-byte text.
+ */
+@BenchmarkMode(Mode.Throughput) // measure as ops/ time_unit
+@OutputTimeUnit(TimeUnit.MICROSECONDS) // time_unit is microseconds
+@Warmup(iterations = 2, time = 1, timeUnit = TimeUnit.SECONDS) // how long to warm up the jvm
+@Measurement(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS) // how many runs to average over
+@Fork(1) // how many JVM forks per test; measurements are run per fork
+@Threads(1) // how many threads to run concurrently; thread count is per test -- not shared
+@State(Scope.Thread) // treat this enclosing class as a State object that can be used in tests
+public class Bin2StringModes {
+
+    /**
+     * To run this benchmark, do 'mvn clean package' from the bench directory, and then either
+     *
+     * use the default JMH main class (it takes a regex of benchmark names):
+     * 'java -jar target/microbenchmarks.jar ".*Bin2StringModes.*"'
+     *
+     * call this main method instead or use the code therein to start it programmatically
+     * eg. 'java -cp target/microbenchmarks.jar com.addthis.codec.binary.Bin2StringModes'
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(".*" + Bin2StringModes.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    @Param({"LESS_BYTES", "UTF8"})
+    String mode = "UTF8";
+
+    @Param({"true", "false"})
+    boolean ascii = true;
+
+    CodecBin2 codec;
+    Record    record;
+    byte[]    encoded;
+
+    @Setup(Level.Trial)
+    public void makeRecord() throws Exception {
+        codec = CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.valueOf(mode));
+        String sample = ascii ? "http://www.example.com/some/path?query=value"
+                              : "http://www.example.com/\u00e9t\u00e9/\u65e5\u672c\u8a9e?q=\u00fc";
+        record = new Record();
+        record.url = sample;
+        for (int i = 0; i < 20; i++) {
+            record.tags.add(sample.substring(i));
+        }
+        encoded = codec.encode(record);
+    }
+
+    public static class Record implements Codable {
+        public String       url;
+        public List<String> tags = new ArrayList<>();
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return codec.encode(record);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return codec.decode(Record.class, encoded);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+
+import com.google.common.annotations.Beta;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.io.IOContext;
+
+/**
+ * Jackson {@link JsonFactory} for a compact, self describing binary token format in the spirit of Bin2:
+ * one tag byte per token, variable length integers, big-endian fixed width floating point values, and
+ * length prefixed UTF-8 strings. Field names are written once per stream and then referred to by index.
+ * Unlike {@link CodecBin2}, the layout comes from Jackson's serializers and deserializers, so Jackson
+ * annotations and plugin type resolution work as they do for json. Pass an instance to
+ * {@link com.addthis.codec.jackson.Jackson#newObjectMapper(com.addthis.codec.plugins.PluginRegistry,
+ * JsonFactory)} to get a mapper that reads and writes this format.
+ */
+@Beta
+public class Bin2JsonFactory extends JsonFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String FORMAT_NAME = "bin2";
+
+    // token tags
+    static final int START_OBJECT = 1;
+    static final int END_OBJECT   = 2;
+    static final int START_ARRAY  = 3;
+    static final int END_ARRAY    = 4;
+    static final int NEW_NAME     = 5;
+    static final int NAME_REF     = 6;
+    static final int STRING       = 7;
+    static final int INT          = 8;
+    static final int LONG         = 9;
+    static final int BIG_INTEGER  = 10;
+    static final int FLOAT        = 11;
+    static final int DOUBLE       = 12;
+    static final int BIG_DECIMAL  = 13;
+    static final int TRUE         = 14;
+    static final int FALSE        = 15;
+    static final int NULL         = 16;
+    static final int BINARY       = 17;
+
+    /** Field names seen after this many distinct names are written in full every time. */
+    static final int MAX_SHARED_NAMES = 1024;
+
+    public Bin2JsonFactory() {
+        super();
+    }
+
+    public Bin2JsonFactory(ObjectCodec codec) {
+        super(codec);
+    }
+
+    protected Bin2JsonFactory(Bin2JsonFactory src, ObjectCodec codec) {
+        super(src, codec);
+    }
+
+    @Override public JsonFactory copy() {
+        _checkInvalidCopy(Bin2JsonFactory.class);
+        return new Bin2JsonFactory(this, null);
+    }
+
+    @Override public String getFormatName() {
+        return FORMAT_NAME;
+    }
+
+    @Override public boolean canHandleBinaryNatively() {
+        return true;
+    }
+
+    @Override public boolean canUseCharArrays() {
+        return false;
+    }
+
+    /** The encoding is always binary, so the requested character encoding is ignored. */
+    @Override public JsonGenerator createGenerator(OutputStream out, JsonEncoding enc) throws IOException {
+        return _createUTF8Generator(out, _createContext(out, false));
+    }
+
+    @Override protected JsonParser _createParser(InputStream in, IOContext ctxt) throws IOException {
+        return new Bin2JsonParser(ctxt, _parserFeatures, _objectCodec, in);
+    }
+
+    @Override protected JsonParser _createParser(byte[] data, int offset, int len, IOContext ctxt)
+            throws IOException {
+        return new Bin2JsonParser(ctxt, _parserFeatures, _objectCodec, data, offset, len);
+    }
+
+    /* character sources and targets are rejected up front, the same way Jackson's other binary formats do */
+
+    @Override public JsonParser createParser(Reader r) {
+        return _nonByteSource();
+    }
+
+    @Override public JsonParser createParser(String content) {
+        return _nonByteSource();
+    }
+
+    @Override public JsonParser createParser(char[] content) {
+        return _nonByteSource();
+    }
+
+    @Override public JsonParser createParser(char[] content, int offset, int len) {
+        return _nonByteSource();
+    }
+
+    @Override public JsonGenerator createGenerator(Writer out) {
+        return _nonByteTarget();
+    }
+
+    @Override protected JsonParser _createParser(Reader r, IOContext ctxt) {
+        return _nonByteSource();
+    }
+
+    @Override protected JsonParser _createParser(char[] data, int offset, int len, IOContext ctxt,
+                                                 boolean recyclable) {
+        return _nonByteSource();
+    }
+
+    @Override protected JsonGenerator _createGenerator(Writer out, IOContext ctxt) {
+        return _nonByteTarget();
+    }
+
+    @Override protected JsonGenerator _createUTF8Generator(OutputStream out, IOContext ctxt) throws IOException {
+        return new Bin2JsonGenerator(ctxt, _generatorFeatures, _objectCodec, out);
+    }
+
+    protected <T> T _nonByteSource() {
+        throw new UnsupportedOperationException(
+                "Can not create parser for non-byte-based source: " + FORMAT_NAME + " is a binary format");
+    }
+
+    protected <T> T _nonByteTarget() {
+        throw new UnsupportedOperationException(
+                "Can not create generator for non-byte-based target: " + FORMAT_NAME + " is a binary format");
+    }
+}
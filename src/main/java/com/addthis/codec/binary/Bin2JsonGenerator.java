@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.annotations.Beta;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+
+/**
+ * Writes the token format described by {@link Bin2JsonFactory}. Raw (pre-encoded json) output is not
+ * supported.
+ */
+@Beta
+public class Bin2JsonGenerator extends GeneratorBase {
+
+    private final IOContext    ioContext;
+    private final OutputStream out;
+
+    private final Map<String, Integer> sharedNames = new HashMap<>();
+
+    private byte[] buffer;
+    private int    position;
+
+    public Bin2JsonGenerator(IOContext ioContext, int features, ObjectCodec codec, OutputStream out) {
+        super(features, codec);
+        this.ioContext = ioContext;
+        this.out = out;
+        this.buffer = ioContext.allocWriteEncodingBuffer();
+    }
+
+    @Override public void writeStartArray() throws IOException {
+        _verifyValueWrite("start an array");
+        _writeContext = _writeContext.createChildArrayContext();
+        writeTag(Bin2JsonFactory.START_ARRAY);
+    }
+
+    @Override public void writeEndArray() throws IOException {
+        if (!_writeContext.inArray()) {
+            _reportError("Current context not an ARRAY but " + _writeContext.getTypeDesc());
+        }
+        _writeContext = _writeContext.getParent();
+        writeTag(Bin2JsonFactory.END_ARRAY);
+    }
+
+    @Override public void writeStartObject() throws IOException {
+        _verifyValueWrite("start an object");
+        _writeContext = _writeContext.createChildObjectContext();
+        writeTag(Bin2JsonFactory.START_OBJECT);
+    }
+
+    @Override public void writeEndObject() throws IOException {
+        if (!_writeContext.inObject()) {
+            _reportError("Current context not an object but " + _writeContext.getTypeDesc());
+        }
+        _writeContext = _writeContext.getParent();
+        writeTag(Bin2JsonFactory.END_OBJECT);
+    }
+
+    @Override public void writeFieldName(String name) throws IOException {
+        if (_writeContext.writeFieldName(name) == JsonWriteContext.STATUS_EXPECT_VALUE) {
+            _reportError("Can not write a field name, expecting a value");
+        }
+        Integer index = sharedNames.get(name);
+        if (index != null) {
+            writeTag(Bin2JsonFactory.NAME_REF);
+            writeVarLong(index);
+        } else {
+            if (sharedNames.size() < Bin2JsonFactory.MAX_SHARED_NAMES) {
+                sharedNames.put(name, sharedNames.size());
+            }
+            writeTag(Bin2JsonFactory.NEW_NAME);
+            writeUtf8(name.getBytes(StandardCharsets.UTF_8), 0, -1);
+        }
+    }
+
+    @Override public void writeFieldName(SerializableString name) throws IOException {
+        writeFieldName(name.getValue());
+    }
+
+    @Override public void writeString(String text) throws IOException {
+        if (text == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write a string");
+        writeTag(Bin2JsonFactory.STRING);
+        writeUtf8(text.getBytes(StandardCharsets.UTF_8), 0, -1);
+    }
+
+    @Override public void writeString(char[] text, int offset, int len) throws IOException {
+        writeString(new String(text, offset, len));
+    }
+
+    @Override public void writeString(SerializableString text) throws IOException {
+        _verifyValueWrite("write a string");
+        writeTag(Bin2JsonFactory.STRING);
+        writeUtf8(text.asUnquotedUTF8(), 0, -1);
+    }
+
+    @Override public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException {
+        writeUTF8String(text, offset, length);
+    }
+
+    @Override public void writeUTF8String(byte[] text, int offset, int length) throws IOException {
+        _verifyValueWrite("write a string");
+        writeTag(Bin2JsonFactory.STRING);
+        writeUtf8(text, offset, length);
+    }
+
+    @Override public void writeRaw(String text) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeRaw(String text, int offset, int len) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeRaw(char[] text, int offset, int len) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeRaw(char c) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeRawValue(String text) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeRawValue(String text, int offset, int len) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeRawValue(char[] text, int offset, int len) throws IOException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override public void writeBinary(Base64Variant variant, byte[] data, int offset, int len) throws IOException {
+        if (data == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write a binary value");
+        writeTag(Bin2JsonFactory.BINARY);
+        writeVarLong(len);
+        writeBytes(data, offset, len);
+    }
+
+    @Override public void writeNumber(int value) throws IOException {
+        _verifyValueWrite("write a number");
+        writeTag(Bin2JsonFactory.INT);
+        writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    @Override public void writeNumber(long value) throws IOException {
+        _verifyValueWrite("write a number");
+        writeTag(Bin2JsonFactory.LONG);
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    @Override public void writeNumber(BigInteger value) throws IOException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write a number");
+        writeTag(Bin2JsonFactory.BIG_INTEGER);
+        byte[] bytes = value.toByteArray();
+        writeVarLong(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    @Override public void writeNumber(double value) throws IOException {
+        _verifyValueWrite("write a number");
+        writeTag(Bin2JsonFactory.DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        ensureRoom(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (bits >>> shift);
+        }
+    }
+
+    @Override public void writeNumber(float value) throws IOException {
+        _verifyValueWrite("write a number");
+        writeTag(Bin2JsonFactory.FLOAT);
+        int bits = Float.floatToRawIntBits(value);
+        ensureRoom(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (bits >>> shift);
+        }
+    }
+
+    @Override public void writeNumber(BigDecimal value) throws IOException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write a number");
+        writeTag(Bin2JsonFactory.BIG_DECIMAL);
+        int scale = value.scale();
+        writeVarLong(((scale << 1) ^ (scale >> 31)) & 0xFFFFFFFFL);
+        byte[] bytes = value.unscaledValue().toByteArray();
+        writeVarLong(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /** Numbers that are only available as text are written as strings. */
+    @Override public void writeNumber(String encodedValue) throws IOException {
+        writeString(encodedValue);
+    }
+
+    @Override public void writeBoolean(boolean state) throws IOException {
+        _verifyValueWrite("write a boolean value");
+        writeTag(state ? Bin2JsonFactory.TRUE : Bin2JsonFactory.FALSE);
+    }
+
+    @Override public void writeNull() throws IOException {
+        _verifyValueWrite("write a null");
+        writeTag(Bin2JsonFactory.NULL);
+    }
+
+    @Override public void flush() throws IOException {
+        flushBuffer();
+        if (isEnabled(Feature.FLUSH_PASSED_TO_STREAM)) {
+            out.flush();
+        }
+    }
+
+    @Override public void close() throws IOException {
+        if (isClosed()) {
+            return;
+        }
+        if ((buffer != null) && isEnabled(Feature.AUTO_CLOSE_JSON_CONTENT)) {
+            while (true) {
+                if (_writeContext.inArray()) {
+                    writeEndArray();
+                } else if (_writeContext.inObject()) {
+                    writeEndObject();
+                } else {
+                    break;
+                }
+            }
+        }
+        super.close();
+        flushBuffer();
+        if (ioContext.isResourceManaged() || isEnabled(Feature.AUTO_CLOSE_TARGET)) {
+            out.close();
+        } else if (isEnabled(Feature.FLUSH_PASSED_TO_STREAM)) {
+            out.flush();
+        }
+        _releaseBuffers();
+    }
+
+    @Override protected void _releaseBuffers() {
+        byte[] released = buffer;
+        if (released != null) {
+            buffer = null;
+            ioContext.releaseWriteEncodingBuffer(released);
+        }
+    }
+
+    @Override protected void _verifyValueWrite(String typeMsg) throws IOException {
+        if (_writeContext.writeValue() == JsonWriteContext.STATUS_EXPECT_NAME) {
+            _reportError("Can not " + typeMsg + ", expecting field name");
+        }
+    }
+
+    private void writeTag(int tag) throws IOException {
+        ensureRoom(1);
+        buffer[position++] = (byte) tag;
+    }
+
+    /** Writes a length prefixed string. A negative length means "to the end of the array". */
+    private void writeUtf8(byte[] bytes, int offset, int len) throws IOException {
+        int length = (len < 0) ? (bytes.length - offset) : len;
+        writeVarLong(length);
+        writeBytes(bytes, offset, length);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        ensureRoom(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int len) throws IOException {
+        if (len > (buffer.length - position)) {
+            flushBuffer();
+            if (len > buffer.length) {
+                out.write(bytes, offset, len);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, len);
+        position += len;
+    }
+
+    private void ensureRoom(int needed) throws IOException {
+        if ((buffer.length - position) < needed) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
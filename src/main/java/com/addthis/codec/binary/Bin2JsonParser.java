@@ -0,0 +1,472 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.annotations.Beta;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.base.ParserMinimalBase;
+import com.fasterxml.jackson.core.io.IOContext;
+import com.fasterxml.jackson.core.json.DupDetector;
+import com.fasterxml.jackson.core.json.JsonReadContext;
+
+/**
+ * Reads the token format described by {@link Bin2JsonFactory}. Not to be confused with {@link Bin2Parser},
+ * which reads {@link CodecBin2} output using class metadata.
+ */
+@Beta
+public class Bin2JsonParser extends ParserMinimalBase {
+
+    private final IOContext    ioContext;
+    private final InputStream  in;
+    private final List<String> sharedNames = new ArrayList<>();
+
+    private ObjectCodec     codec;
+    private JsonReadContext parsingContext;
+    private boolean         closed;
+
+    private byte[]  buffer;
+    private boolean bufferRecyclable;
+    private int     position;
+    private int     end;
+    private long    bufferStart;
+    private long    tokenStart;
+
+    // value of the current token
+    private String     text;
+    private NumberType numberType;
+    private int        intValue;
+    private long       longValue;
+    private float      floatValue;
+    private double     doubleValue;
+    private BigInteger bigIntegerValue;
+    private BigDecimal bigDecimalValue;
+    private byte[]     binaryValue;
+
+    public Bin2JsonParser(IOContext ioContext, int features, ObjectCodec codec, InputStream in) {
+        super(features);
+        this.ioContext = ioContext;
+        this.codec = codec;
+        this.in = in;
+        this.buffer = ioContext.allocReadIOBuffer();
+        this.bufferRecyclable = true;
+        this.parsingContext = createRootContext();
+    }
+
+    public Bin2JsonParser(IOContext ioContext, int features, ObjectCodec codec, byte[] data, int offset, int len) {
+        super(features);
+        this.ioContext = ioContext;
+        this.codec = codec;
+        this.in = null;
+        this.buffer = data;
+        this.position = offset;
+        this.end = offset + len;
+        this.bufferStart = -offset;
+        this.parsingContext = createRootContext();
+    }
+
+    private JsonReadContext createRootContext() {
+        DupDetector dups = isEnabled(Feature.STRICT_DUPLICATE_DETECTION) ? DupDetector.rootDetector(this) : null;
+        return JsonReadContext.createRootContext(dups);
+    }
+
+    @Override public JsonToken nextToken() throws IOException {
+        binaryValue = null;
+        if (!ensureAvailable(1)) {
+            _handleEOF();
+            close();
+            return (_currToken = null);
+        }
+        tokenStart = bufferStart + position;
+        int tag = buffer[position++];
+        switch (tag) {
+            case Bin2JsonFactory.START_OBJECT:
+                parsingContext = parsingContext.createChildObjectContext(-1, -1);
+                return (_currToken = JsonToken.START_OBJECT);
+            case Bin2JsonFactory.END_OBJECT:
+                if (!parsingContext.inObject()) {
+                    _reportError("unexpected end of object in " + parsingContext.getTypeDesc());
+                }
+                parsingContext = parsingContext.getParent();
+                return (_currToken = JsonToken.END_OBJECT);
+            case Bin2JsonFactory.START_ARRAY:
+                parsingContext = parsingContext.createChildArrayContext(-1, -1);
+                return (_currToken = JsonToken.START_ARRAY);
+            case Bin2JsonFactory.END_ARRAY:
+                if (!parsingContext.inArray()) {
+                    _reportError("unexpected end of array in " + parsingContext.getTypeDesc());
+                }
+                parsingContext = parsingContext.getParent();
+                return (_currToken = JsonToken.END_ARRAY);
+            case Bin2JsonFactory.NEW_NAME:
+                String name = readString();
+                if (sharedNames.size() < Bin2JsonFactory.MAX_SHARED_NAMES) {
+                    sharedNames.add(name);
+                }
+                parsingContext.setCurrentName(name);
+                return (_currToken = JsonToken.FIELD_NAME);
+            case Bin2JsonFactory.NAME_REF:
+                int index = (int) readVarLong();
+                if (index >= sharedNames.size()) {
+                    _reportError("invalid field name reference " + index);
+                }
+                parsingContext.setCurrentName(sharedNames.get(index));
+                return (_currToken = JsonToken.FIELD_NAME);
+            case Bin2JsonFactory.STRING:
+                text = readString();
+                return (_currToken = JsonToken.VALUE_STRING);
+            case Bin2JsonFactory.INT:
+                long zigzagInt = readVarLong();
+                intValue = (int) ((zigzagInt >>> 1) ^ -(zigzagInt & 1));
+                numberType = NumberType.INT;
+                return (_currToken = JsonToken.VALUE_NUMBER_INT);
+            case Bin2JsonFactory.LONG:
+                long zigzagLong = readVarLong();
+                longValue = (zigzagLong >>> 1) ^ -(zigzagLong & 1);
+                numberType = NumberType.LONG;
+                return (_currToken = JsonToken.VALUE_NUMBER_INT);
+            case Bin2JsonFactory.BIG_INTEGER:
+                bigIntegerValue = new BigInteger(readBytes((int) readVarLong()));
+                numberType = NumberType.BIG_INTEGER;
+                return (_currToken = JsonToken.VALUE_NUMBER_INT);
+            case Bin2JsonFactory.FLOAT:
+                floatValue = Float.intBitsToFloat((int) readFixed(4));
+                numberType = NumberType.FLOAT;
+                return (_currToken = JsonToken.VALUE_NUMBER_FLOAT);
+            case Bin2JsonFactory.DOUBLE:
+                doubleValue = Double.longBitsToDouble(readFixed(8));
+                numberType = NumberType.DOUBLE;
+                return (_currToken = JsonToken.VALUE_NUMBER_FLOAT);
+            case Bin2JsonFactory.BIG_DECIMAL:
+                long zigzagScale = readVarLong();
+                int scale = (int) ((zigzagScale >>> 1) ^ -(zigzagScale & 1));
+                BigInteger unscaled = new BigInteger(readBytes((int) readVarLong()));
+                bigDecimalValue = new BigDecimal(unscaled, scale);
+                numberType = NumberType.BIG_DECIMAL;
+                return (_currToken = JsonToken.VALUE_NUMBER_FLOAT);
+            case Bin2JsonFactory.TRUE:
+                return (_currToken = JsonToken.VALUE_TRUE);
+            case Bin2JsonFactory.FALSE:
+                return (_currToken = JsonToken.VALUE_FALSE);
+            case Bin2JsonFactory.NULL:
+                return (_currToken = JsonToken.VALUE_NULL);
+            case Bin2JsonFactory.BINARY:
+                binaryValue = readBytes((int) readVarLong());
+                return (_currToken = JsonToken.VALUE_EMBEDDED_OBJECT);
+            default:
+                throw _constructError("invalid bin2 token tag " + tag + " at byte " + tokenStart, null);
+        }
+    }
+
+    @Override protected void _handleEOF() throws JsonParseException {
+        if (!parsingContext.inRoot()) {
+            _reportInvalidEOF(": expected close marker for " + parsingContext.getTypeDesc());
+        }
+    }
+
+    @Override public String getCurrentName() throws IOException {
+        if ((_currToken == JsonToken.START_OBJECT) || (_currToken == JsonToken.START_ARRAY)) {
+            return parsingContext.getParent().getCurrentName();
+        }
+        return parsingContext.getCurrentName();
+    }
+
+    @Override public void overrideCurrentName(String name) {
+        JsonReadContext ctxt = parsingContext;
+        if ((_currToken == JsonToken.START_OBJECT) || (_currToken == JsonToken.START_ARRAY)) {
+            ctxt = ctxt.getParent();
+        }
+        try {
+            ctxt.setCurrentName(name);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override public JsonStreamContext getParsingContext() {
+        return parsingContext;
+    }
+
+    @Override public JsonLocation getTokenLocation() {
+        return new JsonLocation(ioContext.getSourceReference(), tokenStart, -1, -1);
+    }
+
+    @Override public JsonLocation getCurrentLocation() {
+        return new JsonLocation(ioContext.getSourceReference(), bufferStart + position, -1, -1);
+    }
+
+    @Override public String getText() throws IOException {
+        if (_currToken == null) {
+            return null;
+        }
+        switch (_currToken) {
+            case VALUE_STRING:
+                return text;
+            case FIELD_NAME:
+                return parsingContext.getCurrentName();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return getNumberValue().toString();
+            default:
+                return _currToken.asString();
+        }
+    }
+
+    @Override public char[] getTextCharacters() throws IOException {
+        String value = getText();
+        return (value == null) ? null : value.toCharArray();
+    }
+
+    @Override public boolean hasTextCharacters() {
+        return false;
+    }
+
+    @Override public int getTextLength() throws IOException {
+        String value = getText();
+        return (value == null) ? 0 : value.length();
+    }
+
+    @Override public int getTextOffset() throws IOException {
+        return 0;
+    }
+
+    @Override public Number getNumberValue() throws IOException {
+        switch (getNumberType()) {
+            case INT:
+                return intValue;
+            case LONG:
+                return longValue;
+            case BIG_INTEGER:
+                return bigIntegerValue;
+            case FLOAT:
+                return floatValue;
+            case DOUBLE:
+                return doubleValue;
+            default:
+                return bigDecimalValue;
+        }
+    }
+
+    @Override public NumberType getNumberType() throws IOException {
+        if ((_currToken != JsonToken.VALUE_NUMBER_INT) && (_currToken != JsonToken.VALUE_NUMBER_FLOAT)) {
+            _reportError("Current token (" + _currToken + ") not numeric, can not use numeric value accessors");
+        }
+        return numberType;
+    }
+
+    @Override public int getIntValue() throws IOException {
+        if (getNumberType() == NumberType.INT) {
+            return intValue;
+        }
+        long value = getLongValue();
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            _reportError("Numeric value (" + getText() + ") out of range of int");
+        }
+        return (int) value;
+    }
+
+    @Override public long getLongValue() throws IOException {
+        switch (getNumberType()) {
+            case INT:
+                return intValue;
+            case LONG:
+                return longValue;
+            default:
+                return getNumberValue().longValue();
+        }
+    }
+
+    @Override public BigInteger getBigIntegerValue() throws IOException {
+        switch (getNumberType()) {
+            case BIG_INTEGER:
+                return bigIntegerValue;
+            case BIG_DECIMAL:
+                return bigDecimalValue.toBigInteger();
+            default:
+                return BigInteger.valueOf(getLongValue());
+        }
+    }
+
+    @Override public float getFloatValue() throws IOException {
+        return (getNumberType() == NumberType.FLOAT) ? floatValue : getNumberValue().floatValue();
+    }
+
+    @Override public double getDoubleValue() throws IOException {
+        return (getNumberType() == NumberType.DOUBLE) ? doubleValue : getNumberValue().doubleValue();
+    }
+
+    @Override public BigDecimal getDecimalValue() throws IOException {
+        switch (getNumberType()) {
+            case BIG_DECIMAL:
+                return bigDecimalValue;
+            case BIG_INTEGER:
+                return new BigDecimal(bigIntegerValue);
+            case INT:
+            case LONG:
+                return BigDecimal.valueOf(getLongValue());
+            default:
+                return new BigDecimal(getNumberValue().toString());
+        }
+    }
+
+    @Override public Object getEmbeddedObject() throws IOException {
+        return (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT) ? binaryValue : null;
+    }
+
+    @Override public byte[] getBinaryValue(Base64Variant variant) throws IOException {
+        if (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return binaryValue;
+        } else if (_currToken == JsonToken.VALUE_STRING) {
+            try {
+                return variant.decode(text);
+            } catch (IllegalArgumentException ex) {
+                throw _constructError(ex.getMessage(), ex);
+            }
+        }
+        _reportError("Current token (" + _currToken + ") not VALUE_EMBEDDED_OBJECT or VALUE_STRING, "
+                     + "can not access as binary");
+        return null;
+    }
+
+    @Override public ObjectCodec getCodec() {
+        return codec;
+    }
+
+    @Override public void setCodec(ObjectCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override public Version version() {
+        return Version.unknownVersion();
+    }
+
+    @Override public boolean isClosed() {
+        return closed;
+    }
+
+    @Override public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if ((in != null) && (ioContext.isResourceManaged() || isEnabled(Feature.AUTO_CLOSE_SOURCE))) {
+                in.close();
+            }
+        } finally {
+            if (bufferRecyclable) {
+                byte[] released = buffer;
+                buffer = null;
+                bufferRecyclable = false;
+                ioContext.releaseReadIOBuffer(released);
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarLong();
+        if (!ensureAvailable(length)) {
+            _reportInvalidEOF(" in a string value");
+        }
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        if (!ensureAvailable(length)) {
+            _reportInvalidEOF(" in a binary value");
+        }
+        byte[] value = new byte[length];
+        System.arraycopy(buffer, position, value, 0, length);
+        position += length;
+        return value;
+    }
+
+    private long readFixed(int length) throws IOException {
+        if (!ensureAvailable(length)) {
+            _reportInvalidEOFInValue();
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!ensureAvailable(1)) {
+                _reportInvalidEOFInValue();
+            }
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw _constructError("malformed variable length integer at byte " + (bufferStart + position), null);
+    }
+
+    /** Makes sure that the given number of bytes is buffered. Returns false if the input ends first. */
+    private boolean ensureAvailable(int needed) throws IOException {
+        if ((end - position) >= needed) {
+            return true;
+        }
+        if ((in == null) || (buffer == null)) {
+            return false;
+        }
+        int remaining = end - position;
+        if (needed > buffer.length) {
+            byte[] larger = new byte[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, position, larger, 0, remaining);
+            if (bufferRecyclable) {
+                ioContext.releaseReadIOBuffer(buffer);
+                bufferRecyclable = false;
+            }
+            buffer = larger;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        bufferStart += position;
+        position = 0;
+        end = remaining;
+        while (end < needed) {
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                return false;
+            }
+            end += read;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import com.addthis.codec.jackson.Jackson;
+
+import com.google.common.annotations.Beta;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streams Bin2 encoded objects to JSON through a {@link Bin2Parser}, so no objects are built and memory
+ * use does not grow with the size of the data. See {@link Bin2Parser} for how Bin2 structures are mapped
+ * to JSON.
+ */
+@Beta
+public final class Bin2JsonTranscoder {
+    private Bin2JsonTranscoder() {}
+
+    /** Writes every remaining token of the parser to the generator. Does not flush or close the generator. */
+    public static void transcode(Bin2Parser parser, JsonGenerator generator) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case START_OBJECT:
+                    generator.writeStartObject();
+                    break;
+                case END_OBJECT:
+                    generator.writeEndObject();
+                    break;
+                case START_ARRAY:
+                    generator.writeStartArray();
+                    break;
+                case END_ARRAY:
+                    generator.writeEndArray();
+                    break;
+                case FIELD_NAME:
+                    generator.writeFieldName(parser.getCurrentName());
+                    break;
+                case VALUE_STRING:
+                    generator.writeString(parser.getText());
+                    break;
+                case VALUE_NUMBER_INT:
+                    generator.writeNumber(parser.getLongValue());
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    if (parser.isFloatValue()) {
+                        generator.writeNumber((float) parser.getDoubleValue());
+                    } else {
+                        generator.writeNumber(parser.getDoubleValue());
+                    }
+                    break;
+                case VALUE_TRUE:
+                    generator.writeBoolean(true);
+                    break;
+                case VALUE_FALSE:
+                    generator.writeBoolean(false);
+                    break;
+                case VALUE_EMBEDDED_OBJECT:
+                    generator.writeBinary(parser.getBinaryValue());
+                    break;
+                default:
+                    generator.writeNull();
+                    break;
+            }
+        }
+    }
+
+    /** Transcodes one Bin2 encoded object of the given type from the stream. */
+    public static void transcode(Class<?> type, InputStream in, JsonGenerator generator) throws IOException {
+        transcode(new Bin2Parser(type, in), generator);
+    }
+
+    public static String toJson(Class<?> type, byte[] data) throws IOException {
+        return toJson(CodecBin2.INSTANCE, type, data);
+    }
+
+    /** Transcodes one object of the given type that was written by the given codec. */
+    public static String toJson(CodecBin2 codec, Class<?> type, byte[] data) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = Jackson.SIMPLE_MAPPER.getFactory().createGenerator(writer)) {
+            transcode(new Bin2Parser(codec, type, new ByteArrayInputStream(data)), generator);
+        }
+        return writer.toString();
+    }
+}
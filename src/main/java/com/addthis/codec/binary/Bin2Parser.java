@@ -0,0 +1,541 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.basis.util.LessBytes;
+
+import com.addthis.codec.reflection.CodableClassInfo;
+import com.addthis.codec.reflection.CodableFieldInfo;
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Strings;
+
+import com.fasterxml.jackson.core.JsonToken;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Pull parser over a Bin2 encoded object that reports its structure as a sequence of Jackson
+ * {@link JsonToken tokens} without instantiating any of the encoded classes. The schema comes from the
+ * {@link CodableClassInfo} of the expected type (and of any subclass named in the stream), so the classes
+ * must be loadable, but no objects are built and only one scalar value is held at a time. Memory use is
+ * bounded by the nesting depth of the data.
+ * <p/>
+ * Objects report their fields in encoding order, preceded by their plugin class field if the encoded
+ * object is a subclass. Fields that were null are reported as {@link JsonToken#VALUE_NULL}. Arrays and
+ * collections are reported as arrays. Maps with native keys are reported as objects keyed by the key's
+ * text; other maps are reported as arrays of two element [key, value] arrays. Objects that encode
+ * themselves (see {@link CodecBin2.Option#SELF_ENCODING}) are reported as a single
+ * {@link JsonToken#VALUE_EMBEDDED_OBJECT} holding their bytes.
+ */
+@Beta
+public class Bin2Parser implements Closeable {
+
+    @Nonnull private final InputStream in;
+    @Nonnull private final Shape       root;
+    @Nonnull private final BinaryTypeHandlers handlers;
+    @Nonnull private final Deque<Frame> stack = new ArrayDeque<>();
+
+    private final boolean selfEncoding;
+
+    private boolean started;
+
+    // a value or token that was decided on while producing the previous token
+    @Nullable private Shape     pendingShape;
+    @Nullable private JsonToken pendingToken;
+
+    @Nullable private JsonToken currentToken;
+    @Nullable private String    currentName;
+    @Nullable private String    text;
+    @Nullable private byte[]    binaryValue;
+    private long    longValue;
+    private double  doubleValue;
+    private boolean floatValue;
+
+    public Bin2Parser(@Nonnull Class<?> type, @Nonnull byte[] data) {
+        this(type, new ByteArrayInputStream(data));
+    }
+
+    /** Parses one Bin2 encoded object, including its version header, from the stream. */
+    public Bin2Parser(@Nonnull Class<?> type, @Nonnull InputStream in) {
+        this(CodecBin2.INSTANCE, type, in);
+    }
+
+    /**
+     * Parses one object written by the given codec, which decides whether objects that implement
+     * {@link com.addthis.codec.codables.BytesCodable} or {@link com.addthis.codec.codables.ByteBufCodable}
+     * encoded themselves.
+     */
+    public Bin2Parser(@Nonnull CodecBin2 codec, @Nonnull Class<?> type, @Nonnull InputStream in) {
+        checkArgument(codec.isScannable(), "can not parse CHAR_STRING, COMPACT_ELEMENTS or NULL_BITMAP data");
+        this.in = in;
+        this.root = Shape.root(type);
+        this.handlers = codec.getTypeHandlers();
+        this.selfEncoding = codec.hasOption(CodecBin2.Option.SELF_ENCODING);
+    }
+
+    /** Advances to the next token and returns it, or returns null once the whole object has been read. */
+    @Nullable public JsonToken nextToken() throws IOException {
+        currentToken = advance();
+        return currentToken;
+    }
+
+    @Nullable private JsonToken advance() throws IOException {
+        if (pendingToken != null) {
+            JsonToken token = pendingToken;
+            pendingToken = null;
+            return token;
+        }
+        if (pendingShape != null) {
+            Shape shape = pendingShape;
+            pendingShape = null;
+            return startValue(shape);
+        }
+        if (stack.isEmpty()) {
+            if (started) {
+                return null;
+            }
+            started = true;
+            int ver = LessBytes.readInt(in);
+            if (ver != CodecBin2.CODEC_VERSION) {
+                throw new IOException("version mismatch " + ver + " != " + CodecBin2.CODEC_VERSION);
+            }
+            return startValue(root);
+        }
+        return stack.peek().next();
+    }
+
+    /** Skips the children of the current start object or start array token. */
+    public void skipChildren() throws IOException {
+        if ((currentToken != JsonToken.START_OBJECT) && (currentToken != JsonToken.START_ARRAY)) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken token = nextToken();
+            if ((token == JsonToken.START_OBJECT) || (token == JsonToken.START_ARRAY)) {
+                depth += 1;
+            } else if ((token == JsonToken.END_OBJECT) || (token == JsonToken.END_ARRAY) || (token == null)) {
+                depth -= 1;
+            }
+        }
+    }
+
+    @Nullable public JsonToken getCurrentToken() {
+        return currentToken;
+    }
+
+    /** The name of the current field, valid from its field name token through its value. */
+    @Nullable public String getCurrentName() {
+        return currentName;
+    }
+
+    /** Text of the current string value or field name, or the text representation of the current scalar. */
+    @Nullable public String getText() {
+        return textOf(currentToken);
+    }
+
+    @Nullable private String textOf(@Nullable JsonToken token) {
+        if (token == null) {
+            return null;
+        }
+        switch (token) {
+            case FIELD_NAME:
+                return currentName;
+            case VALUE_STRING:
+                return text;
+            case VALUE_NUMBER_INT:
+                return Long.toString(longValue);
+            case VALUE_NUMBER_FLOAT:
+                return floatValue ? Float.toString((float) doubleValue) : Double.toString(doubleValue);
+            default:
+                return token.asString();
+        }
+    }
+
+    public long getLongValue() {
+        return longValue;
+    }
+
+    public double getDoubleValue() {
+        return doubleValue;
+    }
+
+    /**
+     * The bytes of the current {@link JsonToken#VALUE_EMBEDDED_OBJECT}: an object that encoded itself through
+     * {@link com.addthis.codec.codables.ByteBufCodable} or {@link com.addthis.codec.codables.BytesCodable}.
+     */
+    @Nullable public byte[] getBinaryValue() {
+        return binaryValue;
+    }
+
+    /** True if the current floating point value was encoded as a float rather than a double. */
+    public boolean isFloatValue() {
+        return floatValue;
+    }
+
+    @Override public void close() throws IOException {
+        in.close();
+    }
+
+    private JsonToken startValue(Shape shape) throws IOException {
+        switch (shape.kind) {
+            case FIELD:
+                if (readByte() == 0) {
+                    return JsonToken.VALUE_NULL;
+                }
+                return startValue(shape.element);
+            case OBJECT:
+                if (shape.handler != null) {
+                    if (readByte() == 0) {
+                        return JsonToken.VALUE_NULL;
+                    }
+                    return readHandled(shape.handler);
+                }
+                if (Fields.isNative(shape.type)) {
+                    return readNative(shape.type);
+                }
+                if (readByte() == 0) {
+                    return JsonToken.VALUE_NULL;
+                }
+                CodableClassInfo classInfo = Fields.getClassFieldMap(shape.type);
+                Class<?> concreteType = shape.type;
+                String stype = LessBytes.readString(in);
+                String classField = null;
+                if (!Strings.isNullOrEmpty(stype)) {
+                    classField = classInfo.getClassField();
+                    try {
+                        concreteType = classInfo.getClass(stype);
+                    } catch (ClassNotFoundException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+                if (selfEncoding && CodecBin2.encodesItself(concreteType)) {
+                    binaryValue = LessBytes.readBytes(in, (int) LessBytes.readLength(in));
+                    return JsonToken.VALUE_EMBEDDED_OBJECT;
+                }
+                stack.push(new ObjectFrame(concreteType, classField, stype));
+                return JsonToken.START_OBJECT;
+            case NATIVE:
+                return readNative(shape.type);
+            case HANDLED:
+                return readHandled(shape.handler);
+            case ENUM:
+                text = LessBytes.readString(in);
+                return JsonToken.VALUE_STRING;
+            case ARRAY:
+                int len = (int) LessBytes.readLength(in);
+                Class<?> componentType = shape.type;
+                if ((componentType == byte.class) || (componentType == Byte.class)) {
+                    stack.push(new SequenceFrame(len, Shape.BYTE));
+                } else if ((componentType == int.class) || (componentType == Integer.class)) {
+                    stack.push(new SequenceFrame(len, Shape.INT));
+                } else if ((componentType == long.class) || (componentType == Long.class)) {
+                    stack.push(new SequenceFrame(len, Shape.LONG));
+                } else {
+                    stack.push(new SequenceFrame(len, shape.element));
+                }
+                return JsonToken.START_ARRAY;
+            case COLLECTION:
+                stack.push(new SequenceFrame((int) LessBytes.readLength(in), shape.element));
+                return JsonToken.START_ARRAY;
+            case MAP:
+                int entries = (int) LessBytes.readLength(in);
+                if (!shape.key.isArray() && Fields.isNative(shape.key.type) && (shape.key.handler == null)) {
+                    stack.push(new MapFrame(entries, shape.key, shape.element));
+                    return JsonToken.START_OBJECT;
+                }
+                stack.push(new SequenceFrame(entries, Shape.entry(shape.key, shape.element)));
+                return JsonToken.START_ARRAY;
+            case ENTRY:
+                stack.push(new EntryFrame(shape.key, shape.element));
+                return JsonToken.START_ARRAY;
+            case BYTE:
+                longValue = (byte) readByte();
+                return JsonToken.VALUE_NUMBER_INT;
+            case INT:
+                longValue = LessBytes.readInt(in);
+                return JsonToken.VALUE_NUMBER_INT;
+            case LONG:
+                longValue = LessBytes.readLong(in);
+                return JsonToken.VALUE_NUMBER_INT;
+            default:
+                // fields that CodecBin2 does not know how to encode have no value bytes
+                return JsonToken.VALUE_NULL;
+        }
+    }
+
+    private JsonToken readNative(Class<?> type) throws IOException {
+        floatValue = false;
+        if (type == String.class) {
+            text = LessBytes.readString(in);
+            return JsonToken.VALUE_STRING;
+        } else if ((type == Integer.class) || (type == int.class) || (type == AtomicInteger.class)) {
+            longValue = LessBytes.readInt(in);
+            return JsonToken.VALUE_NUMBER_INT;
+        } else if ((type == Long.class) || (type == long.class) || (type == AtomicLong.class)) {
+            longValue = LessBytes.readLong(in);
+            return JsonToken.VALUE_NUMBER_INT;
+        } else if ((type == Short.class) || (type == short.class)) {
+            longValue = LessBytes.readShort(in);
+            return JsonToken.VALUE_NUMBER_INT;
+        } else if ((type == Boolean.class) || (type == boolean.class) || (type == AtomicBoolean.class)) {
+            return (readByte() != 0) ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE;
+        } else if ((type == Double.class) || (type == double.class)) {
+            doubleValue = Double.longBitsToDouble(LessBytes.readLong(in));
+            return JsonToken.VALUE_NUMBER_FLOAT;
+        } else if ((type == Float.class) || (type == float.class)) {
+            doubleValue = Float.intBitsToFloat(LessBytes.readInt(in));
+            floatValue = true;
+            return JsonToken.VALUE_NUMBER_FLOAT;
+        } else {
+            // not encoded by CodecBin2
+            return JsonToken.VALUE_NULL;
+        }
+    }
+
+    /** Integral values are reported as numbers and everything else as its string form. */
+    private JsonToken readHandled(BinaryTypeHandler<Object> handler) throws IOException {
+        Object value = handler.read(in);
+        floatValue = false;
+        if ((value instanceof Byte) || (value instanceof Short) || (value instanceof Integer)
+            || (value instanceof Long)) {
+            longValue = ((Number) value).longValue();
+            return JsonToken.VALUE_NUMBER_INT;
+        }
+        text = value.toString();
+        return JsonToken.VALUE_STRING;
+    }
+
+    private int readByte() throws IOException {
+        int read = in.read();
+        if (read < 0) {
+            throw new EOFException("unexpected end of Bin2 data");
+        }
+        return read;
+    }
+
+    private interface Frame {
+        JsonToken next() throws IOException;
+    }
+
+    private final class ObjectFrame implements Frame {
+        private final Iterator<CodableFieldInfo> fields;
+        private final Shape[] shapes;
+        private int index;
+
+        @Nullable private String classField;
+        @Nullable private final String className;
+
+        ObjectFrame(Class<?> type, @Nullable String classField, @Nullable String className) {
+            this.fields = Fields.getClassFieldMap(type).values().iterator();
+            this.shapes = handlers.parserShapes.get(type);
+            this.classField = classField;
+            this.className = className;
+        }
+
+        @Override public JsonToken next() {
+            if (classField != null) {
+                currentName = classField;
+                classField = null;
+                text = className;
+                pendingToken = JsonToken.VALUE_STRING;
+                return JsonToken.FIELD_NAME;
+            }
+            if (fields.hasNext()) {
+                CodableFieldInfo field = fields.next();
+                currentName = field.getName();
+                pendingShape = shapes[index++];
+                return JsonToken.FIELD_NAME;
+            }
+            stack.pop();
+            return JsonToken.END_OBJECT;
+        }
+    }
+
+    private final class SequenceFrame implements Frame {
+        private final Shape element;
+        private int remaining;
+
+        SequenceFrame(int remaining, Shape element) {
+            this.remaining = remaining;
+            this.element = element;
+        }
+
+        @Override public JsonToken next() throws IOException {
+            if (remaining > 0) {
+                remaining -= 1;
+                return startValue(element);
+            }
+            stack.pop();
+            return JsonToken.END_ARRAY;
+        }
+    }
+
+    private final class MapFrame implements Frame {
+        private final Shape key;
+        private final Shape value;
+        private int remaining;
+
+        MapFrame(int remaining, Shape key, Shape value) {
+            this.remaining = remaining;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override public JsonToken next() throws IOException {
+            if (remaining > 0) {
+                remaining -= 1;
+                currentName = textOf(readNative(key.type));
+                pendingShape = value;
+                return JsonToken.FIELD_NAME;
+            }
+            stack.pop();
+            return JsonToken.END_OBJECT;
+        }
+    }
+
+    private final class EntryFrame implements Frame {
+        private final Shape key;
+        private final Shape value;
+        private int position;
+
+        EntryFrame(Shape key, Shape value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override public JsonToken next() throws IOException {
+            switch (position++) {
+                case 0:
+                    return startValue(key);
+                case 1:
+                    return startValue(value);
+                default:
+                    stack.pop();
+                    return JsonToken.END_ARRAY;
+            }
+        }
+    }
+
+    /** The encoded layout of a value, mirroring the decode paths of {@link CodecBin2}. */
+    static final class Shape {
+        enum Kind {
+            FIELD, OBJECT, NATIVE, HANDLED, ENUM, ARRAY, COLLECTION, MAP, ENTRY, BYTE, INT, LONG, UNKNOWN
+        }
+
+        static final Shape BYTE = new Shape(Kind.BYTE, byte.class, null, null);
+        static final Shape INT  = new Shape(Kind.INT, int.class, null, null);
+        static final Shape LONG = new Shape(Kind.LONG, long.class, null, null);
+
+        final Kind     kind;
+        final Class<?> type;
+        final Shape    element;
+        final Shape    key;
+        // handler for the declared type of OBJECT and HANDLED shapes
+        @Nullable final BinaryTypeHandler<Object> handler;
+
+        private Shape(Kind kind, Class<?> type, Shape element, Shape key) {
+            this(kind, type, element, key, null);
+        }
+
+        private Shape(Kind kind, Class<?> type, Shape element, Shape key,
+                      @Nullable BinaryTypeHandler<Object> handler) {
+            this.kind = kind;
+            this.type = type;
+            this.element = element;
+            this.key = key;
+            this.handler = handler;
+        }
+
+        boolean isArray() {
+            return kind == Kind.ARRAY;
+        }
+
+        static Shape object(Class<?> type, @Nullable BinaryTypeHandler<Object> handler) {
+            return new Shape(Kind.OBJECT, type, null, null, handler);
+        }
+
+        /** The top level object, which {@link CodecBin2} never writes with a handler. */
+        static Shape root(Class<?> type) {
+            return object(type, null);
+        }
+
+        static Shape array(Class<?> componentType, @Nullable BinaryTypeHandler<Object> handler) {
+            Shape element = componentType.isEnum() ? new Shape(Kind.ENUM, componentType, null, null)
+                                                   : object(componentType, handler);
+            return new Shape(Kind.ARRAY, componentType, element, null);
+        }
+
+        static Shape value(CodecBin2.Element element) {
+            return element.array ? array(element.type, element.handler) : object(element.type, element.handler);
+        }
+
+        static Shape entry(Shape key, Shape value) {
+            return new Shape(Kind.ENTRY, null, value, key);
+        }
+
+        /** Shapes of the fields in a plan, in encoding order, with the handlers the plan resolved. */
+        static Shape[] fields(CodecBin2.ClassPlan plan) {
+            Shape[] shapes = new Shape[plan.fields.length];
+            for (int i = 0; i < shapes.length; i++) {
+                shapes[i] = field(plan.fields[i]);
+            }
+            return shapes;
+        }
+
+        private static Shape field(CodecBin2.FieldPlan plan) {
+            CodableFieldInfo field = plan.info;
+            Class<?> type = field.getTypeOrComponentType();
+            Shape inner;
+            if (field.isArray()) {
+                inner = array(type, plan.handler);
+            } else if (plan.handler != null) {
+                inner = new Shape(Kind.HANDLED, type, null, null, plan.handler);
+            } else if (field.isMap()) {
+                inner = new Shape(Kind.MAP, type, value(plan.elements[1]), value(plan.elements[0]));
+            } else if (field.isCollection()) {
+                inner = new Shape(Kind.COLLECTION, type, value(plan.elements[0]), null);
+            } else if (field.isCodable()) {
+                inner = object(type, null);
+            } else if (field.isEnum()) {
+                inner = new Shape(Kind.ENUM, type, null, null);
+            } else if (field.isNative()) {
+                inner = new Shape(Kind.NATIVE, type, null, null);
+            } else if (CodecBin2.isCharSequence(field)) {
+                inner = new Shape(Kind.NATIVE, String.class, null, null);
+            } else {
+                inner = new Shape(Kind.UNKNOWN, type, null, null);
+            }
+            return new Shape(Kind.FIELD, type, inner, null);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A condition on a single top-level native, String, or enum field that a {@link Bin2Scanner} can test
+ * against encoded Bin2 records. Bounds are compared with the field's type: integral fields (including
+ * booleans, as 0 and 1) take integral bounds, floating point fields take any number, String fields take
+ * strings, and enum fields only support {@link #equalTo equality} with a constant or its name.
+ */
+@Beta
+public final class Bin2Predicate {
+
+    enum Op {
+        IS_NULL, NOT_NULL, RANGE
+    }
+
+    @Nonnull private final String field;
+    @Nonnull private final Op     op;
+
+    @Nullable private final Object  low;
+    @Nullable private final Object  high;
+    private final boolean lowInclusive;
+    private final boolean highInclusive;
+
+    private Bin2Predicate(@Nonnull String field, @Nonnull Op op,
+                          @Nullable Object low, boolean lowInclusive,
+                          @Nullable Object high, boolean highInclusive) {
+        this.field = checkNotNull(field, "field");
+        this.op = op;
+        this.low = low;
+        this.lowInclusive = lowInclusive;
+        this.high = high;
+        this.highInclusive = highInclusive;
+    }
+
+    public static Bin2Predicate isNull(String field) {
+        return new Bin2Predicate(field, Op.IS_NULL, null, false, null, false);
+    }
+
+    public static Bin2Predicate notNull(String field) {
+        return new Bin2Predicate(field, Op.NOT_NULL, null, false, null, false);
+    }
+
+    public static Bin2Predicate equalTo(String field, Object value) {
+        checkNotNull(value, "value (use isNull to match missing values)");
+        return new Bin2Predicate(field, Op.RANGE, value, true, value, true);
+    }
+
+    /** Matches values between the two bounds, inclusive. */
+    public static Bin2Predicate between(String field, Object low, Object high) {
+        return new Bin2Predicate(field, Op.RANGE, checkNotNull(low, "low"), true, checkNotNull(high, "high"), true);
+    }
+
+    public static Bin2Predicate greaterThan(String field, Object low) {
+        return new Bin2Predicate(field, Op.RANGE, checkNotNull(low, "low"), false, null, false);
+    }
+
+    public static Bin2Predicate atLeast(String field, Object low) {
+        return new Bin2Predicate(field, Op.RANGE, checkNotNull(low, "low"), true, null, false);
+    }
+
+    public static Bin2Predicate lessThan(String field, Object high) {
+        return new Bin2Predicate(field, Op.RANGE, null, false, checkNotNull(high, "high"), false);
+    }
+
+    public static Bin2Predicate atMost(String field, Object high) {
+        return new Bin2Predicate(field, Op.RANGE, null, false, checkNotNull(high, "high"), true);
+    }
+
+    @Nonnull public String getField() {
+        return field;
+    }
+
+    @Nonnull Op op() {
+        return op;
+    }
+
+    @Nullable Object low() {
+        return low;
+    }
+
+    @Nullable Object high() {
+        return high;
+    }
+
+    boolean lowInclusive() {
+        return lowInclusive;
+    }
+
+    boolean highInclusive() {
+        return highInclusive;
+    }
+
+    /** True for predicates created by {@link #equalTo}, which can compare encoded strings without decoding them. */
+    boolean isEquality() {
+        return (op == Op.RANGE) && lowInclusive && highInclusive && (low != null) && low.equals(high);
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("field", field)
+                      .add("op", op)
+                      .add("low", low)
+                      .add("lowInclusive", lowInclusive)
+                      .add("high", high)
+                      .add("highInclusive", highInclusive)
+                      .toString();
+    }
+}
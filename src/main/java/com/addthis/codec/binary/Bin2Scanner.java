@@ -0,0 +1,494 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.addthis.basis.util.LessBytes;
+
+import com.addthis.codec.reflection.CodableClassInfo;
+import com.addthis.codec.reflection.CodableFieldInfo;
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Filters Bin2 encoded records of one type by testing {@link Bin2Predicate predicates} directly against the
+ * encoded bytes. Fields are visited in {@link CodableClassInfo} order; fields before the last tested field
+ * are skipped without being decoded, fields after it are never looked at, and a record is rejected as soon
+ * as one predicate fails. Only matching records are fully decoded. All predicates must match (logical and).
+ * Instances are thread safe.
+ */
+@Beta
+public class Bin2Scanner<T> {
+
+    @Nonnull private final CodecBin2                    codec;
+    @Nonnull private final Class<T>                     type;
+    @Nonnull private final Map<String, Bin2Predicate>   predicates;
+    @Nonnull private final Map<Class<?>, FieldTest[]>   plans = new ConcurrentHashMap<>();
+
+    private final boolean selfEncoding;
+
+    public Bin2Scanner(@Nonnull Class<T> type, Bin2Predicate... predicates) {
+        this(CodecBin2.INSTANCE, type, predicates);
+    }
+
+    /**
+     * Scans records written by the given codec, which decides whether objects that implement
+     * {@link com.addthis.codec.codables.BytesCodable} or {@link com.addthis.codec.codables.ByteBufCodable}
+     * encoded themselves. Matching records are decoded with it too.
+     */
+    public Bin2Scanner(@Nonnull CodecBin2 codec, @Nonnull Class<T> type, Bin2Predicate... predicates) {
+        checkArgument(codec.isScannable(), "can not scan CHAR_STRING, COMPACT_ELEMENTS or NULL_BITMAP records");
+        this.codec = codec;
+        this.type = type;
+        this.selfEncoding = codec.hasOption(CodecBin2.Option.SELF_ENCODING);
+        ImmutableMap.Builder<String, Bin2Predicate> builder = ImmutableMap.builder();
+        for (Bin2Predicate predicate : predicates) {
+            builder.put(predicate.getField(), predicate);
+        }
+        this.predicates = builder.build();
+        checkArgument(!encodesItself(type), "%s encodes itself, so its fields can not be scanned", type);
+        // validates the predicates against the declared type up front
+        plan(type);
+    }
+
+    /** Tests an encoded record without decoding it. Null records never match. */
+    public boolean matches(byte[] record) throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(record);
+        int ver = LessBytes.readInt(in);
+        if (ver != CodecBin2.CODEC_VERSION) {
+            throw new IOException("version mismatch " + ver + " != " + CodecBin2.CODEC_VERSION);
+        }
+        if (in.read() == 0) {
+            return false;
+        }
+        Class<?> recordType = type;
+        String stype = LessBytes.readString(in);
+        if (!Strings.isNullOrEmpty(stype)) {
+            recordType = Fields.getClassFieldMap(type).getClass(stype);
+        }
+        if (encodesItself(recordType)) {
+            throw new IOException(recordType + " encodes itself, so its fields can not be scanned");
+        }
+        FieldTest[] plan = plan(recordType);
+        for (FieldTest test : plan) {
+            if (test.predicate == null) {
+                skipField(test.plan, in);
+            } else if (!test.test(record, in)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Decodes the record if it matches, and otherwise returns null. */
+    @Nullable public T decodeIfMatches(byte[] record) throws Exception {
+        if (!matches(record)) {
+            return null;
+        }
+        return type.cast(codec.decode(type, record));
+    }
+
+    /** Lazily decodes the matching records, eg. from a {@link RecordLogReader}. */
+    public Iterable<T> scan(final Iterable<byte[]> records) {
+        return new Iterable<T>() {
+            @Override public Iterator<T> iterator() {
+                return scan(records.iterator());
+            }
+        };
+    }
+
+    public Iterator<T> scan(final Iterator<byte[]> records) {
+        return new AbstractIterator<T>() {
+            @Override protected T computeNext() {
+                try {
+                    while (records.hasNext()) {
+                        T match = decodeIfMatches(records.next());
+                        if (match != null) {
+                            return match;
+                        }
+                    }
+                } catch (Exception ex) {
+                    throw Throwables.propagate(ex);
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /** Field tests in encoding order, truncated after the last field with a predicate. */
+    private FieldTest[] plan(Class<?> recordType) {
+        FieldTest[] plan = plans.get(recordType);
+        if (plan != null) {
+            return plan;
+        }
+        CodableClassInfo classInfo = Fields.getClassFieldMap(recordType);
+        for (String name : predicates.keySet()) {
+            checkArgument(classInfo.fields().containsKey(name), "%s has no codable field named %s", recordType, name);
+        }
+        CodecBin2.FieldPlan[] fields = codec.plan(recordType).fields;
+        int last = -1;
+        for (int i = 0; i < fields.length; i++) {
+            if (predicates.containsKey(fields[i].info.getName())) {
+                last = i;
+            }
+        }
+        plan = new FieldTest[last + 1];
+        for (int i = 0; i <= last; i++) {
+            plan[i] = new FieldTest(fields[i], predicates.get(fields[i].info.getName()));
+        }
+        plans.put(recordType, plan);
+        return plan;
+    }
+
+    private void skipField(CodecBin2.FieldPlan plan, ByteArrayInputStream in) throws Exception {
+        if (in.read() == 0) {
+            return;
+        }
+        CodableFieldInfo field = plan.info;
+        Class<?> fieldType = field.getTypeOrComponentType();
+        if (field.isArray()) {
+            skipArray(fieldType, plan.handler, in);
+        } else if (plan.handler != null) {
+            plan.handler.skip(in);
+        } else if (field.isMap()) {
+            int elements = (int) LessBytes.readLength(in);
+            for (int i = 0; i < elements; i++) {
+                skipValue(plan.elements[0], in);
+                skipValue(plan.elements[1], in);
+            }
+        } else if (field.isCollection()) {
+            int elements = (int) LessBytes.readLength(in);
+            for (int i = 0; i < elements; i++) {
+                skipValue(plan.elements[0], in);
+            }
+        } else if (field.isCodable()) {
+            skipObject(fieldType, null, in);
+        } else if (field.isEnum()) {
+            skipString(in);
+        } else if (field.isNative()) {
+            skipNative(fieldType, in);
+        } else if (CodecBin2.isCharSequence(field)) {
+            skipString(in);
+        }
+    }
+
+    private void skipValue(CodecBin2.Element element, ByteArrayInputStream in) throws Exception {
+        if (element.array) {
+            skipArray(element.type, element.handler, in);
+        } else {
+            skipObject(element.type, element.handler, in);
+        }
+    }
+
+    private void skipArray(Class<?> componentType, @Nullable BinaryTypeHandler<Object> handler,
+                           ByteArrayInputStream in) throws Exception {
+        int len = (int) LessBytes.readLength(in);
+        if ((componentType == byte.class) || (componentType == Byte.class)) {
+            skipBytes(in, len);
+        } else if ((componentType == int.class) || (componentType == Integer.class)) {
+            skipBytes(in, len * 4L);
+        } else if ((componentType == long.class) || (componentType == Long.class)) {
+            skipBytes(in, len * 8L);
+        } else if (componentType.isEnum()) {
+            for (int i = 0; i < len; i++) {
+                skipString(in);
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                skipObject(componentType, handler, in);
+            }
+        }
+    }
+
+    /** Skips an object declared as the given type, which the handler (if any) was resolved from. */
+    private void skipObject(Class<?> objectType, @Nullable BinaryTypeHandler<Object> handler,
+                            ByteArrayInputStream in) throws Exception {
+        if (handler != null) {
+            if (in.read() != 0) {
+                handler.skip(in);
+            }
+            return;
+        }
+        if (Fields.isNative(objectType)) {
+            skipNative(objectType, in);
+            return;
+        }
+        if (in.read() == 0) {
+            return;
+        }
+        Class<?> concreteType = objectType;
+        String stype = LessBytes.readString(in);
+        if (!Strings.isNullOrEmpty(stype)) {
+            concreteType = Fields.getClassFieldMap(objectType).getClass(stype);
+        }
+        if (encodesItself(concreteType)) {
+            skipString(in);
+            return;
+        }
+        for (CodecBin2.FieldPlan field : codec.plan(concreteType).fields) {
+            skipField(field, in);
+        }
+    }
+
+    private boolean encodesItself(Class<?> objectType) {
+        return selfEncoding && CodecBin2.encodesItself(objectType);
+    }
+
+    private static void skipNative(Class<?> nativeType, ByteArrayInputStream in) throws IOException {
+        if (nativeType == String.class) {
+            skipString(in);
+        } else if ((nativeType == Integer.class) || (nativeType == int.class) || (nativeType == AtomicInteger.class)
+                   || (nativeType == Float.class) || (nativeType == float.class)) {
+            skipBytes(in, 4);
+        } else if ((nativeType == Long.class) || (nativeType == long.class) || (nativeType == AtomicLong.class)
+                   || (nativeType == Double.class) || (nativeType == double.class)) {
+            skipBytes(in, 8);
+        } else if ((nativeType == Short.class) || (nativeType == short.class)) {
+            skipBytes(in, 2);
+        } else if ((nativeType == Boolean.class) || (nativeType == boolean.class)
+                   || (nativeType == AtomicBoolean.class)) {
+            skipBytes(in, 1);
+        }
+        // other natives are not encoded by CodecBin2, so there is nothing to skip
+    }
+
+    private static void skipString(ByteArrayInputStream in) throws IOException {
+        skipBytes(in, LessBytes.readLength(in));
+    }
+
+    private static void skipBytes(ByteArrayInputStream in, long count) throws IOException {
+        if (in.skip(count) != count) {
+            throw new IOException("unexpected end of record");
+        }
+    }
+
+    /** How a field's predicate is evaluated, resolved once per field from the field's declared type. */
+    private enum Kind {
+        INTEGRAL, FLOATING, STRING, ENUM, HANDLED
+    }
+
+    private static final class FieldTest {
+        @Nonnull final CodecBin2.FieldPlan plan;
+        @Nonnull final CodableFieldInfo    field;
+        @Nullable final Bin2Predicate      predicate;
+
+        private final Kind kind;
+
+        // bounds converted for the field's kind
+        private final long   lowLong;
+        private final long   highLong;
+        private final double lowDouble;
+        private final double highDouble;
+        @Nullable private final String lowString;
+        @Nullable private final String highString;
+        @Nullable private final byte[] equalBytes;
+
+        FieldTest(@Nonnull CodecBin2.FieldPlan plan, @Nullable Bin2Predicate predicate) {
+            this.plan = plan;
+            this.field = plan.info;
+            this.predicate = predicate;
+            Class<?> fieldType = field.getTypeOrComponentType();
+            if (predicate == null) {
+                kind = null;
+            } else if (plan.handler != null) {
+                checkArgument(!field.isArray() && (predicate.op() != Bin2Predicate.Op.RANGE),
+                              "field %s has a binary type handler, so only supports null checks", field.getName());
+                kind = Kind.HANDLED;
+            } else {
+                checkArgument(!field.isArray()
+                              && (field.isNative() || field.isEnum() || CodecBin2.isCharSequence(field)),
+                              "predicates only support native and enum fields, not %s", field);
+                if ((fieldType == String.class) || (fieldType == CharSequence.class)) {
+                    kind = Kind.STRING;
+                } else if (field.isEnum()) {
+                    kind = Kind.ENUM;
+                    checkArgument((predicate.op() != Bin2Predicate.Op.RANGE) || predicate.isEquality(),
+                                  "enum field %s only supports equality and null checks", field.getName());
+                } else if ((fieldType == float.class) || (fieldType == Float.class)
+                           || (fieldType == double.class) || (fieldType == Double.class)) {
+                    kind = Kind.FLOATING;
+                } else {
+                    checkArgument(isIntegral(fieldType), "unsupported predicate field type %s", field);
+                    kind = Kind.INTEGRAL;
+                }
+            }
+            boolean floatField = (fieldType == float.class) || (fieldType == Float.class);
+            Object low = (predicate == null) ? null : predicate.low();
+            Object high = (predicate == null) ? null : predicate.high();
+            lowLong = (kind == Kind.INTEGRAL) ? toLong(low, Long.MIN_VALUE) : 0;
+            highLong = (kind == Kind.INTEGRAL) ? toLong(high, Long.MAX_VALUE) : 0;
+            lowDouble = (kind == Kind.FLOATING) ? toDouble(low, Double.NEGATIVE_INFINITY, floatField) : 0;
+            highDouble = (kind == Kind.FLOATING) ? toDouble(high, Double.POSITIVE_INFINITY, floatField) : 0;
+            lowString = ((kind == Kind.STRING) && (low != null)) ? low.toString() : null;
+            highString = ((kind == Kind.STRING) && (high != null)) ? high.toString() : null;
+            if (((kind == Kind.STRING) || (kind == Kind.ENUM)) && predicate.isEquality()) {
+                String value = (low instanceof Enum) ? ((Enum<?>) low).name() : low.toString();
+                equalBytes = value.getBytes(StandardCharsets.UTF_8);
+            } else {
+                equalBytes = null;
+            }
+        }
+
+        boolean test(byte[] record, ByteArrayInputStream in) throws IOException {
+            boolean present = in.read() != 0;
+            switch (predicate.op()) {
+                case IS_NULL:
+                    if (present) {
+                        skipNativeOrEnum(in);
+                    }
+                    return !present;
+                case NOT_NULL:
+                    if (present) {
+                        skipNativeOrEnum(in);
+                    }
+                    return present;
+                default:
+                    return present && testValue(record, in);
+            }
+        }
+
+        private void skipNativeOrEnum(ByteArrayInputStream in) throws IOException {
+            if (kind == Kind.ENUM) {
+                skipString(in);
+            } else if (kind == Kind.HANDLED) {
+                plan.handler.skip(in);
+            } else {
+                skipNative(field.getTypeOrComponentType(), in);
+            }
+        }
+
+        private boolean testValue(byte[] record, ByteArrayInputStream in) throws IOException {
+            switch (kind) {
+                case INTEGRAL:
+                    return inRange(readIntegral(in));
+                case FLOATING:
+                    Class<?> fieldType = field.getTypeOrComponentType();
+                    if ((fieldType == float.class) || (fieldType == Float.class)) {
+                        return inRange((double) Float.intBitsToFloat(LessBytes.readInt(in)));
+                    } else {
+                        return inRange(Double.longBitsToDouble(LessBytes.readLong(in)));
+                    }
+                default:
+                    if (equalBytes != null) {
+                        return equalEncoded(record, in);
+                    }
+                    return inRange(LessBytes.readString(in));
+            }
+        }
+
+        /** Compares an encoded string with the expected value in place. */
+        private boolean equalEncoded(byte[] record, ByteArrayInputStream in) throws IOException {
+            int length = (int) LessBytes.readLength(in);
+            int start = record.length - in.available();
+            skipBytes(in, length);
+            if (length != equalBytes.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (record[start + i] != equalBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long readIntegral(ByteArrayInputStream in) throws IOException {
+            Class<?> fieldType = field.getTypeOrComponentType();
+            if ((fieldType == int.class) || (fieldType == Integer.class) || (fieldType == AtomicInteger.class)) {
+                return LessBytes.readInt(in);
+            } else if ((fieldType == long.class) || (fieldType == Long.class) || (fieldType == AtomicLong.class)) {
+                return LessBytes.readLong(in);
+            } else if ((fieldType == short.class) || (fieldType == Short.class)) {
+                return LessBytes.readShort(in);
+            } else {
+                return (in.read() != 0) ? 1 : 0;
+            }
+        }
+
+        private boolean inRange(long value) {
+            return (predicate.lowInclusive() ? (value >= lowLong) : (value > lowLong))
+                   && (predicate.highInclusive() ? (value <= highLong) : (value < highLong));
+        }
+
+        private boolean inRange(double value) {
+            return (predicate.lowInclusive() ? (value >= lowDouble) : (value > lowDouble))
+                   && (predicate.highInclusive() ? (value <= highDouble) : (value < highDouble));
+        }
+
+        private boolean inRange(String value) {
+            if (lowString != null) {
+                int cmp = value.compareTo(lowString);
+                if (predicate.lowInclusive() ? (cmp < 0) : (cmp <= 0)) {
+                    return false;
+                }
+            }
+            if (highString != null) {
+                int cmp = value.compareTo(highString);
+                if (predicate.highInclusive() ? (cmp > 0) : (cmp >= 0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isIntegral(Class<?> fieldType) {
+            return (fieldType == int.class) || (fieldType == Integer.class) || (fieldType == AtomicInteger.class)
+                   || (fieldType == long.class) || (fieldType == Long.class) || (fieldType == AtomicLong.class)
+                   || (fieldType == short.class) || (fieldType == Short.class)
+                   || (fieldType == boolean.class) || (fieldType == Boolean.class)
+                   || (fieldType == AtomicBoolean.class);
+        }
+
+        private static long toLong(@Nullable Object bound, long unbounded) {
+            if (bound == null) {
+                return unbounded;
+            } else if (bound instanceof Boolean) {
+                return ((Boolean) bound) ? 1 : 0;
+            }
+            checkArgument((bound instanceof Long) || (bound instanceof Integer) || (bound instanceof Short)
+                          || (bound instanceof Byte), "integral fields need integral bounds, not %s", bound);
+            return ((Number) bound).longValue();
+        }
+
+        private static double toDouble(@Nullable Object bound, double unbounded, boolean floatField) {
+            if (bound == null) {
+                return unbounded;
+            }
+            checkArgument(bound instanceof Number, "floating point fields need numeric bounds, not %s", bound);
+            // compare float fields against the float nearest the bound, so that equalTo(field, 0.1) works
+            return floatField ? ((Number) bound).floatValue() : ((Number) bound).doubleValue();
+        }
+    }
+}
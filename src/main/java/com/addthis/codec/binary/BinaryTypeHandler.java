@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * Writes and reads values of one type for {@link CodecBin2}, in place of walking the type's fields.
+ * Added to a codec through {@link CodecBin2#withTypeHandler}. Nulls are handled by the codec, so handlers
+ * only ever see non-null values. A handler's encoding must be self delimiting, since it is not length framed.
+ */
+@Beta
+public interface BinaryTypeHandler<T> {
+
+    void write(@Nonnull T value, OutputStream out) throws IOException;
+
+    @Nonnull T read(InputStream in) throws IOException;
+
+    /** Skips over one value without building it. Reads and discards it unless overridden. */
+    default void skip(InputStream in) throws IOException {
+        read(in);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.net.InetAddress;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.addthis.basis.util.LessBytes;
+
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable set of {@link BinaryTypeHandler}s, which is part of a {@link CodecBin2}'s settings (see
+ * {@link CodecBin2#withTypeHandler} and {@link CodecBin2#withBuiltInHandlers()}) and is followed by the
+ * {@link Bin2Scanner}s and {@link Bin2Parser}s given that codec. A type uses the handler in the set for it or
+ * for its nearest superclass or interface; the result is resolved once per type and cached (without keeping
+ * classes from being unloaded). The type is always the declared type of the field, element or array
+ * component being written, never the class of the value, because that is all the reader has to go on.
+ * <p/>
+ * Handlers take precedence over the codec's own handling of a type, so data written with a set of handlers
+ * can only be read with the same set. For that reason codecs have no handlers unless they are asked for.
+ * {@link #BUILT_INS} has handlers for numbers the codec otherwise skips (bytes, chars, big integers and
+ * decimals) and a few common value types that would otherwise be walked field by field: {@link UUID},
+ * {@link Instant}, {@link Duration}, {@link BitSet} and {@link InetAddress}.
+ * <p/>
+ * Each set resolves its own per class plans, so derive a codec once and reuse it rather than adding the
+ * same handlers again for every use.
+ */
+@Beta
+public final class BinaryTypeHandlers {
+
+    /** No handlers, which is what codecs start with. */
+    public static final BinaryTypeHandlers NONE = new BinaryTypeHandlers(
+            ImmutableMap.<Class<?>, BinaryTypeHandler<?>>of());
+
+    /** Only the built-in handlers. */
+    public static final BinaryTypeHandlers BUILT_INS = new BinaryTypeHandlers(ImmutableMap.copyOf(builtIns()));
+
+    private final ImmutableMap<Class<?>, BinaryTypeHandler<?>> registered;
+
+    private final LoadingCache<Class<?>, Optional<BinaryTypeHandler<Object>>> resolved =
+            CacheBuilder.newBuilder().weakKeys().build(
+                    new CacheLoader<Class<?>, Optional<BinaryTypeHandler<Object>>>() {
+                        @Override public Optional<BinaryTypeHandler<Object>> load(Class<?> type) {
+                            return Optional.fromNullable(resolve(type));
+                        }
+                    });
+
+    // codec and parser plans that use these handlers, resolved once per class and dropped along with it
+    final ClassValue<CodecBin2.ClassPlan> plans = new ClassValue<CodecBin2.ClassPlan>() {
+        @Override protected CodecBin2.ClassPlan computeValue(Class<?> type) {
+            return new CodecBin2.ClassPlan(Fields.getClassFieldMap(type), BinaryTypeHandlers.this);
+        }
+    };
+    final ClassValue<Bin2Parser.Shape[]> parserShapes = new ClassValue<Bin2Parser.Shape[]>() {
+        @Override protected Bin2Parser.Shape[] computeValue(Class<?> type) {
+            return Bin2Parser.Shape.fields(plans.get(type));
+        }
+    };
+
+    private BinaryTypeHandlers(ImmutableMap<Class<?>, BinaryTypeHandler<?>> registered) {
+        this.registered = registered;
+    }
+
+    /** Returns a set with these handlers, and the given handler for the type and its subtypes. */
+    public <T> BinaryTypeHandlers with(@Nonnull Class<T> type, @Nonnull BinaryTypeHandler<? super T> handler) {
+        Map<Class<?>, BinaryTypeHandler<?>> handlers = new LinkedHashMap<>(registered);
+        handlers.put(checkNotNull(type), checkNotNull(handler));
+        return new BinaryTypeHandlers(ImmutableMap.copyOf(handlers));
+    }
+
+    /** Returns a set with these handlers, and the built-in handlers for any types these do not cover. */
+    public BinaryTypeHandlers withBuiltIns() {
+        if (registered.isEmpty()) {
+            return BUILT_INS;
+        }
+        Map<Class<?>, BinaryTypeHandler<?>> handlers = builtIns();
+        handlers.putAll(registered);
+        return new BinaryTypeHandlers(ImmutableMap.copyOf(handlers));
+    }
+
+    public boolean isEmpty() {
+        return registered.isEmpty();
+    }
+
+    /** Returns the handler that applies to the type, or null if the codec should handle it as usual. */
+    @Nullable public BinaryTypeHandler<Object> forType(@Nonnull Class<?> type) {
+        return resolved.getUnchecked(type).orNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable private BinaryTypeHandler<Object> resolve(Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            BinaryTypeHandler<?> handler = registered.get(current);
+            if (handler != null) {
+                return (BinaryTypeHandler<Object>) handler;
+            }
+        }
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> iface : current.getInterfaces()) {
+                BinaryTypeHandler<Object> handler = resolve(iface);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this).add("types", registered.keySet()).toString();
+    }
+
+    private static Map<Class<?>, BinaryTypeHandler<?>> builtIns() {
+        Map<Class<?>, BinaryTypeHandler<?>> handlers = new LinkedHashMap<>();
+        BinaryTypeHandler<Byte> bytes = new BinaryTypeHandler<Byte>() {
+            @Override public void write(Byte value, OutputStream out) throws IOException {
+                out.write(value);
+            }
+
+            @Override public Byte read(InputStream in) throws IOException {
+                return (byte) readByte(in);
+            }
+        };
+        handlers.put(Byte.class, bytes);
+        handlers.put(byte.class, bytes);
+        BinaryTypeHandler<Character> chars = new BinaryTypeHandler<Character>() {
+            @Override public void write(Character value, OutputStream out) throws IOException {
+                LessBytes.writeShort((short) value.charValue(), out);
+            }
+
+            @Override public Character read(InputStream in) throws IOException {
+                return (char) LessBytes.readShort(in);
+            }
+        };
+        handlers.put(Character.class, chars);
+        handlers.put(char.class, chars);
+        handlers.put(BigInteger.class, new BinaryTypeHandler<BigInteger>() {
+            @Override public void write(BigInteger value, OutputStream out) throws IOException {
+                LessBytes.writeBytes(value.toByteArray(), out);
+            }
+
+            @Override public BigInteger read(InputStream in) throws IOException {
+                return new BigInteger(LessBytes.readBytes(in));
+            }
+
+            @Override public void skip(InputStream in) throws IOException {
+                skipFramed(in);
+            }
+        });
+        handlers.put(BigDecimal.class, new BinaryTypeHandler<BigDecimal>() {
+            @Override public void write(BigDecimal value, OutputStream out) throws IOException {
+                writeSigned(value.scale(), out);
+                LessBytes.writeBytes(value.unscaledValue().toByteArray(), out);
+            }
+
+            @Override public BigDecimal read(InputStream in) throws IOException {
+                int scale = readSigned(in);
+                return new BigDecimal(new BigInteger(LessBytes.readBytes(in)), scale);
+            }
+
+            @Override public void skip(InputStream in) throws IOException {
+                readSigned(in);
+                skipFramed(in);
+            }
+        });
+        handlers.put(UUID.class, new BinaryTypeHandler<UUID>() {
+            @Override public void write(UUID value, OutputStream out) throws IOException {
+                LessBytes.writeLong(value.getMostSignificantBits(), out);
+                LessBytes.writeLong(value.getLeastSignificantBits(), out);
+            }
+
+            @Override public UUID read(InputStream in) throws IOException {
+                return new UUID(LessBytes.readLong(in), LessBytes.readLong(in));
+            }
+        });
+        handlers.put(Instant.class, new BinaryTypeHandler<Instant>() {
+            @Override public void write(Instant value, OutputStream out) throws IOException {
+                LessBytes.writeLong(value.getEpochSecond(), out);
+                LessBytes.writeLength(value.getNano(), out);
+            }
+
+            @Override public Instant read(InputStream in) throws IOException {
+                long seconds = LessBytes.readLong(in);
+                return Instant.ofEpochSecond(seconds, LessBytes.readLength(in));
+            }
+        });
+        handlers.put(Duration.class, new BinaryTypeHandler<Duration>() {
+            @Override public void write(Duration value, OutputStream out) throws IOException {
+                LessBytes.writeLong(value.getSeconds(), out);
+                LessBytes.writeLength(value.getNano(), out);
+            }
+
+            @Override public Duration read(InputStream in) throws IOException {
+                long seconds = LessBytes.readLong(in);
+                return Duration.ofSeconds(seconds, LessBytes.readLength(in));
+            }
+        });
+        handlers.put(BitSet.class, new BinaryTypeHandler<BitSet>() {
+            @Override public void write(BitSet value, OutputStream out) throws IOException {
+                LessBytes.writeBytes(value.toByteArray(), out);
+            }
+
+            @Override public BitSet read(InputStream in) throws IOException {
+                return BitSet.valueOf(LessBytes.readBytes(in));
+            }
+
+            @Override public void skip(InputStream in) throws IOException {
+                skipFramed(in);
+            }
+        });
+        handlers.put(InetAddress.class, new BinaryTypeHandler<InetAddress>() {
+            @Override public void write(InetAddress value, OutputStream out) throws IOException {
+                LessBytes.writeBytes(value.getAddress(), out);
+            }
+
+            @Override public InetAddress read(InputStream in) throws IOException {
+                return InetAddress.getByAddress(LessBytes.readBytes(in));
+            }
+
+            @Override public void skip(InputStream in) throws IOException {
+                skipFramed(in);
+            }
+        });
+        return handlers;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int read = in.read();
+        if (read < 0) {
+            throw new EOFException();
+        }
+        return read;
+    }
+
+    /** Zig-zag encoded so that small negative values stay small. */
+    private static void writeSigned(int value, OutputStream out) throws IOException {
+        LessBytes.writeLength(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL, out);
+    }
+
+    private static int readSigned(InputStream in) throws IOException {
+        int zigzag = (int) LessBytes.readLength(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static void skipFramed(InputStream in) throws IOException {
+        long length = LessBytes.readLength(in);
+        if (in.skip(length) != length) {
+            throw new EOFException();
+        }
+    }
+}
@@ -13,28 +13,38 @@
  */
 package com.addthis.codec.binary;
 
+import javax.annotation.Nullable;
+
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
+import java.nio.charset.StandardCharsets;
+
 import java.util.Stack;
 
 import com.addthis.basis.util.LessBytes;
 
+import com.addthis.codec.utils.StringCanonicalizer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 final class BufferIn {
 
-    ByteArrayInputStream        in;
-    Stack<ByteArrayInputStream> stack;
+    DirectInputStream        in;
+    Stack<DirectInputStream> stack;
 
     BufferIn(final byte[] data) throws IOException {
         stack = new Stack<>();
-        in = new ByteArrayInputStream(data);
+        in = new DirectInputStream(data);
     }
 
     public void push() throws IOException {
         int len = (int) LessBytes.readLength(in);
         byte[] ndat = LessBytes.readBytes(in, len);
         stack.push(in);
-        in = new ByteArrayInputStream(ndat);
+        in = new DirectInputStream(ndat);
     }
 
     public void pop() {
@@ -45,4 +55,58 @@ final class BufferIn {
     public String toString() {
         return "BufferIn:" + (in != null ? in.available() : -1);
     }
+
+    /** Exposes the internal buffer so that strings can be decoded from it without an intermediate array. */
+    static final class DirectInputStream extends ByteArrayInputStream {
+
+        DirectInputStream(byte[] data) {
+            super(data);
+        }
+
+        /** Reads a string written by {@link LessBytes#writeString} or {@link BufferOut.DirectOutputStream#writeUtf8}. */
+        String readUtf8() throws IOException {
+            return readUtf8(null);
+        }
+
+        /** As {@link #readUtf8()}, but looks the encoded bytes up in the canonicalizer if there is one. */
+        String readUtf8(@Nullable StringCanonicalizer canonicalizer) throws IOException {
+            int length = (int) LessBytes.readLength(this);
+            if (length > (count - pos)) {
+                throw new EOFException("string of " + length + " bytes with only " + (count - pos) + " remaining");
+            }
+            String str;
+            if (canonicalizer == null) {
+                str = new String(buf, pos, length, StandardCharsets.UTF_8);
+            } else {
+                str = canonicalizer.canonicalize(buf, pos, length);
+            }
+            pos += length;
+            return str;
+        }
+
+        /** Reads the same bytes as {@link #readUtf8()}, but returns a view over them instead of decoding. */
+        Utf8Sequence readUtf8Sequence() throws IOException {
+            int length = (int) LessBytes.readLength(this);
+            if (length > (count - pos)) {
+                throw new EOFException("string of " + length + " bytes with only " + (count - pos) + " remaining");
+            }
+            Utf8Sequence sequence = new Utf8Sequence(buf, pos, length);
+            pos += length;
+            return sequence;
+        }
+
+        /**
+         * Reads a length framed byte sequence as a buffer that wraps the same backing array, so that
+         * {@link com.addthis.codec.codables.ByteBufCodable}s can read it without a copy.
+         */
+        ByteBuf readByteBuf() throws IOException {
+            int length = (int) LessBytes.readLength(this);
+            if (length > (count - pos)) {
+                throw new EOFException(length + " framed bytes with only " + (count - pos) + " remaining");
+            }
+            ByteBuf wrapped = Unpooled.wrappedBuffer(buf, pos, length);
+            pos += length;
+            return wrapped;
+        }
+    }
 }
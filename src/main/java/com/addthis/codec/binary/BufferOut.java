@@ -17,14 +17,20 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.Arrays;
 import java.util.Stack;
 
 import com.addthis.basis.util.LessBytes;
 
+import com.addthis.codec.codables.ByteBufCodable;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.buffer.UnpooledHeapByteBuf;
+
 final class BufferOut {
 
-    ByteArrayOutputStream        out;
-    Stack<ByteArrayOutputStream> stack;
+    DirectOutputStream        out;
+    Stack<DirectOutputStream> stack;
 
     BufferOut() {
         stack = new Stack<>();
@@ -36,12 +42,12 @@ final class BufferOut {
     }
 
     public void push() {
-        stack.push(new ByteArrayOutputStream());
+        stack.push(new DirectOutputStream());
         out = stack.peek();
     }
 
     public void pop() throws IOException {
-        ByteArrayOutputStream last = stack.pop();
+        DirectOutputStream last = stack.pop();
         out = stack.peek();
         LessBytes.writeLength(last.size(), out());
         last.writeTo(out());
@@ -51,4 +57,117 @@ final class BufferOut {
     public String toString() {
         return "BufferOut:" + (out != null ? out.size() : -1);
     }
+
+    /** Exposes the internal buffer so that strings can be encoded into it without an intermediate array. */
+    static final class DirectOutputStream extends ByteArrayOutputStream {
+
+        // longest length prefix that LessBytes.writeLength produces for an int
+        private static final int MAX_LENGTH_BYTES = 5;
+
+        /**
+         * Lets the codable write straight into this stream's array, then length prefixes what it wrote as
+         * {@link LessBytes#writeBytes} would. Room for the longest prefix is left in front of the codable's
+         * bytes, and they are moved back over any of it that the actual prefix does not need.
+         */
+        void writeFramed(ByteBufCodable codable) throws IOException {
+            int start = count;
+            int payload = start + MAX_LENGTH_BYTES;
+            ensureCapacity(payload);
+            ArrayByteBuf target = new ArrayByteBuf(buf, payload);
+            codable.writeBytes(target);
+            // the codable may have outgrown our array, in which case the buffer copied it into a larger one
+            buf = target.array();
+            int length = target.writerIndex() - payload;
+            LessBytes.writeLength(length, this);
+            System.arraycopy(buf, payload, buf, count, length);
+            count += length;
+        }
+
+        /**
+         * Writes the string as a length prefixed UTF-8 sequence, byte for byte the same as
+         * {@link LessBytes#writeString}. Unpaired surrogates become '?' as they do with {@link String#getBytes}.
+         */
+        @SuppressWarnings("deprecation")
+        void writeUtf8(String str) throws IOException {
+            if (str == null) {
+                LessBytes.writeLength(0, this);
+                return;
+            }
+            int chars = str.length();
+            int ascii = 0;
+            while ((ascii < chars) && (str.charAt(ascii) < 0x80)) {
+                ascii++;
+            }
+            int length = (ascii == chars) ? chars : (ascii + utf8Length(str, ascii));
+            LessBytes.writeLength(length, this);
+            ensureCapacity(count + length);
+            // copies the leading ascii run one byte per char, which is a plain array copy for compact strings
+            str.getBytes(0, ascii, buf, count);
+            int pos = count + ascii;
+            for (int i = ascii; i < chars; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && ((i + 1) < chars)
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, str.charAt(++i));
+                        buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                        buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                    } else {
+                        buf[pos++] = (byte) '?';
+                    }
+                } else {
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            count = pos;
+        }
+
+        /** UTF-8 length of the chars starting from the given index. */
+        private static int utf8Length(String str, int from) {
+            int chars = str.length();
+            int length = 0;
+            for (int i = from; i < chars; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && ((i + 1) < chars)
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                        i++;
+                        length += 4;
+                    } else {
+                        length += 1;
+                    }
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length << 1));
+            }
+        }
+    }
+
+    /** A heap buffer over an existing array that starts writing (and reading) at the given index. */
+    private static final class ArrayByteBuf extends UnpooledHeapByteBuf {
+        ArrayByteBuf(byte[] array, int index) {
+            super(UnpooledByteBufAllocator.DEFAULT, array, Integer.MAX_VALUE);
+            setIndex(index, index);
+        }
+    }
 }
@@ -15,8 +15,6 @@ package com.addthis.codec.binary;
 
 import javax.annotation.Nullable;
 
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
@@ -25,9 +23,10 @@ import java.lang.reflect.Modifier;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -35,14 +34,19 @@ import java.util.concurrent.atomic.AtomicLong;
 import com.addthis.basis.util.LessBytes;
 
 import com.addthis.codec.Codec;
+import com.addthis.codec.codables.ByteBufCodable;
+import com.addthis.codec.codables.BytesCodable;
 import com.addthis.codec.codables.Codable;
 import com.addthis.codec.codables.ConcurrentCodable;
 import com.addthis.codec.codables.SuperCodable;
 import com.addthis.codec.reflection.CodableClassInfo;
 import com.addthis.codec.reflection.CodableFieldInfo;
 import com.addthis.codec.reflection.Fields;
+import com.addthis.codec.utils.StringCanonicalizer;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,31 +54,184 @@ import org.slf4j.LoggerFactory;
 /**
  * Like CodecBin1 but does not support upgrade/downgrade of objects to prev/later versions.
  * Stores all fields, does not use a map.  This is generally faster while using less space.
+ * <p/>
+ * With {@link Option#SELF_ENCODING}, objects that implement {@link ByteBufCodable} or {@link BytesCodable}
+ * are trusted to encode themselves. Types with a {@link BinaryTypeHandler} in the codec's
+ * {@link BinaryTypeHandlers} are written by it.
  */
 public final class CodecBin2 implements Codec {
 
     private static final Logger log = LoggerFactory.getLogger(CodecBin2.class);
 
-    public static final CodecBin2 INSTANCE            = new CodecBin2(false);
+    /** How strings (including class names and enum values) are written and read. */
+    public enum StringMode {
+        /** UTF-8 through {@link LessBytes#writeString}, copying each string through a temporary byte array. */
+        LESS_BYTES,
+        /** Two bytes per char through {@link LessBytes#writeCharString}. Not readable by the other modes. */
+        CHAR_STRING,
+        /**
+         * UTF-8 encoded straight into the output buffer (copying runs of ascii chars in bulk) and decoded
+         * straight from the input buffer. Produces exactly the same bytes as {@link #LESS_BYTES}.
+         */
+        UTF8
+    }
+
+    /** Optional variations of the format. Data written with an option can only be read with the same option. */
+    public enum Option {
+        /**
+         * Map and collection elements are written by an encoder resolved once per field from the declared
+         * element type, instead of by a per-element type lookup. Elements of a final Codable class drop the
+         * subclass name and keep only the 0/1 null byte. Native and enum elements keep no header at all and
+         * so (like byte, int, and long arrays) can not be null. Not understood by {@link Bin2Scanner} or
+         * {@link Bin2Parser}.
+         */
+        COMPACT_ELEMENTS,
+        /**
+         * Each object's fields are preceded by one bitmap with a bit for every field that can be null
+         * (every field whose declared type is not primitive), instead of a 0/1 byte before every field.
+         * Present values are then written back to back. Not understood by {@link Bin2Scanner} or
+         * {@link Bin2Parser}.
+         */
+        NULL_BITMAP,
+        /**
+         * Objects that implement {@link ByteBufCodable} or {@link BytesCodable} are written by their own
+         * methods instead of by their fields, as their class name followed by the length framed bytes they
+         * produce, so that readers which do not know their format can skip them. Understood by
+         * {@link Bin2Scanner} and {@link Bin2Parser} when they are given a codec with this option.
+         */
+        SELF_ENCODING
+    }
+
+    public static final CodecBin2 INSTANCE            = new CodecBin2(StringMode.LESS_BYTES);
     public static final int       CODEC_VERSION       = 2;
 
-    private final boolean charstring;
+    private static final CodecBin2 CHAR_STRING_INSTANCE = new CodecBin2(StringMode.CHAR_STRING);
+    private static final CodecBin2 UTF8_INSTANCE        = new CodecBin2(StringMode.UTF8);
+
+    private final StringMode stringMode;
+    @Nullable private final StringCanonicalizer canonicalizer;
+    private final Set<Option> options;
+    private final boolean compactElements;
+    private final boolean nullBitmap;
+    private final boolean selfEncoding;
+    private final BinaryTypeHandlers handlers;
+
+    private CodecBin2(StringMode stringMode) {
+        this(stringMode, null, EnumSet.noneOf(Option.class), BinaryTypeHandlers.NONE);
+    }
+
+    private CodecBin2(StringMode stringMode, @Nullable StringCanonicalizer canonicalizer, Set<Option> options,
+                      BinaryTypeHandlers handlers) {
+        this.stringMode = stringMode;
+        this.canonicalizer = canonicalizer;
+        this.options = Sets.immutableEnumSet(options);
+        this.handlers = handlers;
+        this.compactElements = options.contains(Option.COMPACT_ELEMENTS);
+        this.nullBitmap = options.contains(Option.NULL_BITMAP);
+        this.selfEncoding = options.contains(Option.SELF_ENCODING);
+    }
+
+    private static CodecBin2 of(StringMode mode, @Nullable StringCanonicalizer canonicalizer, Set<Option> options,
+                                BinaryTypeHandlers handlers) {
+        if ((canonicalizer != null) || !options.isEmpty() || !handlers.isEmpty()) {
+            return new CodecBin2(mode, canonicalizer, options, handlers);
+        }
+        switch (mode) {
+            case CHAR_STRING:
+                return CHAR_STRING_INSTANCE;
+            case UTF8:
+                return UTF8_INSTANCE;
+            default:
+                return INSTANCE;
+        }
+    }
+
+    /** Returns a codec that is otherwise identical to this one, but uses the given string mode. */
+    public CodecBin2 withStringMode(StringMode mode) {
+        return (mode == stringMode) ? this : of(mode, canonicalizer, options, handlers);
+    }
 
-    private CodecBin2(boolean cs) { this.charstring = cs; }
+    /** Returns a codec that is otherwise identical to this one, but with the given option turned on or off. */
+    public CodecBin2 withOption(Option option, boolean enabled) {
+        if (options.contains(option) == enabled) {
+            return this;
+        }
+        EnumSet<Option> newOptions = EnumSet.noneOf(Option.class);
+        newOptions.addAll(options);
+        if (enabled) {
+            newOptions.add(option);
+        } else {
+            newOptions.remove(option);
+        }
+        return of(stringMode, canonicalizer, newOptions, handlers);
+    }
+
+    public boolean hasOption(Option option) {
+        return options.contains(option);
+    }
+
+    /**
+     * Returns a codec that is otherwise identical to this one, but passes every decoded string through
+     * the given canonicalizer so that equal short strings share one instance. Null turns it back off.
+     */
+    public CodecBin2 withStringCanonicalizer(@Nullable StringCanonicalizer stringCanonicalizer) {
+        if (stringCanonicalizer == canonicalizer) {
+            return this;
+        } else {
+            return of(stringMode, stringCanonicalizer, options, handlers);
+        }
+    }
+
+    /**
+     * Returns a codec that is otherwise identical to this one, but writes and reads the type (and its subtypes)
+     * with the given handler. Data written with a handler can only be read by a codec with the same handler.
+     */
+    public <T> CodecBin2 withTypeHandler(Class<T> type, BinaryTypeHandler<? super T> handler) {
+        return withTypeHandlers(handlers.with(type, handler));
+    }
+
+    /** Returns a codec that is otherwise identical to this one, but also uses {@link BinaryTypeHandlers#BUILT_INS}. */
+    public CodecBin2 withBuiltInHandlers() {
+        return withTypeHandlers(handlers.withBuiltIns());
+    }
+
+    /** Returns a codec that is otherwise identical to this one, but uses exactly the given type handlers. */
+    public CodecBin2 withTypeHandlers(BinaryTypeHandlers typeHandlers) {
+        return (typeHandlers == handlers) ? this : of(stringMode, canonicalizer, options, typeHandlers);
+    }
+
+    public BinaryTypeHandlers getTypeHandlers() {
+        return handlers;
+    }
+
+    @Nullable public StringCanonicalizer getStringCanonicalizer() {
+        return canonicalizer;
+    }
+
+    public StringMode getStringMode() {
+        return stringMode;
+    }
 
     @Override
     public byte[] encode(Object obj) throws Exception {
-        return encodeBytes(obj);
+        BufferOut buf = new BufferOut();
+        LessBytes.writeInt(CODEC_VERSION, buf.out());
+        // decode fills in a shell of the root type, so the root is never written by a handler
+        encodeObject(obj, null, buf);
+        return buf.out.toByteArray();
     }
 
     @Override
     public Object decode(Class type, byte[] data) throws Exception {
-        return decode(type.newInstance(), data);
+        return decode(Fields.getClassFieldMap(type).newInstance(), data);
     }
 
-    @Override
+    @Nullable @Override
     public Object decode(Object shell, byte[] data) throws Exception {
-        return decodeBytes(shell, data);
+        BufferIn buf = new BufferIn(data);
+        int ver = LessBytes.readInt(buf.in);
+        require(ver == CODEC_VERSION, "version mismatch " + ver + " != " + CODEC_VERSION);
+        return decodeObject(Fields.getClassFieldMap(shell.getClass()), shell, buf);
     }
 
     @Override
@@ -83,27 +240,36 @@ public final class CodecBin2 implements Codec {
     }
 
     public static byte[] encodeBytes(Object object) throws Exception {
-        BufferOut buf = new BufferOut();
-        LessBytes.writeInt(CODEC_VERSION, buf.out());
-        INSTANCE.encodeObject(object, buf);
-        return buf.out.toByteArray();
+        return INSTANCE.encode(object);
     }
 
-    @Nullable @SuppressWarnings("unchecked")
+    @Nullable
     public static Object decodeBytes(Object object, byte[] data) throws Exception {
-        BufferIn buf = new BufferIn(data);
-        int ver = LessBytes.readInt(buf.in);
-        require(ver == CODEC_VERSION, "version mismatch " + ver + " != " + CODEC_VERSION);
-        return INSTANCE.decodeObject(Fields.getClassFieldMap(object.getClass()), object, buf);
+        return INSTANCE.decode(object, data);
     }
 
-    private void encodeObject(Object object, BufferOut buf)
+    /**
+     * Encodes an object with a null/present header. The handler is the one for the type that the object was
+     * declared as (or for its component type, if that is an array type), since that is all the reader has to go
+     * on, so it is null whenever the reader would not find one even if the object's own class has a handler.
+     */
+    private void encodeObject(Object object, @Nullable BinaryTypeHandler<Object> handler, BufferOut buf)
             throws Exception {
         log.trace("encodeObject: {} {}", object, buf);
         if (object == null) {
             buf.out.write(0);
             return;
         }
+        Class objectClass = object.getClass();
+        if (objectClass.isArray()) {
+            encodeArray(object, objectClass.getComponentType(), handler, buf);
+            return;
+        }
+        if (handler != null) {
+            buf.out.write(1);
+            handler.write(object, buf.out);
+            return;
+        }
         boolean lock = object instanceof ConcurrentCodable;
         if (lock) {
             ((ConcurrentCodable) object).encodeLock();
@@ -112,19 +278,33 @@ public final class CodecBin2 implements Codec {
             if (object instanceof SuperCodable) {
                 ((SuperCodable) object).preEncode();
             }
-            Class objectClass = object.getClass();
             CodableClassInfo classInfo = Fields.getClassFieldMap(objectClass);
-            if (objectClass.isArray()) {
-                encodeArray(object, objectClass, buf);
-            } else if ((classInfo.size() == 0) && !(object instanceof Codable)) {
+            if ((classInfo.size() == 0) && !(object instanceof Codable)) {
                 encodeNative(object, buf);
             } else {
                 buf.out.write(1);
-                writeStringHelper(classInfo.getClassName(object), buf.out());
-                for (CodableFieldInfo field : classInfo.values()) {
-                    encodeField(field.get(object), field, buf);
-                }
+                writeStringHelper(classInfo.getClassName(object), buf);
+                encodeFields(object, classInfo, buf);
+            }
+        } finally {
+            if (lock) {
+                ((ConcurrentCodable) object).encodeUnlock();
+            }
+        }
+    }
+
+    /** Encodes an object of a known final class, without the subclass name that {@link #encodeObject} writes. */
+    private void encodeFinalObject(Object object, CodableClassInfo classInfo, BufferOut buf) throws Exception {
+        buf.out.write(1);
+        boolean lock = object instanceof ConcurrentCodable;
+        if (lock) {
+            ((ConcurrentCodable) object).encodeLock();
+        }
+        try {
+            if (object instanceof SuperCodable) {
+                ((SuperCodable) object).preEncode();
             }
+            encodeFields(object, classInfo, buf);
         } finally {
             if (lock) {
                 ((ConcurrentCodable) object).encodeUnlock();
@@ -132,9 +312,46 @@ public final class CodecBin2 implements Codec {
         }
     }
 
-    @Nullable private Object decodeObject(Class<?> type, BufferIn buf) throws Exception {
+    private void encodeFields(Object object, CodableClassInfo classInfo, BufferOut buf) throws Exception {
+        if (selfEncoding && (object instanceof ByteBufCodable)) {
+            buf.out.writeFramed((ByteBufCodable) object);
+        } else if (selfEncoding && (object instanceof BytesCodable)) {
+            byte[] bytes = ((BytesCodable) object).bytesEncode(CODEC_VERSION);
+            LessBytes.writeLength(bytes.length, buf.out());
+            buf.out.write(bytes);
+        } else if (nullBitmap) {
+            ClassPlan plan = plan(object.getClass());
+            FieldPlan[] fields = plan.fields;
+            Object[] values = new Object[fields.length];
+            byte[] bitmap = new byte[plan.bitmapBytes];
+            for (int i = 0; i < fields.length; i++) {
+                Object value = fields[i].info.get(object);
+                values[i] = value;
+                int bit = fields[i].bit;
+                if ((bit >= 0) && (value != null)) {
+                    bitmap[bit >>> 3] |= (byte) (1 << (bit & 7));
+                }
+            }
+            buf.out.write(bitmap);
+            for (int i = 0; i < fields.length; i++) {
+                if (values[i] != null) {
+                    encodeFieldValue(values[i], fields[i], buf);
+                }
+            }
+        } else {
+            for (FieldPlan field : plan(object.getClass()).fields) {
+                encodeField(field.info.get(object), field, buf);
+            }
+        }
+    }
+
+    /** Decodes an object declared as the given type, which the handler (if any) was resolved from. */
+    @Nullable private Object decodeObject(Class<?> type, @Nullable BinaryTypeHandler<Object> handler, BufferIn buf)
+            throws Exception {
         log.trace("decodeObject: {} {}", type, buf);
-        if (Fields.isNative(type)) {
+        if (handler != null) {
+            return (buf.in.read() == 0) ? null : handler.read(buf.in);
+        } else if (Fields.isNative(type)) {
             return decodeNative(type, buf);
         } else {
             CodableClassInfo classInfo = Fields.getClassFieldMap(type);
@@ -147,21 +364,42 @@ public final class CodecBin2 implements Codec {
         if (ck == 0) {
             return null;
         }
-        Class<?> type = classInfo.getBaseClass();
         log.trace("decodeObject: {} {} {}", classInfo, object, buf);
-        String stype = readStringHelper(buf.in);
+        String stype = readStringHelper(buf);
         if (!Strings.isNullOrEmpty(stype)) {
             Class<?> atype = classInfo.getClass(stype);
-            if (type != atype) {
+            if (classInfo.getBaseClass() != atype) {
                 classInfo = Fields.getClassFieldMap(atype);
-                type = atype;
             }
         }
+        return decodeFields(classInfo, object, buf);
+    }
+
+    private Object decodeFields(CodableClassInfo classInfo, @Nullable Object object, BufferIn buf)
+            throws Exception {
         if (object == null) {
-            object = type.newInstance();
+            object = classInfo.newInstance();
         }
-        for (CodableFieldInfo field : classInfo.values()) {
-            field.set(object, decodeField(field, buf));
+        if (selfEncoding && (object instanceof ByteBufCodable)) {
+            ((ByteBufCodable) object).readBytes(buf.in.readByteBuf());
+        } else if (selfEncoding && (object instanceof BytesCodable)) {
+            int length = (int) LessBytes.readLength(buf.in);
+            ((BytesCodable) object).bytesDecode(LessBytes.readBytes(buf.in, length), CODEC_VERSION);
+        } else if (nullBitmap) {
+            ClassPlan plan = plan(object.getClass());
+            byte[] bitmap = LessBytes.readBytes(buf.in, plan.bitmapBytes);
+            for (FieldPlan field : plan.fields) {
+                int bit = field.bit;
+                if ((bit < 0) || ((bitmap[bit >>> 3] & (1 << (bit & 7))) != 0)) {
+                    field.info.set(object, decodeFieldValue(field, buf));
+                } else {
+                    field.info.set(object, null);
+                }
+            }
+        } else {
+            for (FieldPlan field : plan(object.getClass()).fields) {
+                field.info.set(object, decodeField(field, buf));
+            }
         }
         if (object instanceof SuperCodable) {
             ((SuperCodable) object).postDecode();
@@ -169,7 +407,63 @@ public final class CodecBin2 implements Codec {
         return object;
     }
 
-    private void encodeArray(Object value, Class<?> type, BufferOut buf) throws Exception {
+    /**
+     * The plan for the fields of a class with this codec's type handlers, resolved on first use. Shared with
+     * {@link Bin2Scanner}.
+     */
+    ClassPlan plan(Class<?> type) {
+        return handlers.plans.get(type);
+    }
+
+    /** A class's fields in encoding order, with what is resolved once about each of them. */
+    static final class ClassPlan {
+        final FieldPlan[] fields;
+        // size of the class's Option#NULL_BITMAP
+        final int         bitmapBytes;
+
+        ClassPlan(CodableClassInfo classInfo, BinaryTypeHandlers handlers) {
+            fields = new FieldPlan[classInfo.size()];
+            int index = 0;
+            int nullable = 0;
+            for (CodableFieldInfo field : classInfo.values()) {
+                int bit = field.getField().getType().isPrimitive() ? -1 : nullable++;
+                fields[index++] = new FieldPlan(field, bit, handlers);
+            }
+            bitmapBytes = (nullable + 7) >>> 3;
+        }
+    }
+
+    static final class FieldPlan {
+        final CodableFieldInfo info;
+        // bit in the Option#NULL_BITMAP, or -1 for primitive fields, which are always present
+        final int              bit;
+        // handler for the field's type, or for its component type if it is an array
+        @Nullable final BinaryTypeHandler<Object> handler;
+        // encoders for the keys and values of a map, or the elements of a collection; only their handlers are
+        // used without Option#COMPACT_ELEMENTS
+        @Nullable final Element[] elements;
+
+        FieldPlan(CodableFieldInfo info, int bit, BinaryTypeHandlers handlers) {
+            this.info = info;
+            this.bit = bit;
+            this.handler = handlers.forType(info.getTypeOrComponentType());
+            if (info.isArray()) {
+                elements = null;
+            } else if (info.isMap()) {
+                elements = new Element[]{Element.of(info.getMapKeyClass(), info.isMapKeyArray(), handlers),
+                                         Element.of(info.getMapValueClass(), info.isMapValueArray(), handlers)};
+            } else if (info.isCollection()) {
+                elements = new Element[]{
+                        Element.of(info.getCollectionClass(), info.isCollectionArray(), handlers)};
+            } else {
+                elements = null;
+            }
+        }
+    }
+
+    /** Encodes an array of the given component type, which the handler (if any) was resolved from. */
+    private void encodeArray(Object value, Class<?> type, @Nullable BinaryTypeHandler<Object> handler, BufferOut buf)
+            throws Exception {
         int len = Array.getLength(value);
         log.trace("encodeArray: {} {} {} len={}", value, type, buf, len);
         LessBytes.writeLength(len, buf.out());
@@ -191,12 +485,13 @@ public final class CodecBin2 implements Codec {
             }
         } else {
             for (int i = 0; i < len; i++) {
-                encodeObject(Array.get(value, i), buf);
+                encodeObject(Array.get(value, i), handler, buf);
             }
         }
     }
 
-    @Nullable private Object decodeArray(Class<?> type, BufferIn buf) throws Exception {
+    @Nullable private Object decodeArray(Class<?> type, @Nullable BinaryTypeHandler<Object> handler, BufferIn buf)
+            throws Exception {
         log.trace("decodeArray: {} {}", type, buf);
         int len = (int) LessBytes.readLength(buf.in);
         Object value = null;
@@ -222,53 +517,81 @@ public final class CodecBin2 implements Codec {
                 }
             } else {
                 for (int i = 0; i < len; i++) {
-                    Array.set(value, i, decodeObject(type, buf));
+                    Array.set(value, i, decodeObject(type, handler, buf));
                 }
             }
         }
         return value;
     }
 
-    private void encodeField(Object value, CodableFieldInfo field, BufferOut buf) throws Exception {
-        log.trace("encodeField: {} {} {}", value, field, buf);
+    private void encodeField(Object value, FieldPlan plan, BufferOut buf) throws Exception {
+        log.trace("encodeField: {} {} {}", value, plan.info, buf);
         if (value != null) {
-            try {
-                buf.out.write(1);
-                if (field.isArray()) {
-                    encodeArray(value, field.getTypeOrComponentType(), buf);
-                } else if (field.isNative()) {
-                    encodeNative(value, buf);
-                } else if (field.isMap()) {
-                    Map<?, ?> map = (Map<?, ?>) value;
-                    LessBytes.writeLength(map.size(), buf.out());
+            buf.out.write(1);
+            encodeFieldValue(value, plan, buf);
+        } else {
+            buf.out.write(0);
+        }
+    }
+
+    /** Writes a non-null field value without the presence byte. */
+    private void encodeFieldValue(Object value, FieldPlan plan, BufferOut buf) throws Exception {
+        CodableFieldInfo field = plan.info;
+        try {
+            if (field.isArray()) {
+                encodeArray(value, field.getTypeOrComponentType(), plan.handler, buf);
+            } else if (plan.handler != null) {
+                plan.handler.write(value, buf.out);
+            } else if (field.isNative()) {
+                encodeNative(value, buf);
+            } else if (isCharSequence(field)) {
+                encodeCharSequence((CharSequence) value, buf);
+            } else if (field.isMap()) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                LessBytes.writeLength(map.size(), buf.out());
+                if (compactElements) {
+                    Element[] elements = plan.elements;
                     for (Entry<?, ?> entry : map.entrySet()) {
-                        Object key = entry.getKey();
-                        encodeObject(key, buf);
-                        encodeObject(entry.getValue(), buf);
+                        encodeElement(elements[0], entry.getKey(), buf);
+                        encodeElement(elements[1], entry.getValue(), buf);
                     }
-                } else if (field.isCollection()) {
-                    Collection<?> coll = (Collection<?>) value;
-                    LessBytes.writeLength(coll.size(), buf.out());
+                    return;
+                }
+                BinaryTypeHandler<Object> keyHandler = plan.elements[0].handler;
+                BinaryTypeHandler<Object> valueHandler = plan.elements[1].handler;
+                for (Entry<?, ?> entry : map.entrySet()) {
+                    Object key = entry.getKey();
+                    encodeObject(key, keyHandler, buf);
+                    encodeObject(entry.getValue(), valueHandler, buf);
+                }
+            } else if (field.isCollection()) {
+                Collection<?> coll = (Collection<?>) value;
+                LessBytes.writeLength(coll.size(), buf.out());
+                if (compactElements) {
+                    Element element = plan.elements[0];
                     for (Object aColl : coll) {
-                        encodeObject(aColl, buf);
+                        encodeElement(element, aColl, buf);
                     }
-                } else if (field.isCodable()) {
-                    encodeObject(value, buf);
-                } else if (field.isEnum()) {
-                    encodeNative(value.toString(), buf);
-                } else {
-                    log.warn("[encodeField] unhandled field : {} {}", value, field);
+                    return;
+                }
+                BinaryTypeHandler<Object> elementHandler = plan.elements[0].handler;
+                for (Object aColl : coll) {
+                    encodeObject(aColl, elementHandler, buf);
                 }
-            } catch (Exception ex) {
-                log.warn("failed encoding {} class {} type {}", value, value.getClass(), field, ex);
-                StringWriter sw = new StringWriter();
-                PrintWriter pw = new PrintWriter(sw);
-                ex.printStackTrace(pw);
-                log.warn(sw.toString());
-                throw ex;
+            } else if (field.isCodable()) {
+                encodeObject(value, null, buf);
+            } else if (field.isEnum()) {
+                encodeNative(value.toString(), buf);
+            } else {
+                log.warn("[encodeField] unhandled field : {} {}", value, field);
             }
-        } else {
-            buf.out.write(0);
+        } catch (Exception ex) {
+            log.warn("failed encoding {} class {} type {}", value, value.getClass(), field, ex);
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            ex.printStackTrace(pw);
+            log.warn(sw.toString());
+            throw ex;
         }
     }
 
@@ -277,81 +600,226 @@ public final class CodecBin2 implements Codec {
         return Modifier.isAbstract(mod) || Modifier.isInterface(mod);
     }
 
+    /**
+     * Bounds an element count read from the data before it is used to presize a container. Every element
+     * takes at least one byte, so there can not be more of them than there are bytes left.
+     */
+    private static int expectedSize(int elements, BufferIn buf) {
+        return Math.max(0, Math.min(elements, buf.in.available()));
+    }
+
     @SuppressWarnings("unchecked")
-    private static Map<Object, Object> newMap(Class<?> type) throws InstantiationException, IllegalAccessException {
-        return isNotConcrete(type) ? new HashMap<>() : (Map<Object, Object>) type.newInstance();
+    private static Map<Object, Object> newMap(Class<?> type, int size) throws InstantiationException {
+        if (isNotConcrete(type)) {
+            return Maps.newHashMapWithExpectedSize(size);
+        }
+        return (Map<Object, Object>) Fields.getClassFieldMap(type).newInstance(size);
     }
 
     @SuppressWarnings("unchecked")
-    private static Collection<Object> newCollection(Class<?> type, int size) throws InstantiationException, IllegalAccessException {
-        return isNotConcrete(type) ? new ArrayList<>(size) : (Collection<Object>) type.newInstance();
+    private static Collection<Object> newCollection(Class<?> type, int size) throws InstantiationException {
+        if (isNotConcrete(type)) {
+            return new ArrayList<>(size);
+        }
+        return (Collection<Object>) Fields.getClassFieldMap(type).newInstance(size);
     }
 
-    @Nullable private Object decodeField(CodableFieldInfo field, BufferIn buf) throws Exception {
-        log.trace("decodeField: {} {}", field, buf);
+    @Nullable private Object decodeField(FieldPlan plan, BufferIn buf) throws Exception {
+        log.trace("decodeField: {} {}", plan.info, buf);
         int ck = buf.in.read();
         if (ck == 0) {
             return null;
         }
+        return decodeFieldValue(plan, buf);
+    }
+
+    /** Reads a field value that is known to be present. */
+    @Nullable private Object decodeFieldValue(FieldPlan plan, BufferIn buf) throws Exception {
+        CodableFieldInfo field = plan.info;
         Class<?> type = field.getTypeOrComponentType();
         if (field.isArray()) {
-            return decodeArray(type, buf);
+            return decodeArray(type, plan.handler, buf);
+        } else if (plan.handler != null) {
+            return plan.handler.read(buf.in);
         } else if (field.isMap()) {
-            Map<Object, Object> map = (Map<Object, Object>) newMap(type);
             int elements = (int) LessBytes.readLength(buf.in);
+            Map<Object, Object> map = newMap(type, expectedSize(elements, buf));
             if (elements == 0) {
                 return map;
             }
+            if (compactElements) {
+                Element[] plans = plan.elements;
+                for (int i = 0; i < elements; i++) {
+                    map.put(decodeElement(plans[0], buf), decodeElement(plans[1], buf));
+                }
+                return map;
+            }
             // value type, assume key is String
             Class<?> kc = field.getMapKeyClass();
             Class<?> vc = field.getMapValueClass();
             boolean ka = field.isMapKeyArray();
             boolean va = field.isMapValueArray();
+            BinaryTypeHandler<Object> kh = plan.elements[0].handler;
+            BinaryTypeHandler<Object> vh = plan.elements[1].handler;
             for (int i = 0; i < elements; i++) {
                 if (ka) {
                     if (va) {
-                        map.put(decodeArray(kc, buf), decodeArray(vc, buf));
+                        map.put(decodeArray(kc, kh, buf), decodeArray(vc, vh, buf));
                     } else {
-                        map.put(decodeArray(kc, buf), decodeObject(vc, buf));
+                        map.put(decodeArray(kc, kh, buf), decodeObject(vc, vh, buf));
                     }
                 } else {
                     if (va) {
-                        map.put(decodeObject(kc, buf), decodeArray(vc, buf));
+                        map.put(decodeObject(kc, kh, buf), decodeArray(vc, vh, buf));
                     } else {
-                        map.put(decodeObject(kc, buf), decodeObject(vc, buf));
+                        map.put(decodeObject(kc, kh, buf), decodeObject(vc, vh, buf));
                     }
                 }
             }
             return map;
         } else if (field.isCollection()) {
             int elements = (int) LessBytes.readLength(buf.in);
-            Collection<Object> coll = (Collection<Object>) newCollection(type, elements);
+            Collection<Object> coll = newCollection(type, expectedSize(elements, buf));
             if (elements == 0) {
                 return coll;
             }
+            if (compactElements) {
+                Element element = plan.elements[0];
+                for (int i = 0; i < elements; i++) {
+                    coll.add(decodeElement(element, buf));
+                }
+                return coll;
+            }
             Class<?> vc = field.getCollectionClass();
             boolean va = field.isCollectionArray();
+            BinaryTypeHandler<Object> vh = plan.elements[0].handler;
             for (int i = 0; i < elements; i++) {
-                coll.add(va ? decodeArray(vc, buf) : decodeObject(vc, buf));
+                coll.add(va ? decodeArray(vc, vh, buf) : decodeObject(vc, vh, buf));
             }
             return coll;
         } else if (field.isCodable()) {
-            return decodeObject(type, buf);
+            return decodeObject(type, null, buf);
         } else if (field.isEnum()) {
             return decodeEnum((Class<Enum>) type, buf);
         } else if (field.isNative()) {
             return decodeNative(type, buf);
+        } else if (isCharSequence(field)) {
+            return decodeCharSequence(buf);
         } else {
             log.warn("unhandled decode {}", field);
             return null;
         }
     }
 
+    private void encodeElement(Element element, @Nullable Object value, BufferOut buf) throws Exception {
+        switch (element.kind) {
+            case NATIVE:
+                encodeNative(requireElement(element, value), buf);
+                break;
+            case ENUM:
+                writeStringHelper(requireElement(element, value).toString(), buf);
+                break;
+            case HANDLED:
+                if (value == null) {
+                    buf.out.write(0);
+                } else {
+                    buf.out.write(1);
+                    element.handler.write(value, buf.out);
+                }
+                break;
+            case FINAL_CODABLE:
+                if (value == null) {
+                    buf.out.write(0);
+                } else {
+                    encodeFinalObject(value, element.classInfo, buf);
+                }
+                break;
+            default:
+                encodeObject(value, element.handler, buf);
+                break;
+        }
+    }
+
+    @Nullable @SuppressWarnings("unchecked")
+    private Object decodeElement(Element element, BufferIn buf) throws Exception {
+        switch (element.kind) {
+            case NATIVE:
+                return decodeNative(element.type, buf);
+            case ENUM:
+                return decodeEnum((Class<Enum>) element.type, buf);
+            case HANDLED:
+                return (buf.in.read() == 0) ? null : element.handler.read(buf.in);
+            case FINAL_CODABLE:
+                return (buf.in.read() == 0) ? null : decodeFields(element.classInfo, null, buf);
+            default:
+                return element.array ? decodeArray(element.type, element.handler, buf)
+                                     : decodeObject(element.type, null, buf);
+        }
+    }
+
+    private static Object requireElement(Element element, @Nullable Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException(
+                    "null " + element.type.getSimpleName() + " elements are not supported with COMPACT_ELEMENTS");
+        }
+        return value;
+    }
+
+    /**
+     * How map and collection elements of one declared type are written with {@link Option#COMPACT_ELEMENTS}.
+     * Otherwise only the handler for the declared type (or for the component type of an array) is used.
+     */
+    static final class Element {
+        enum Kind {
+            NATIVE, ENUM, HANDLED, FINAL_CODABLE, GENERIC
+        }
+
+        final Kind     kind;
+        final Class<?> type;
+        final boolean  array;
+        @Nullable final BinaryTypeHandler<Object> handler;
+        @Nullable final CodableClassInfo          classInfo;
+
+        private Element(Kind kind, Class<?> type, boolean array,
+                        @Nullable BinaryTypeHandler<Object> handler, @Nullable CodableClassInfo classInfo) {
+            this.kind = kind;
+            this.type = type;
+            this.array = array;
+            this.handler = handler;
+            this.classInfo = classInfo;
+        }
+
+        static Element of(Class<?> type, boolean array, BinaryTypeHandlers handlers) {
+            BinaryTypeHandler<Object> handler = handlers.forType(type);
+            if (array) {
+                return new Element(Kind.GENERIC, type, true, handler, null);
+            } else if (handler != null) {
+                return new Element(Kind.HANDLED, type, false, handler, null);
+            } else if (isEncodedNative(type)) {
+                return new Element(Kind.NATIVE, type, false, null, null);
+            } else if (type.isEnum()) {
+                return new Element(Kind.ENUM, type, false, null, null);
+            } else if (Codable.class.isAssignableFrom(type) && Modifier.isFinal(type.getModifiers())) {
+                return new Element(Kind.FINAL_CODABLE, type, false, null, Fields.getClassFieldMap(type));
+            } else {
+                return new Element(Kind.GENERIC, type, false, null, null);
+            }
+        }
+
+        /** The types that {@link #encodeNative} knows how to write. */
+        private static boolean isEncodedNative(Class<?> type) {
+            return (type == String.class) || (type == Integer.class) || (type == Long.class)
+                   || (type == Short.class) || (type == Boolean.class) || (type == Float.class)
+                   || (type == Double.class) || (type == AtomicLong.class) || (type == AtomicInteger.class)
+                   || (type == AtomicBoolean.class);
+        }
+    }
+
     private void encodeNative(Object value, BufferOut buf) throws Exception {
         log.trace("encodeNative: {} {}", value, buf);
         Class<?> type = value.getClass();
         if (type == String.class) {
-            writeStringHelper(value.toString(), buf.out());
+            writeStringHelper(value.toString(), buf);
         } else if ((type == Integer.class) || (type == int.class)) {
             LessBytes.writeInt((Integer) value, buf.out());
         } else if ((type == Long.class) || (type == long.class)) {
@@ -375,15 +843,54 @@ public final class CodecBin2 implements Codec {
         }
     }
 
+    /**
+     * Classes that implement {@link ByteBufCodable} or {@link BytesCodable} are written as their class name
+     * followed by the length framed bytes they produce themselves, instead of by their fields, if the codec
+     * has {@link Option#SELF_ENCODING}.
+     */
+    static boolean encodesItself(Class<?> type) {
+        return ByteBufCodable.class.isAssignableFrom(type) || BytesCodable.class.isAssignableFrom(type);
+    }
+
+    /** True if {@link Bin2Scanner} and {@link Bin2Parser} can read what this codec writes. */
+    boolean isScannable() {
+        return (stringMode != StringMode.CHAR_STRING) && !compactElements && !nullBitmap;
+    }
+
+    /**
+     * Fields declared as CharSequence are written exactly like String fields, but are decoded as
+     * {@link Utf8Sequence} views into the source buffer (except for {@link StringMode#CHAR_STRING}).
+     */
+    static boolean isCharSequence(CodableFieldInfo field) {
+        return !field.isArray() && (field.getTypeOrComponentType() == CharSequence.class);
+    }
+
+    private void encodeCharSequence(CharSequence value, BufferOut buf) throws Exception {
+        if ((value instanceof Utf8Sequence) && (stringMode != StringMode.CHAR_STRING)) {
+            Utf8Sequence sequence = (Utf8Sequence) value;
+            LessBytes.writeLength(sequence.utf8Length(), buf.out());
+            sequence.writeUtf8(buf.out());
+        } else {
+            writeStringHelper(value.toString(), buf);
+        }
+    }
+
+    private CharSequence decodeCharSequence(BufferIn buf) throws Exception {
+        if (stringMode == StringMode.CHAR_STRING) {
+            return readStringHelper(buf);
+        }
+        return buf.in.readUtf8Sequence();
+    }
+
     private Object decodeEnum(Class<Enum> type, BufferIn buf) throws Exception {
-        String val = readStringHelper(buf.in);
+        String val = readStringHelper(buf);
         return Enum.valueOf(type, val);
     }
 
     @Nullable private Object decodeNative(Class<?> type, BufferIn buf) throws Exception {
         Object result = null;
         if (type == String.class) {
-            result = readStringHelper(buf.in);
+            result = readStringHelper(buf);
         } else if ((type == Integer.class) || (type == int.class)) {
             result = LessBytes.readInt(buf.in);
         } else if ((type == Long.class) || (type == long.class)) {
@@ -414,19 +921,30 @@ public final class CodecBin2 implements Codec {
         }
     }
 
-    @Nullable private String readStringHelper(InputStream in) throws Exception {
-        if (charstring) {
-            return LessBytes.readCharString(in);
-        } else {
-            return LessBytes.readString(in);
+    @Nullable private String readStringHelper(BufferIn buf) throws Exception {
+        switch (stringMode) {
+            case CHAR_STRING:
+                String str = LessBytes.readCharString(buf.in);
+                return (canonicalizer == null) ? str : canonicalizer.canonicalize(str);
+            case UTF8:
+                return buf.in.readUtf8(canonicalizer);
+            default:
+                // same bytes as UTF8, so decode them in place when there is a cache to look them up in
+                return (canonicalizer == null) ? LessBytes.readString(buf.in) : buf.in.readUtf8(canonicalizer);
         }
     }
 
-    private void writeStringHelper(String str, OutputStream out) throws Exception {
-        if (charstring) {
-            LessBytes.writeCharString(str, out);
-        } else {
-            LessBytes.writeString(str, out);
+    private void writeStringHelper(String str, BufferOut buf) throws Exception {
+        switch (stringMode) {
+            case CHAR_STRING:
+                LessBytes.writeCharString(str, buf.out());
+                break;
+            case UTF8:
+                buf.out.writeUtf8(str);
+                break;
+            default:
+                LessBytes.writeString(str, buf.out());
+                break;
         }
     }
 }
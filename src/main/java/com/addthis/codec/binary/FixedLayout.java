@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+
+import java.lang.reflect.Field;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.addthis.codec.reflection.CodableClassInfo;
+import com.addthis.codec.reflection.CodableFieldInfo;
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Fixed-width struct encoding for classes whose codable fields are all primitives (see
+ * {@link CodableClassInfo#isFlat()}). Every record of a class has the same {@link #size()} and the same
+ * field offsets, so records can be stored back to back and the record at any index read or written in place
+ * with absolute {@link ByteBuffer} gets and puts, eg. over a memory mapped file.
+ * <p/>
+ * Fields are laid out widest first (then by name) and the record size is padded to a multiple of the widest
+ * field, so every field stays naturally aligned across a contiguous array of records. Multi-byte values use
+ * the buffer's {@link ByteBuffer#order() byte order}. There is no header, version or class name: the layout
+ * is only determined by the set of fields, and adding or removing a field changes it.
+ */
+@Beta
+public final class FixedLayout<T> {
+
+    private static final ClassValue<FixedLayout<?>> LAYOUTS = new ClassValue<FixedLayout<?>>() {
+        @Override protected FixedLayout<?> computeValue(Class<?> type) {
+            return new FixedLayout<>(type);
+        }
+    };
+
+    private final Class<T>             type;
+    private final CodableClassInfo     classInfo;
+    private final Slot[]               slots;
+    private final Map<String, Integer> offsets;
+    private final int                  size;
+
+    private FixedLayout(Class<T> type) {
+        this.type = type;
+        this.classInfo = Fields.getClassFieldMap(type);
+        checkArgument(classInfo.isFlat(), "%s has codable fields that are not primitives", type);
+        List<CodableFieldInfo> fields = new ArrayList<>(classInfo.values());
+        Collections.sort(fields, new Comparator<CodableFieldInfo>() {
+            @Override public int compare(CodableFieldInfo a, CodableFieldInfo b) {
+                int result = Integer.compare(width(b.getTypeOrComponentType()), width(a.getTypeOrComponentType()));
+                return (result != 0) ? result : a.getName().compareTo(b.getName());
+            }
+        });
+        slots = new Slot[fields.size()];
+        ImmutableMap.Builder<String, Integer> offsetsBuilder = ImmutableMap.builder();
+        int offset = 0;
+        for (int i = 0; i < slots.length; i++) {
+            CodableFieldInfo field = fields.get(i);
+            slots[i] = new Slot(field.getField(), offset);
+            offsetsBuilder.put(field.getName(), offset);
+            offset += width(field.getTypeOrComponentType());
+        }
+        int alignment = width(fields.get(0).getTypeOrComponentType());
+        this.size = ((offset + alignment - 1) / alignment) * alignment;
+        this.offsets = offsetsBuilder.build();
+    }
+
+    /** True if {@link #of} will accept the type. */
+    public static boolean supports(@Nonnull Class<?> type) {
+        return Fields.getClassFieldMap(type).isFlat();
+    }
+
+    /** Returns the (cached) layout for a type, which must be {@link CodableClassInfo#isFlat() flat}. */
+    @SuppressWarnings("unchecked")
+    public static <T> FixedLayout<T> of(@Nonnull Class<T> type) {
+        return (FixedLayout<T>) LAYOUTS.get(checkNotNull(type));
+    }
+
+    /** The number of bytes in each record. */
+    public int size() {
+        return size;
+    }
+
+    /** The offset of a field from the start of a record. */
+    public int offset(String field) {
+        Integer offset = offsets.get(field);
+        checkArgument(offset != null, "%s has no codable field named %s", type, field);
+        return offset;
+    }
+
+    /** The number of whole records between position zero and the buffer's limit. */
+    public int count(ByteBuffer buf) {
+        return buf.limit() / size;
+    }
+
+    /** Writes the record at the given index. The buffer's position is not changed. */
+    public void write(@Nonnull T object, ByteBuffer buf, int index) {
+        int base = index * size;
+        try {
+            for (Slot slot : slots) {
+                slot.put(object, buf, base);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Reads the record at the given index into a new instance. The buffer's position is not changed. */
+    public T read(ByteBuffer buf, int index) throws InstantiationException {
+        return read(buf, index, type.cast(classInfo.newInstance()));
+    }
+
+    /** Reads the record at the given index into an existing instance, and returns it. */
+    public T read(ByteBuffer buf, int index, @Nonnull T into) {
+        int base = index * size;
+        try {
+            for (Slot slot : slots) {
+                slot.get(buf, base, into);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return into;
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("type", type)
+                      .add("size", size)
+                      .add("offsets", offsets)
+                      .toString();
+    }
+
+    private static int width(Class<?> type) {
+        if ((type == long.class) || (type == double.class)) {
+            return 8;
+        } else if ((type == int.class) || (type == float.class)) {
+            return 4;
+        } else if ((type == short.class) || (type == char.class)) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private static final class Slot {
+        final Field    field;
+        final Class<?> type;
+        final int      offset;
+
+        Slot(Field field, int offset) {
+            this.field = field;
+            this.type = field.getType();
+            this.offset = offset;
+        }
+
+        void put(Object object, ByteBuffer buf, int base) throws IllegalAccessException {
+            int at = base + offset;
+            if (type == long.class) {
+                buf.putLong(at, field.getLong(object));
+            } else if (type == int.class) {
+                buf.putInt(at, field.getInt(object));
+            } else if (type == double.class) {
+                buf.putDouble(at, field.getDouble(object));
+            } else if (type == float.class) {
+                buf.putFloat(at, field.getFloat(object));
+            } else if (type == short.class) {
+                buf.putShort(at, field.getShort(object));
+            } else if (type == char.class) {
+                buf.putChar(at, field.getChar(object));
+            } else if (type == byte.class) {
+                buf.put(at, field.getByte(object));
+            } else {
+                buf.put(at, field.getBoolean(object) ? (byte) 1 : (byte) 0);
+            }
+        }
+
+        void get(ByteBuffer buf, int base, Object object) throws IllegalAccessException {
+            int at = base + offset;
+            if (type == long.class) {
+                field.setLong(object, buf.getLong(at));
+            } else if (type == int.class) {
+                field.setInt(object, buf.getInt(at));
+            } else if (type == double.class) {
+                field.setDouble(object, buf.getDouble(at));
+            } else if (type == float.class) {
+                field.setFloat(object, buf.getFloat(at));
+            } else if (type == short.class) {
+                field.setShort(object, buf.getShort(at));
+            } else if (type == char.class) {
+                field.setChar(object, buf.getChar(at));
+            } else if (type == byte.class) {
+                field.setByte(object, buf.get(at));
+            } else {
+                field.setBoolean(object, buf.get(at) != 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.addthis.codec.reflection.CodableClassInfo;
+import com.addthis.codec.reflection.CodableFieldInfo;
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+import com.google.common.primitives.UnsignedBytes;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Encodes a declared sequence of an object's fields so that comparing the bytes of two keys as unsigned,
+ * lexicographically (eg. with {@link #comparator()}) gives the same order as comparing the field values in
+ * turn. Keys can be range scanned and merged without decoding them.
+ * <p/>
+ * Supported field types are the primitives and their boxes, Strings, and enums.
+ * <ul>
+ * <li>integers are big-endian with the sign bit flipped</li>
+ * <li>floats and doubles are big-endian with the sign bit flipped for positive values and every bit flipped
+ * for negative ones, so that -0.0 sorts before 0.0 and NaN after positive infinity</li>
+ * <li>strings are utf-8 with each 0x00 byte escaped as 0x00 0xFF and terminated by 0x00 0x01, which orders
+ * them by code point (this differs from {@link String#compareTo} only for supplementary characters)</li>
+ * <li>enums are their ordinal, as an int</li>
+ * <li>fields that are not primitive are preceded by 0x00 if null and 0x01 if not, so nulls sort first</li>
+ * <li>descending fields have every byte of their encoding (including the null marker) inverted</li>
+ * </ul>
+ * Only the declared fields are written; {@link #decode} leaves the others at their defaults.
+ */
+@Beta
+public final class OrderedKeyCodec<T> {
+
+    private static final byte NULL     = 0x00;
+    private static final byte NOT_NULL = 0x01;
+    private static final byte ESCAPE   = (byte) 0xFF;
+    private static final byte END      = 0x01;
+
+    private final Class<T>         type;
+    private final CodableClassInfo classInfo;
+    private final KeyField[]       fields;
+
+    private OrderedKeyCodec(Class<T> type, List<KeyField> fields) {
+        this.type = type;
+        this.classInfo = Fields.getClassFieldMap(type);
+        this.fields = fields.toArray(new KeyField[fields.size()]);
+    }
+
+    public static <T> Builder<T> builder(Class<T> type) {
+        return new Builder<>(type);
+    }
+
+    /** Unsigned lexicographic byte order; the order keys should be compared in. */
+    public static Comparator<byte[]> comparator() {
+        return UnsignedBytes.lexicographicalComparator();
+    }
+
+    public byte[] encode(@Nonnull T object) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * fields.length);
+        for (KeyField field : fields) {
+            field.write(field.field.get(object), out);
+        }
+        return out.toByteArray();
+    }
+
+    public T decode(@Nonnull byte[] key) throws InstantiationException, IOException {
+        T object = type.cast(classInfo.newInstance());
+        int[] pos = {0};
+        for (KeyField field : fields) {
+            field.field.set(object, field.read(key, pos));
+        }
+        if (pos[0] != key.length) {
+            throw new IOException((key.length - pos[0]) + " unexpected trailing bytes in key");
+        }
+        return object;
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("type", type)
+                      .add("fields", fields.length)
+                      .toString();
+    }
+
+    public static final class Builder<T> {
+        private final Class<T>         type;
+        private final CodableClassInfo classInfo;
+        private final List<KeyField>   fields = new ArrayList<>();
+
+        private Builder(Class<T> type) {
+            this.type = checkNotNull(type);
+            this.classInfo = Fields.getClassFieldMap(type);
+        }
+
+        public Builder<T> ascending(String field) {
+            return add(field, false);
+        }
+
+        public Builder<T> descending(String field) {
+            return add(field, true);
+        }
+
+        private Builder<T> add(String name, boolean descending) {
+            CodableFieldInfo field = classInfo.fields().get(name);
+            checkArgument(field != null, "%s has no codable field named %s", type, name);
+            for (KeyField existing : fields) {
+                checkArgument(existing.field != field, "field %s is already part of the key", name);
+            }
+            fields.add(new KeyField(field, descending));
+            return this;
+        }
+
+        public OrderedKeyCodec<T> build() {
+            checkState(!fields.isEmpty(), "a key needs at least one field");
+            return new OrderedKeyCodec<>(type, fields);
+        }
+    }
+
+    private enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, STRING, ENUM
+    }
+
+    private static final class KeyField {
+        final CodableFieldInfo field;
+        final Kind             kind;
+        final boolean          nullable;
+        final byte             flip;
+
+        KeyField(CodableFieldInfo field, boolean descending) {
+            checkArgument(!field.isArray(), "array field %s can not be part of a key", field.getName());
+            Class<?> fieldType = field.getTypeOrComponentType();
+            this.field = field;
+            this.kind = kindOf(fieldType);
+            checkArgument(kind != null, "field %s of type %s can not be part of a key", field.getName(), fieldType);
+            this.nullable = !fieldType.isPrimitive();
+            this.flip = descending ? (byte) 0xFF : 0;
+        }
+
+        @Nullable private static Kind kindOf(Class<?> type) {
+            if ((type == boolean.class) || (type == Boolean.class)) {
+                return Kind.BOOLEAN;
+            } else if ((type == byte.class) || (type == Byte.class)) {
+                return Kind.BYTE;
+            } else if ((type == short.class) || (type == Short.class)) {
+                return Kind.SHORT;
+            } else if ((type == char.class) || (type == Character.class)) {
+                return Kind.CHAR;
+            } else if ((type == int.class) || (type == Integer.class)) {
+                return Kind.INT;
+            } else if ((type == long.class) || (type == Long.class)) {
+                return Kind.LONG;
+            } else if ((type == float.class) || (type == Float.class)) {
+                return Kind.FLOAT;
+            } else if ((type == double.class) || (type == Double.class)) {
+                return Kind.DOUBLE;
+            } else if (type == String.class) {
+                return Kind.STRING;
+            } else if (type.isEnum()) {
+                return Kind.ENUM;
+            } else {
+                return null;
+            }
+        }
+
+        void write(@Nullable Object value, ByteArrayOutputStream out) {
+            if (nullable) {
+                if (value == null) {
+                    out.write(NULL ^ flip);
+                    return;
+                }
+                out.write(NOT_NULL ^ flip);
+            }
+            switch (kind) {
+                case BOOLEAN:
+                    out.write(((Boolean) value ? 1 : 0) ^ flip);
+                    break;
+                case BYTE:
+                    out.write(((Byte) value ^ 0x80) ^ flip);
+                    break;
+                case SHORT:
+                    writeBigEndian(((Short) value ^ 0x8000), 2, out);
+                    break;
+                case CHAR:
+                    writeBigEndian((Character) value, 2, out);
+                    break;
+                case INT:
+                    writeBigEndian((Integer) value ^ Integer.MIN_VALUE, 4, out);
+                    break;
+                case LONG:
+                    writeBigEndian((Long) value ^ Long.MIN_VALUE, 8, out);
+                    break;
+                case FLOAT:
+                    int intBits = Float.floatToIntBits((Float) value);
+                    writeBigEndian((intBits < 0) ? ~intBits : (intBits ^ Integer.MIN_VALUE), 4, out);
+                    break;
+                case DOUBLE:
+                    long longBits = Double.doubleToLongBits((Double) value);
+                    writeBigEndian((longBits < 0) ? ~longBits : (longBits ^ Long.MIN_VALUE), 8, out);
+                    break;
+                case STRING:
+                    for (byte b : ((String) value).getBytes(StandardCharsets.UTF_8)) {
+                        out.write(b ^ flip);
+                        if (b == 0) {
+                            out.write(ESCAPE ^ flip);
+                        }
+                    }
+                    out.write(NULL ^ flip);
+                    out.write(END ^ flip);
+                    break;
+                case ENUM:
+                    writeBigEndian(((Enum<?>) value).ordinal() ^ Integer.MIN_VALUE, 4, out);
+                    break;
+                default:
+                    throw new IllegalStateException("unhandled key kind " + kind);
+            }
+        }
+
+        private void writeBigEndian(long value, int bytes, ByteArrayOutputStream out) {
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift) ^ flip);
+            }
+        }
+
+        @Nullable Object read(byte[] key, int[] pos) throws IOException {
+            if (nullable && (readByte(key, pos) == NULL)) {
+                return null;
+            }
+            switch (kind) {
+                case BOOLEAN:
+                    return readByte(key, pos) != 0;
+                case BYTE:
+                    return (byte) (readByte(key, pos) ^ 0x80);
+                case SHORT:
+                    return (short) (readBigEndian(key, pos, 2) ^ 0x8000);
+                case CHAR:
+                    return (char) readBigEndian(key, pos, 2);
+                case INT:
+                    return (int) readBigEndian(key, pos, 4) ^ Integer.MIN_VALUE;
+                case LONG:
+                    return readBigEndian(key, pos, 8) ^ Long.MIN_VALUE;
+                case FLOAT:
+                    int intBits = (int) readBigEndian(key, pos, 4);
+                    return Float.intBitsToFloat((intBits < 0) ? (intBits ^ Integer.MIN_VALUE) : ~intBits);
+                case DOUBLE:
+                    long longBits = readBigEndian(key, pos, 8);
+                    return Double.longBitsToDouble((longBits < 0) ? (longBits ^ Long.MIN_VALUE) : ~longBits);
+                case STRING:
+                    ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+                    while (true) {
+                        byte b = readByte(key, pos);
+                        if (b == 0) {
+                            byte next = readByte(key, pos);
+                            if (next == END) {
+                                break;
+                            } else if (next != ESCAPE) {
+                                throw new IOException("invalid escape in key string: " + next);
+                            }
+                        }
+                        utf8.write(b);
+                    }
+                    return new String(utf8.toByteArray(), StandardCharsets.UTF_8);
+                case ENUM:
+                    int ordinal = (int) readBigEndian(key, pos, 4) ^ Integer.MIN_VALUE;
+                    Object[] constants = field.getTypeOrComponentType().getEnumConstants();
+                    if ((ordinal < 0) || (ordinal >= constants.length)) {
+                        throw new IOException("enum ordinal " + ordinal + " out of range for " + field.getName());
+                    }
+                    return constants[ordinal];
+                default:
+                    throw new IllegalStateException("unhandled key kind " + kind);
+            }
+        }
+
+        private byte readByte(byte[] key, int[] pos) throws IOException {
+            if (pos[0] >= key.length) {
+                throw new IOException("key ended while reading " + field.getName());
+            }
+            return (byte) (key[pos[0]++] ^ flip);
+        }
+
+        private long readBigEndian(byte[] key, int[] pos, int bytes) throws IOException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (readByte(key, pos) & 0xFF);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * Shared layout of record log files. A record log is a pair of files:
+ * <ul>
+ *     <li>the data file: a sequence of records, each a four byte big-endian payload length followed
+ *     by the payload (normally the output of a {@link com.addthis.codec.Codec} such as Bin2)</li>
+ *     <li>the index file (data file name + ".idx"): a four byte index interval, followed by the eight
+ *     byte offset of every record whose number is a multiple of that interval</li>
+ * </ul>
+ * A torn trailing record (eg. from a crash mid-write) is ignored by readers and truncated by writers.
+ *
+ * @see RecordLogWriter
+ * @see RecordLogReader
+ */
+@Beta
+public final class RecordLog {
+    private RecordLog() {}
+
+    public static final String INDEX_SUFFIX           = ".idx";
+    public static final int    DEFAULT_INDEX_INTERVAL = 64;
+    public static final int    RECORD_HEADER_SIZE     = 4;
+
+    static final int INDEX_HEADER_SIZE = 4;
+
+    public static Path indexPath(Path dataPath) {
+        return dataPath.resolveSibling(dataPath.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Reads the index interval and sparse offsets from an index file. Returns null if there is no index file,
+     * or if its header is cut off or holds an interval that is not positive; either way the index is rebuilt
+     * from the data file.
+     */
+    static long[] readIndex(Path indexPath, int[] intervalHolder) throws IOException {
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < INDEX_HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+                // keep reading
+            }
+            buffer.flip();
+            int interval = buffer.getInt();
+            if (interval <= 0) {
+                return null;
+            }
+            intervalHolder[0] = interval;
+            long[] offsets = new long[buffer.remaining() / 8];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = buffer.getLong();
+            }
+            return offsets;
+        }
+    }
+}
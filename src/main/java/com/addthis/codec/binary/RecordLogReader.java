@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.addthis.codec.Codec;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+
+/**
+ * Random and sequential access to the records of a {@link RecordLog} through memory-mapped, read-only
+ * views of the data file. A reader sees the committed records that existed when it was opened. Looking up
+ * a record by number jumps to the nearest preceding index entry and then skips at most
+ * {@code indexInterval - 1} record headers. Instances are thread safe.
+ */
+@Beta
+public class RecordLogReader implements Closeable, Iterable<byte[]> {
+
+    /** Data files are mapped in segments of this many bytes so that logs may exceed 2GB. */
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    @Nonnull private final Codec              codec;
+    @Nonnull private final Path               dataPath;
+    @Nonnull private final MappedByteBuffer[] segments;
+    @Nonnull private final long[]             offsets;
+
+    private final int  indexInterval;
+    private final long dataSize;
+    private final long records;
+
+    public RecordLogReader(@Nonnull Path dataPath) throws IOException {
+        this(dataPath, CodecBin2.INSTANCE);
+    }
+
+    public RecordLogReader(@Nonnull Path dataPath, @Nonnull Codec codec) throws IOException {
+        this.dataPath = dataPath;
+        this.codec = codec;
+        int[] intervalHolder = {RecordLog.DEFAULT_INDEX_INTERVAL};
+        long[] readOffsets = RecordLog.readIndex(RecordLog.indexPath(dataPath), intervalHolder);
+        try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            dataSize = size;
+        }
+        indexInterval = intervalHolder[0];
+        // count records after the last usable index entry; this also discards a torn trailing record
+        int usable = (readOffsets == null) ? 0 : readOffsets.length;
+        while ((usable > 0) && (readOffsets[usable - 1] >= dataSize)) {
+            usable -= 1;
+        }
+        long offset = (usable > 0) ? readOffsets[usable - 1] : 0;
+        long count = (usable > 0) ? ((long) (usable - 1) * indexInterval) : 0;
+        long[] fullOffsets = new long[Math.max(usable, 16)];
+        int fullCount = usable;
+        if (usable > 0) {
+            System.arraycopy(readOffsets, 0, fullOffsets, 0, usable);
+        }
+        while ((offset + RecordLog.RECORD_HEADER_SIZE) <= dataSize) {
+            long next = recordEnd(offset);
+            if (next < 0) {
+                break;
+            }
+            if (((count % indexInterval) == 0) && (count >= ((long) usable * indexInterval))) {
+                // index entries missing (eg. from an interrupted commit) are rebuilt in memory
+                if (fullCount == fullOffsets.length) {
+                    fullOffsets = Arrays.copyOf(fullOffsets, fullCount * 2);
+                }
+                fullOffsets[fullCount++] = offset;
+            }
+            offset = next;
+            count += 1;
+        }
+        offsets = Arrays.copyOf(fullOffsets, fullCount);
+        records = count;
+    }
+
+    /** Number of complete records visible to this reader. */
+    public long size() {
+        return records;
+    }
+
+    /** Returns the encoded bytes of the given record. */
+    @Nonnull public byte[] get(long recordNumber) {
+        long offset = offsetOf(recordNumber);
+        byte[] record = new byte[recordLength(offset)];
+        read(offset + RecordLog.RECORD_HEADER_SIZE, record, 0, record.length);
+        return record;
+    }
+
+    /** Decodes the given record with this reader's codec. */
+    public <T> T get(long recordNumber, Class<T> type) throws IOException {
+        byte[] record = get(recordNumber);
+        try {
+            return codec.decode(type, record);
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /** The byte offset in the data file of the given record's header. */
+    long offsetOf(long recordNumber) {
+        if ((recordNumber < 0) || (recordNumber >= records)) {
+            throw new IndexOutOfBoundsException("record " + recordNumber + " of " + records + " in " + dataPath);
+        }
+        int slot = (int) (recordNumber / indexInterval);
+        long offset = offsets[slot];
+        for (long skip = recordNumber % indexInterval; skip > 0; skip--) {
+            offset += RecordLog.RECORD_HEADER_SIZE + recordLength(offset);
+        }
+        return offset;
+    }
+
+    /** Iterates over the encoded bytes of all records in order. */
+    @Override public Iterator<byte[]> iterator() {
+        return new Iterator<byte[]>() {
+            private long next = 0;
+            private long offset = 0;
+
+            @Override public boolean hasNext() {
+                return next < records;
+            }
+
+            @Override public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] record = new byte[recordLength(offset)];
+                read(offset + RecordLog.RECORD_HEADER_SIZE, record, 0, record.length);
+                offset += RecordLog.RECORD_HEADER_SIZE + record.length;
+                next += 1;
+                return record;
+            }
+
+            @Override public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Nonnull public Path path() {
+        return dataPath;
+    }
+
+    /** Mapped buffers are released when garbage collected; this only exists to make usage scoping obvious. */
+    @Override public void close() {}
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("path", dataPath)
+                      .add("records", records)
+                      .add("indexInterval", indexInterval)
+                      .add("dataSize", dataSize)
+                      .toString();
+    }
+
+    /**
+     * The offset just past the record whose header is at the given offset, or -1 if the header is cut off
+     * or its length is negative or runs past the end of the data file; either marks the end of valid data.
+     */
+    long recordEnd(long offset) {
+        if ((offset + RecordLog.RECORD_HEADER_SIZE) > dataSize) {
+            return -1;
+        }
+        int length = readInt(offset);
+        long next = offset + RecordLog.RECORD_HEADER_SIZE + length;
+        if ((length < 0) || (next > dataSize)) {
+            return -1;
+        }
+        return next;
+    }
+
+    /** The length of a record that is expected to be valid; fails rather than reading past the valid data. */
+    private int recordLength(long offset) {
+        if (recordEnd(offset) < 0) {
+            throw new IllegalStateException("corrupt record header at offset " + offset + " in " + dataPath);
+        }
+        return readInt(offset);
+    }
+
+    int readInt(long position) {
+        int segment = (int) (position / SEGMENT_SIZE);
+        int segmentOffset = (int) (position % SEGMENT_SIZE);
+        if ((segmentOffset + 4) <= segments[segment].limit()) {
+            return segments[segment].getInt(segmentOffset);
+        }
+        byte[] bytes = new byte[4];
+        read(position, bytes, 0, 4);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    /** Copies bytes starting at an absolute data file position, crossing segment boundaries as needed. */
+    void read(long position, byte[] dst, int off, int len) {
+        while (len > 0) {
+            int segment = (int) (position / SEGMENT_SIZE);
+            int segmentOffset = (int) (position % SEGMENT_SIZE);
+            ByteBuffer view = segments[segment].duplicate();
+            int chunk = Math.min(len, view.limit() - segmentOffset);
+            view.position(segmentOffset);
+            view.get(dst, off, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.codec.Codec;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Appends encoded records to a {@link RecordLog}. Appended records are buffered and written in batches;
+ * each batch is written with one channel write and, if enabled, made durable with a single
+ * {@link FileChannel#force(boolean) force} (group commit). Records are visible to newly opened readers
+ * once their batch is committed. Opening a writer on an existing log resumes appending after the last
+ * complete record. Instances are thread safe.
+ */
+@Beta
+public class RecordLogWriter implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    @Nonnull private final Codec       codec;
+    @Nonnull private final Path        dataPath;
+    @Nonnull private final FileChannel dataChannel;
+    @Nonnull private final FileChannel indexChannel;
+
+    private final int     indexInterval;
+    private final int     batchSize;
+    private final boolean force;
+
+    private ByteBuffer batch;
+    private ByteBuffer indexBatch;
+    private int        batchRecords;
+    private long       records;
+    private long       position;
+    private boolean    closed;
+
+    public RecordLogWriter(@Nonnull Path dataPath) throws IOException {
+        this(dataPath, CodecBin2.INSTANCE, RecordLog.DEFAULT_INDEX_INTERVAL, DEFAULT_BATCH_SIZE, true);
+    }
+
+    /**
+     * @param indexInterval record numbers that are multiples of this value get an index entry. Ignored
+     *                      when appending to an existing log, which keeps its original interval.
+     * @param batchSize     number of buffered records that triggers an automatic {@link #commit()}
+     * @param force         whether each commit should force written data to the storage device
+     */
+    public RecordLogWriter(@Nonnull Path dataPath, @Nonnull Codec codec,
+                           int indexInterval, int batchSize, boolean force) throws IOException {
+        checkArgument(indexInterval > 0, "indexInterval (%s) must be positive", indexInterval);
+        checkArgument(batchSize > 0, "batchSize (%s) must be positive", batchSize);
+        this.dataPath = dataPath;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.force = force;
+        this.batch = ByteBuffer.allocate(4096);
+        this.indexBatch = ByteBuffer.allocate(64);
+        dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+        Path indexPath = RecordLog.indexPath(dataPath);
+        int[] intervalHolder = new int[1];
+        long[] offsets = RecordLog.readIndex(indexPath, intervalHolder);
+        indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (offsets == null) {
+            this.indexInterval = indexInterval;
+            indexChannel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(RecordLog.INDEX_HEADER_SIZE);
+            header.putInt(indexInterval).flip();
+            writeFully(indexChannel, header, 0);
+            offsets = new long[0];
+        } else {
+            this.indexInterval = intervalHolder[0];
+        }
+        recover(offsets);
+    }
+
+    /**
+     * Finds the end of the last complete record, drops anything after it, and restores any index entries
+     * that were lost if the last commit was interrupted between writing the data and index files.
+     */
+    private void recover(long[] offsets) throws IOException {
+        long dataSize = dataChannel.size();
+        int usable = offsets.length;
+        while ((usable > 0) && (offsets[usable - 1] >= dataSize)) {
+            usable -= 1;
+        }
+        long offset = (usable > 0) ? offsets[usable - 1] : 0;
+        long count = (usable > 0) ? ((long) (usable - 1) * indexInterval) : 0;
+        ByteBuffer header = ByteBuffer.allocate(RecordLog.RECORD_HEADER_SIZE);
+        while ((offset + RecordLog.RECORD_HEADER_SIZE) <= dataSize) {
+            header.clear();
+            readFully(dataChannel, header, offset);
+            header.flip();
+            int length = header.getInt();
+            long next = offset + RecordLog.RECORD_HEADER_SIZE + length;
+            // a negative or overrunning length is a torn or corrupt record and marks the end of valid data
+            if ((length < 0) || (next > dataSize)) {
+                break;
+            }
+            if (((count % indexInterval) == 0) && (count >= ((long) usable * indexInterval))) {
+                indexBatch = ensureRemaining(indexBatch, 8);
+                indexBatch.putLong(offset);
+            }
+            offset = next;
+            count += 1;
+        }
+        records = count;
+        position = offset;
+        dataChannel.truncate(position);
+        indexChannel.truncate(RecordLog.INDEX_HEADER_SIZE + ((long) usable * 8));
+        indexBatch.flip();
+        writeFully(indexChannel, indexBatch, indexChannel.size());
+        indexBatch.clear();
+        if (force) {
+            dataChannel.force(false);
+            indexChannel.force(false);
+        }
+    }
+
+    /** Encodes the object with this writer's codec and appends it. Returns the new record's number. */
+    public long append(Object object) throws IOException {
+        byte[] encoded;
+        try {
+            encoded = codec.encode(object);
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+        return appendBytes(encoded);
+    }
+
+    /** Appends an already encoded record. Returns the new record's number. */
+    public synchronized long appendBytes(byte[] encoded) throws IOException {
+        checkState(!closed, "record log writer for %s is closed", dataPath);
+        long recordNumber = records;
+        if ((recordNumber % indexInterval) == 0) {
+            indexBatch = ensureRemaining(indexBatch, 8);
+            indexBatch.putLong(position + batch.position());
+        }
+        batch = ensureRemaining(batch, RecordLog.RECORD_HEADER_SIZE + encoded.length);
+        batch.putInt(encoded.length);
+        batch.put(encoded);
+        records += 1;
+        batchRecords += 1;
+        if (batchRecords >= batchSize) {
+            commit();
+        }
+        return recordNumber;
+    }
+
+    /** Writes all buffered records and their index entries, and forces them to disk if so configured. */
+    public synchronized void commit() throws IOException {
+        if (batchRecords == 0) {
+            return;
+        }
+        batch.flip();
+        int written = batch.remaining();
+        writeFully(dataChannel, batch, position);
+        indexBatch.flip();
+        writeFully(indexChannel, indexBatch, indexChannel.size());
+        if (force) {
+            dataChannel.force(false);
+            indexChannel.force(false);
+        }
+        position += written;
+        batch.clear();
+        indexBatch.clear();
+        batchRecords = 0;
+    }
+
+    /** Number of records appended so far, including any that are not yet committed. */
+    public synchronized long size() {
+        return records;
+    }
+
+    @Nonnull public Path path() {
+        return dataPath;
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            commit();
+        } finally {
+            closed = true;
+            try {
+                dataChannel.close();
+            } finally {
+                indexChannel.close();
+            }
+        }
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("path", dataPath)
+                      .add("records", records)
+                      .add("indexInterval", indexInterval)
+                      .add("batchSize", batchSize)
+                      .add("force", force)
+                      .toString();
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("unexpected end of record log at " + offset);
+            }
+            offset += read;
+        }
+    }
+}
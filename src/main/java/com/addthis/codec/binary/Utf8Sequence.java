@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.annotations.Beta;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Read-only view of utf-8 bytes inside a decoded Bin2 buffer. {@link CodecBin2} hands these out for
+ * fields declared as {@link CharSequence} so that decoding a record does not allocate a String for
+ * every string field; the String is only built if the value is actually read as chars.
+ * <p/>
+ * Text that is entirely ascii is served straight from the bytes. Anything else is inflated to a
+ * String on first access. A view keeps the whole source buffer reachable, and it will reflect any
+ * later changes to that buffer, so callers that hold on to values should either not reuse the
+ * buffer or call {@link #toString()}.
+ * <p/>
+ * {@link #hashCode()} matches {@link String#hashCode()} of the same text, but like other
+ * CharSequence implementations, views are only {@link #equals(Object) equal} to other views.
+ */
+@Beta
+public final class Utf8Sequence implements CharSequence, Comparable<Utf8Sequence> {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte ASCII   = 1;
+    private static final byte UTF8    = 2;
+
+    private final byte[] buf;
+    private final int    offset;
+    private final int    length;
+
+    // lazily computed; racy publication is fine since the values are immutable or primitive
+    private byte   encoding = UNKNOWN;
+    private int    hash;
+    @Nullable private String string;
+
+    public Utf8Sequence(byte[] buf, int offset, int length) {
+        checkPositionIndexes(offset, offset + length, buf.length);
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static Utf8Sequence of(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Utf8Sequence sequence = new Utf8Sequence(bytes, 0, bytes.length);
+        sequence.string = value;
+        return sequence;
+    }
+
+    /** Number of utf-8 bytes in this view. */
+    public int utf8Length() {
+        return length;
+    }
+
+    /** Returns a copy of the utf-8 bytes in this view. */
+    public byte[] toUtf8Bytes() {
+        byte[] copy = new byte[length];
+        System.arraycopy(buf, offset, copy, 0, length);
+        return copy;
+    }
+
+    /** Writes the utf-8 bytes in this view without decoding them. */
+    public void writeUtf8(OutputStream out) throws IOException {
+        out.write(buf, offset, length);
+    }
+
+    /** True if the string has already been built, or does not need to be because the text is ascii. */
+    public boolean isInflated() {
+        return (string != null) || isAscii();
+    }
+
+    @Override public int length() {
+        return isAscii() ? length : toString().length();
+    }
+
+    @Override public char charAt(int index) {
+        if (isAscii()) {
+            checkElementIndex(index, length);
+            return (char) buf[offset + index];
+        }
+        return toString().charAt(index);
+    }
+
+    @Override public CharSequence subSequence(int start, int end) {
+        if (isAscii()) {
+            checkPositionIndexes(start, end, length);
+            return new Utf8Sequence(buf, offset + start, end - start);
+        }
+        return toString().subSequence(start, end);
+    }
+
+    @JsonValue @Nonnull @Override public String toString() {
+        String value = string;
+        if (value == null) {
+            value = new String(buf, offset, length, StandardCharsets.UTF_8);
+            string = value;
+        }
+        return value;
+    }
+
+    @Override public int hashCode() {
+        int h = hash;
+        if ((h == 0) && (length > 0)) {
+            if (isAscii()) {
+                for (int i = offset, end = offset + length; i < end; i++) {
+                    h = (31 * h) + buf[i];
+                }
+            } else {
+                h = toString().hashCode();
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Utf8Sequence)) {
+            return false;
+        }
+        Utf8Sequence other = (Utf8Sequence) obj;
+        if (other.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[offset + i] != other.buf[other.offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Orders by unsigned utf-8 bytes, which is the same as ordering by code point. */
+    @Override public int compareTo(Utf8Sequence other) {
+        int common = Math.min(length, other.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buf[offset + i] & 0xff) - (other.buf[other.offset + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - other.length;
+    }
+
+    private boolean isAscii() {
+        byte known = encoding;
+        if (known == UNKNOWN) {
+            known = ASCII;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                if (buf[i] < 0) {
+                    known = UTF8;
+                    break;
+                }
+            }
+            encoding = known;
+        }
+        return known == ASCII;
+    }
+}
@@ -17,7 +17,7 @@ import io.netty.buffer.ByteBuf;
 
 /**
  * For classes that want to handle their own direct serialization and prefer to not
- * use and/or allocate byte arrays. No direct support.
+ * use and/or allocate byte arrays. Supported by {@link com.addthis.codec.binary.CodecBin2}.
  */
 public interface ByteBufCodable extends Codable {
 
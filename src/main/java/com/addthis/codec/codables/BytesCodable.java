@@ -14,7 +14,7 @@
 package com.addthis.codec.codables;
 
 /**
- * For classes that want to handle their own direct serialization. No direct support.
+ * For classes that want to handle their own direct serialization. Supported by {@link com.addthis.codec.binary.CodecBin2}.
  */
 public interface BytesCodable extends Codable {
 
@@ -13,12 +13,16 @@
  */
 package com.addthis.codec.config;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
 
+import com.addthis.codec.utils.StringCanonicalizer;
+
 import com.fasterxml.jackson.core.Base64Variant;
 import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParseException;
@@ -53,6 +57,11 @@ public class ConfigTraversingParser extends ParserMinimalBase {
      */
     protected ConfigNodeCursor _nodeCursor;
 
+    /**
+     * Optional cache that string values and field names are passed through
+     */
+    @Nullable protected final StringCanonicalizer canonicalizer;
+
     /*
     /**********************************************************
     /* State
@@ -88,9 +97,12 @@ public class ConfigTraversingParser extends ParserMinimalBase {
 
     public ConfigTraversingParser(ConfigValue n) { this(n, null); }
 
-    public ConfigTraversingParser(ConfigValue n, ObjectCodec codec) {
+    public ConfigTraversingParser(ConfigValue n, ObjectCodec codec) { this(n, codec, null); }
+
+    public ConfigTraversingParser(ConfigValue n, ObjectCodec codec, @Nullable StringCanonicalizer canonicalizer) {
         super(0);
         _objectCodec = codec;
+        this.canonicalizer = canonicalizer;
         currentConfig = n;
         if (n.valueType() == LIST) {
             _nextToken = JsonToken.START_ARRAY;
@@ -224,7 +236,7 @@ public class ConfigTraversingParser extends ParserMinimalBase {
         if (_nodeCursor == null) {
             return null;
         } else {
-            return _nodeCursor.getCurrentName();
+            return canonicalize(_nodeCursor.getCurrentName());
         }
     }
 
@@ -269,9 +281,9 @@ public class ConfigTraversingParser extends ParserMinimalBase {
         // need to separate handling a bit...
         switch (_currToken) {
         case FIELD_NAME:
-            return _nodeCursor.getCurrentName();
+            return canonicalize(_nodeCursor.getCurrentName());
         case VALUE_STRING:
-            return (String) currentNode().unwrapped();
+            return canonicalize((String) currentNode().unwrapped());
         case VALUE_NUMBER_INT:
         case VALUE_NUMBER_FLOAT:
             return String.valueOf(currentNode().unwrapped());
@@ -286,6 +298,14 @@ public class ConfigTraversingParser extends ParserMinimalBase {
         }
     }
 
+    private String canonicalize(String text) {
+        if (canonicalizer == null) {
+            return text;
+        } else {
+            return canonicalizer.canonicalize(text);
+        }
+    }
+
     @Override
     public char[] getTextCharacters() throws IOException, JsonParseException {
         return getText().toCharArray();
@@ -32,6 +32,7 @@ import com.addthis.codec.plugins.PluginMap;
 import com.addthis.codec.plugins.PluginRegistry;
 import com.addthis.codec.reflection.CodableClassInfo;
 import com.addthis.codec.reflection.CodableFieldInfo;
+import com.addthis.codec.reflection.Fields;
 
 import com.google.common.annotations.Beta;
 import com.google.common.base.Objects;
@@ -161,7 +162,7 @@ public final class Configs {
                                                  "unchanged for raw ConfigValue field "
                                                  + config.origin().description());
         }
-        CodableClassInfo typeInfo = new CodableClassInfo(type, pluginRegistry.config(), pluginRegistry);
+        CodableClassInfo typeInfo = Fields.getClassFieldMap(type, pluginRegistry);
         PluginMap pluginMap = typeInfo.getPluginMap();
         ConfigValue valueOrResolvedRoot = resolveType(type, config, pluginMap);
         if (valueOrResolvedRoot.valueType() != ConfigValueType.OBJECT) {
@@ -181,7 +182,7 @@ public final class Configs {
 
     private static ConfigObject expandSugarSkipResolve(Class<?> type, ConfigObject root,
                                                        PluginRegistry pluginRegistry) {
-        CodableClassInfo resolvedTypeInfo = new CodableClassInfo(type, pluginRegistry.config(), pluginRegistry);
+        CodableClassInfo resolvedTypeInfo = Fields.getClassFieldMap(type, pluginRegistry);
         ConfigObject fieldDefaults = resolvedTypeInfo.getFieldDefaults().root();
         for (CodableFieldInfo fieldInfo : resolvedTypeInfo.values()) {
             String fieldName = fieldInfo.getName();
@@ -13,9 +13,18 @@
  */
 package com.addthis.codec.jackson;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import com.addthis.codec.annotations.Bytes;
@@ -27,14 +36,18 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.BeanDeserializer;
 import com.fasterxml.jackson.databind.deser.BeanDeserializerBase;
 import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
 import com.fasterxml.jackson.databind.deser.std.DelegatingDeserializer;
+import com.fasterxml.jackson.databind.node.LongNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.util.NameTransformer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,12 +55,25 @@ import org.slf4j.LoggerFactory;
 import io.dropwizard.util.Duration;
 import io.dropwizard.util.Size;
 
+/**
+ * Applies global defaults, {@link Time}/{@link Bytes} unit strings and required field checks around a
+ * bean deserializer. Plain beans (built with a default constructor, and without creator properties,
+ * unwrapped properties, views, injectables or object ids) are read in a single streaming pass: properties
+ * are set as they are read, the ones that were set are tracked in a bitset, and defaults and required
+ * checks are applied for the rest afterwards. Other beans are read into a tree, fixed up, and handed to the
+ * delegate.
+ */
 public class CodecBeanDeserializer extends DelegatingDeserializer {
     private static final Logger log = LoggerFactory.getLogger(CodecBeanDeserializer.class);
     private static final Pattern NUMBER_UNIT = Pattern.compile("(\\d+)\\s*([^\\s\\d]+)");
 
+    @Nullable private static final Field VANILLA_PROCESSING = vanillaProcessingField();
+
     private final ObjectNode fieldDefaults;
 
+    /** Built on first use, once the delegatee has been resolved (and its properties are final). */
+    @Nullable private volatile BeanPlan beanPlan;
+
     protected CodecBeanDeserializer(BeanDeserializerBase src, ObjectNode fieldDefaults) {
         super(src);
         this.fieldDefaults = fieldDefaults;
@@ -66,20 +92,29 @@ public class CodecBeanDeserializer extends DelegatingDeserializer {
         JsonLocation currentLocation = jp.getTokenLocation();
         JsonToken t = jp.getCurrentToken();
         try {
-            if (t == JsonToken.START_OBJECT) {
-                ObjectNode objectNode = jp.readValueAsTree();
-                handleDefaultsAndRequiredAndNull(ctxt, objectNode);
-                jp = jp.getCodec().treeAsTokens(objectNode);
-                jp.nextToken();
-            } else if (t == JsonToken.END_OBJECT) {
-                // for some reason this is how they chose to handle single field objects
-                jp.nextToken();
-                ObjectNode objectNode = ctxt.getNodeFactory().objectNode();
-                handleDefaultsAndRequiredAndNull(ctxt, objectNode);
-                jp = jp.getCodec().treeAsTokens(objectNode);
+            Object value;
+            if ((t == JsonToken.START_OBJECT) && beanPlan().streamable) {
+                value = deserializeStreaming(jp, ctxt, jp.nextToken(), null);
+            } else if ((t == JsonToken.END_OBJECT) && beanPlan().streamable) {
+                // same oddity as below
                 jp.nextToken();
+                value = deserializeStreaming(jp, ctxt, JsonToken.END_OBJECT, null);
+            } else {
+                if (t == JsonToken.START_OBJECT) {
+                    ObjectNode objectNode = jp.readValueAsTree();
+                    handleDefaultsAndRequiredAndNull(ctxt, objectNode);
+                    jp = jp.getCodec().treeAsTokens(objectNode);
+                    jp.nextToken();
+                } else if (t == JsonToken.END_OBJECT) {
+                    // for some reason this is how they chose to handle single field objects
+                    jp.nextToken();
+                    ObjectNode objectNode = ctxt.getNodeFactory().objectNode();
+                    handleDefaultsAndRequiredAndNull(ctxt, objectNode);
+                    jp = jp.getCodec().treeAsTokens(objectNode);
+                    jp.nextToken();
+                }
+                value = getDelegatee().deserialize(jp, ctxt);
             }
-            Object value = getDelegatee().deserialize(jp, ctxt);
             if (value instanceof SuperCodable) {
                 ((SuperCodable) value).postDecode();
             }
@@ -89,46 +124,324 @@ public class CodecBeanDeserializer extends DelegatingDeserializer {
         }
     }
 
+    /**
+     * True if {@link #deserializeFields} may be used with these alias defaults; ie. if this bean is read in a
+     * single streaming pass and every default (other than _-prefixed alias settings) is one of its properties.
+     */
+    boolean canDeserializeFields(@Nullable ObjectNode aliasDefaults) {
+        BeanPlan plan = beanPlan();
+        if (!plan.streamable) {
+            return false;
+        }
+        if (aliasDefaults != null) {
+            Iterator<String> fieldNames = aliasDefaults.fieldNames();
+            while (fieldNames.hasNext()) {
+                String fieldName = fieldNames.next();
+                if ((fieldName.charAt(0) != '_') && !plan.byName.containsKey(fieldName)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rest of an object whose start (and possibly some leading properties, such as a type id) has
+     * already been consumed. The parser is positioned at the next FIELD_NAME, or at the END_OBJECT. Alias
+     * defaults, if any, are applied as if they had been merged into the object.
+     */
+    Object deserializeFields(JsonParser jp, DeserializationContext ctxt, @Nullable ObjectNode aliasDefaults)
+            throws IOException {
+        JsonLocation currentLocation = jp.getTokenLocation();
+        try {
+            Object value = deserializeStreaming(jp, ctxt, jp.getCurrentToken(), aliasDefaults);
+            if (value instanceof SuperCodable) {
+                ((SuperCodable) value).postDecode();
+            }
+            return value;
+        } catch (JsonMappingException ex) {
+            throw Jackson.maybeImproveLocation(currentLocation, ex);
+        }
+    }
+
+    private BeanPlan beanPlan() {
+        BeanPlan plan = beanPlan;
+        if (plan == null) {
+            plan = new BeanPlan(getDelegatee(), fieldDefaults);
+            beanPlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Same results as the tree path: null values count as missing (and keep any hard-coded field value unless
+     * the property's deserializer has a null value of its own), defaults are applied to missing properties,
+     * and missing required properties are an error. Unknown properties are handed to the delegatee one at a
+     * time so that ignored properties, any-setters and problem handlers behave as usual. Alias defaults fill
+     * in properties that were absent (not null), and are merged into object values, as {@link Jackson#merge}
+     * would; global defaults only apply after them.
+     */
+    private Object deserializeStreaming(JsonParser jp, DeserializationContext ctxt, JsonToken first,
+                                        @Nullable ObjectNode aliasDefaults) throws IOException {
+        BeanPlan plan = beanPlan;
+        BeanDeserializerBase delegatee = getDelegatee();
+        Object bean = delegatee.getValueInstantiator().createUsingDefault(ctxt);
+        BitSet assigned = new BitSet(plan.properties.length);
+        jp.setCurrentValue(bean);
+        boolean failOnDuplicates = ctxt.isEnabled(DeserializationFeature.FAIL_ON_READING_DUP_TREE_KEY);
+        BitSet present = failOnDuplicates ? new BitSet(plan.properties.length) : null;
+        BitSet seen = (aliasDefaults != null) ? new BitSet(plan.properties.length) : null;
+        for (JsonToken t = first; t == JsonToken.FIELD_NAME; t = jp.nextToken()) {
+            String propertyName = jp.getCurrentName();
+            JsonToken valueToken = jp.nextToken();
+            PropertyPlan property = plan.byName.get(propertyName);
+            if (property == null) {
+                deserializeUnknown(jp, ctxt, bean, propertyName);
+                continue;
+            }
+            if (present != null) {
+                if (present.get(property.index)) {
+                    throw ctxt.mappingException("Duplicate field '" + propertyName + "' for "
+                                                + delegatee.handledType().getName()
+                                                + ": not allowed when FAIL_ON_READING_DUP_TREE_KEY enabled");
+                }
+                present.set(property.index);
+            }
+            if (seen != null) {
+                seen.set(property.index);
+                JsonNode aliasDefault = aliasDefaults.get(propertyName);
+                if ((valueToken == JsonToken.START_OBJECT) && (aliasDefault != null) && aliasDefault.isObject()) {
+                    ObjectNode value = jp.readValueAsTree();
+                    Jackson.merge(value, (ObjectNode) aliasDefault);
+                    setFromTree(jp, ctxt, bean, property, value);
+                    assigned.set(property.index);
+                    continue;
+                }
+            }
+            if ((valueToken == JsonToken.VALUE_NULL) && property.skipNull) {
+                continue;
+            }
+            if ((valueToken == JsonToken.VALUE_STRING) && property.convertsUnits()) {
+                Long asLong = property.unitValue(jp.getText());
+                if (asLong != null) {
+                    property.set(numberParser(jp, asLong), ctxt, bean);
+                    assigned.set(property.index);
+                    continue;
+                }
+            }
+            property.set(jp, ctxt, bean);
+            assigned.set(property.index);
+        }
+        for (PropertyPlan property : plan.properties) {
+            if (assigned.get(property.index)) {
+                continue;
+            }
+            JsonNode aliasDefault = ((seen != null) && !seen.get(property.index))
+                                    ? aliasDefaults.get(property.prop.getName()) : null;
+            if ((aliasDefault != null) && !aliasDefault.isNull()) {
+                setFromTree(jp, ctxt, bean, property, aliasDefault);
+            } else if (property.fieldDefault != null) {
+                // a global default that is still text here failed to convert up front, and will fail again
+                setFromTree(jp, ctxt, bean, property, property.fieldDefault);
+            } else if (property.prop.isRequired()) {
+                throw MissingPropertyException.from(ctxt.getParser(), property.prop.getType().getRawClass(),
+                                                    property.prop.getName(), getKnownPropertyNames());
+            }
+        }
+        return bean;
+    }
+
+    private static void setFromTree(JsonParser jp, DeserializationContext ctxt, Object bean, PropertyPlan property,
+                                    JsonNode value) throws IOException {
+        if (value.isTextual() && property.convertsUnits()) {
+            Long asLong = property.unitValue(value.textValue());
+            if (asLong != null) {
+                property.set(numberParser(jp, asLong), ctxt, bean);
+                return;
+            }
+        }
+        JsonParser treeParser = value.traverse(jp.getCodec());
+        treeParser.nextToken();
+        property.set(treeParser, ctxt, bean);
+    }
+
+    private void deserializeUnknown(JsonParser jp, DeserializationContext ctxt, Object bean, String propertyName)
+            throws IOException {
+        TokenBuffer unknown = new TokenBuffer(jp);
+        unknown.writeStartObject();
+        unknown.writeFieldName(propertyName);
+        unknown.copyCurrentStructure(jp);
+        unknown.writeEndObject();
+        JsonParser unknownParser = unknown.asParser(jp);
+        unknownParser.nextToken();
+        getDelegatee().deserialize(unknownParser, ctxt, bean);
+    }
+
+    private static JsonParser numberParser(JsonParser jp, long value) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(jp);
+        buffer.writeNumber(value);
+        JsonParser numberParser = buffer.asParser(jp);
+        numberParser.nextToken();
+        return numberParser;
+    }
+
     private void handleDefaultsAndRequiredAndNull(DeserializationContext ctxt, ObjectNode fieldValues)
             throws JsonMappingException {
-        Iterator<SettableBeanProperty> propertyIterator = getDelegatee().properties();
-        while (propertyIterator.hasNext()) {
-            SettableBeanProperty prop = propertyIterator.next();
+        for (PropertyPlan property : beanPlan().properties) {
+            SettableBeanProperty prop = property.prop;
             String propertyName = prop.getName();
             JsonNode fieldValue = fieldValues.path(propertyName);
             if (fieldValue.isMissingNode() || fieldValue.isNull()) {
-                if (fieldDefaults.hasNonNull(propertyName)) {
-                    fieldValue = fieldDefaults.get(propertyName).deepCopy();
+                if (property.fieldDefault != null) {
+                    fieldValue = property.fieldDefault.deepCopy();
                     fieldValues.set(propertyName, fieldValue);
                 } else if (prop.isRequired()) {
                     throw MissingPropertyException.from(ctxt.getParser(), prop.getType().getRawClass(),
                                                         propertyName, getKnownPropertyNames());
-                } else if (fieldValue.isNull()
-                           && (prop.getType().isPrimitive() || (prop.getValueDeserializer().getNullValue() == null))) {
+                } else if (fieldValue.isNull() && property.skipNull) {
                     // don't overwrite possible hard-coded defaults/ values with nulls unless they are fancy
                     fieldValues.remove(propertyName);
                 }
             }
-            if (fieldValue.isTextual()) {
+            if (fieldValue.isTextual() && property.convertsUnits()) {
+                Long asLong = property.unitValue(fieldValue.textValue());
+                if (asLong != null) {
+                    fieldValues.put(propertyName, asLong);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts strings like "5 minutes" or "10MB" for {@link Time} and {@link Bytes} properties, or returns null
+     * if the property has neither annotation or the string is not a number and a unit.
+     */
+    @Nullable private static Long unitValue(SettableBeanProperty prop, @Nullable Time time, boolean bytes,
+                                            String text) throws JsonMappingException {
+        try {
+            // sometimes we erroneously get strings that would parse into valid numbers and maybe other edge
+            // cases (eg. when using system property overrides in typesafe-config). So we'll go ahead and guard
+            // with this regex to make sure we only get reasonable candidates.
+            if ((time != null) && NUMBER_UNIT.matcher(text).matches()) {
+                Duration dropWizardDuration = Duration.parse(text);
+                return time.value().convert(dropWizardDuration.getQuantity(), dropWizardDuration.getUnit());
+            } else if (bytes && NUMBER_UNIT.matcher(text).matches()) {
+                Size dropWizardSize = Size.parse(text);
+                return dropWizardSize.toBytes();
+            } else {
+                return null;
+            }
+        } catch (Throwable cause) {
+            throw JsonMappingException.wrapWithPath(cause, prop.getType().getRawClass(), prop.getName());
+        }
+    }
+
+    @Nullable private static Field vanillaProcessingField() {
+        try {
+            Field field = BeanDeserializerBase.class.getDeclaredField("_vanillaProcessing");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException | SecurityException ex) {
+            log.warn("streaming bean deserialization is disabled; could not inspect bean deserializers", ex);
+            return null;
+        }
+    }
+
+    private static boolean isVanilla(BeanDeserializerBase delegatee) {
+        if ((VANILLA_PROCESSING == null) || (delegatee.getClass() != BeanDeserializer.class)) {
+            return false;
+        }
+        try {
+            return VANILLA_PROCESSING.getBoolean(delegatee)
+                   && delegatee.getValueInstantiator().canCreateUsingDefault()
+                   && !delegatee.creatorProperties().hasNext()
+                   && (delegatee.getObjectIdReader() == null)
+                   && !delegatee.hasViews();
+        } catch (IllegalAccessException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * What the deserializer needs to know about each of the bean's properties, worked out once instead of for
+     * every object: its global default (with any {@link Time}/{@link Bytes} conversion already applied), its
+     * unit annotations, and how it treats nulls.
+     */
+    private static final class BeanPlan {
+        final boolean                   streamable;
+        final PropertyPlan[]            properties;
+        final Map<String, PropertyPlan> byName;
+
+        BeanPlan(BeanDeserializerBase delegatee, ObjectNode fieldDefaults) {
+            this.streamable = isVanilla(delegatee);
+            List<PropertyPlan> plans = new ArrayList<>(delegatee.getPropertyCount());
+            Map<String, PropertyPlan> plansByName = new HashMap<>();
+            Iterator<SettableBeanProperty> propertyIterator = delegatee.properties();
+            while (propertyIterator.hasNext()) {
+                SettableBeanProperty prop = propertyIterator.next();
+                PropertyPlan plan = new PropertyPlan(delegatee, prop, plans.size(), fieldDefaults.get(prop.getName()));
+                plans.add(plan);
+                plansByName.put(prop.getName(), plan);
+            }
+            this.properties = plans.toArray(new PropertyPlan[plans.size()]);
+            this.byName = plansByName;
+        }
+    }
+
+    private static final class PropertyPlan {
+        final BeanDeserializerBase delegatee;
+        final SettableBeanProperty prop;
+        final int                  index;
+        /** Never modified; copy before handing out as part of a tree. */
+        @Nullable final JsonNode   fieldDefault;
+        @Nullable final Time       time;
+        final boolean              bytes;
+        /** Null values are treated as missing rather than set. */
+        final boolean              skipNull;
+
+        PropertyPlan(BeanDeserializerBase delegatee, SettableBeanProperty prop, int index,
+                     @Nullable JsonNode fieldDefault) {
+            this.delegatee = delegatee;
+            this.prop = prop;
+            this.index = index;
+            this.time = prop.getAnnotation(Time.class);
+            this.bytes = prop.getAnnotation(Bytes.class) != null;
+            this.fieldDefault = convertedDefault(fieldDefault);
+            this.skipNull = (this.fieldDefault != null) || prop.isRequired() || prop.getType().isPrimitive()
+                            || !prop.hasValueDeserializer() || (prop.getValueDeserializer().getNullValue() == null);
+        }
+
+        @Nullable private JsonNode convertedDefault(@Nullable JsonNode fieldDefault) {
+            if ((fieldDefault == null) || fieldDefault.isNull()) {
+                return null;
+            }
+            if (fieldDefault.isTextual() && convertsUnits()) {
                 try {
-                    // sometimes we erroneously get strings that would parse into valid numbers and maybe other edge
-                    // cases (eg. when using system property overrides in typesafe-config). So we'll go ahead and guard
-                    // with this regex to make sure we only get reasonable candidates.
-                    Time time = prop.getAnnotation(Time.class);
-                    if ((time != null) && NUMBER_UNIT.matcher(fieldValue.textValue()).matches()) {
-                        Duration dropWizardDuration = Duration.parse(fieldValue.asText());
-                        long asLong = time.value().convert(dropWizardDuration.getQuantity(), dropWizardDuration.getUnit());
-                        fieldValues.put(propertyName, asLong);
-                    } else if ((prop.getAnnotation(Bytes.class) != null) &&
-                               NUMBER_UNIT.matcher(fieldValue.textValue()).matches()) {
-                        Size dropWizardSize = Size.parse(fieldValue.asText());
-                        long asLong = dropWizardSize.toBytes();
-                        fieldValues.put(propertyName, asLong);
+                    Long asLong = unitValue(fieldDefault.textValue());
+                    if (asLong != null) {
+                        return LongNode.valueOf(asLong);
                     }
-                } catch (Throwable cause) {
-                    throw JsonMappingException.wrapWithPath(cause, prop.getType().getRawClass(), propertyName);
+                } catch (JsonMappingException ex) {
+                    log.debug("global default for {} does not convert; it will fail when used", prop, ex);
                 }
             }
+            return fieldDefault;
+        }
+
+        boolean convertsUnits() {
+            return (time != null) || bytes;
+        }
+
+        @Nullable Long unitValue(String text) throws JsonMappingException {
+            return CodecBeanDeserializer.unitValue(prop, time, bytes, text);
+        }
+
+        void set(JsonParser jp, DeserializationContext ctxt, Object bean) throws IOException {
+            try {
+                prop.deserializeAndSet(jp, ctxt, bean);
+            } catch (Exception ex) {
+                delegatee.wrapAndThrow(ex, bean, prop.getName(), ctxt);
+            }
         }
     }
 
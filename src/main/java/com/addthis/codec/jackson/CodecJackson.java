@@ -14,6 +14,7 @@
 package com.addthis.codec.jackson;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.Syntax;
 import javax.validation.ConstraintViolation;
 import javax.validation.ValidationException;
@@ -21,15 +22,34 @@ import javax.validation.Validator;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import com.addthis.codec.config.ConfigTraversingParser;
 import com.addthis.codec.config.Configs;
 import com.addthis.codec.plugins.PluginMap;
 import com.addthis.codec.plugins.PluginRegistry;
+import com.addthis.codec.reflection.Fields;
+import com.addthis.codec.utils.StringCanonicalizer;
 
 import com.google.common.annotations.Beta;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -41,6 +61,8 @@ import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValue;
 
 import io.dropwizard.validation.ConstraintViolations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Wrapper over an object mapper, plugin registry, global config, and a validator. Provides
@@ -51,10 +73,18 @@ import io.dropwizard.validation.ConstraintViolations;
 @Beta
 public class CodecJackson {
 
+    private static final Logger log = LoggerFactory.getLogger(CodecJackson.class);
+
     private final ObjectMapper objectMapper;
     private final PluginRegistry pluginRegistry;
     private final Config globalDefaults;
     private final Validator validator;
+    @Nullable private final StringCanonicalizer stringCanonicalizer;
+
+    /** Codecs derived from this one by {@link #withConfig}, keyed by their global defaults. */
+    private final Cache<Config, CodecJackson> withConfigCache;
+    /** Codecs derived from this one by {@link #withOverrides}, keyed by the overrides. */
+    private final Cache<Config, CodecJackson> withOverridesCache;
 
     public CodecJackson(ObjectMapper objectMapper, PluginRegistry pluginRegistry,
                         Config globalDefaults, Validator validator) {
@@ -62,25 +92,54 @@ public class CodecJackson {
         this.pluginRegistry = pluginRegistry;
         this.globalDefaults = globalDefaults;
         this.validator = validator;
+        this.stringCanonicalizer = StringCanonicalizer.fromConfig(pluginRegistry.config());
+        int derivedCacheSize = pluginRegistry.config().getInt("addthis.codec.jackson.derived-cache-size");
+        this.withConfigCache = CacheBuilder.newBuilder().maximumSize(derivedCacheSize).build();
+        this.withOverridesCache = CacheBuilder.newBuilder().maximumSize(derivedCacheSize).build();
     }
 
-    public CodecJackson withConfig(Config newGlobalDefaults) {
+    /**
+     * Returns a codec using the given global defaults. Derived codecs are cached (up to
+     * {@code addthis.codec.jackson.derived-cache-size} of them), so asking for equal configs again
+     * returns the same codec, with its object mapper's deserializers already built.
+     */
+    public CodecJackson withConfig(final Config newGlobalDefaults) {
         if (newGlobalDefaults == this.globalDefaults) {
             return this;
-        } else {
-            PluginRegistry newPluginRegistry = new PluginRegistry(newGlobalDefaults);
-            ObjectMapper newObjectMapper = Jackson.newObjectMapper(newPluginRegistry);
-            return new CodecJackson(newObjectMapper, newPluginRegistry, newGlobalDefaults, validator);
         }
+        return derive(withConfigCache, newGlobalDefaults, new Callable<CodecJackson>() {
+            @Override public CodecJackson call() {
+                PluginRegistry newPluginRegistry = new PluginRegistry(newGlobalDefaults);
+                ObjectMapper newObjectMapper = Jackson.newObjectMapper(newPluginRegistry);
+                return new CodecJackson(newObjectMapper, newPluginRegistry, newGlobalDefaults, validator);
+            }
+        });
     }
 
-    public CodecJackson withOverrides(Config overrides) {
+    /**
+     * Returns a codec with the given overrides on top of this one's config. Derived codecs are cached
+     * as for {@link #withConfig}, and when the overrides leave the plugin definitions alone, the plugin
+     * maps are shared with this codec instead of being rebuilt.
+     */
+    public CodecJackson withOverrides(final Config overrides) {
         if (overrides == this.globalDefaults) {
             return this;
-        } else {
-            PluginRegistry newPluginRegistry = pluginRegistry.withOverrides(overrides);
-            ObjectMapper newObjectMapper = Jackson.newObjectMapper(newPluginRegistry);
-            return new CodecJackson(newObjectMapper, newPluginRegistry, overrides, validator);
+        }
+        return derive(withOverridesCache, overrides, new Callable<CodecJackson>() {
+            @Override public CodecJackson call() {
+                PluginRegistry newPluginRegistry = pluginRegistry.withOverrides(overrides);
+                ObjectMapper newObjectMapper = Jackson.newObjectMapper(newPluginRegistry);
+                return new CodecJackson(newObjectMapper, newPluginRegistry, overrides, validator);
+            }
+        });
+    }
+
+    private static CodecJackson derive(Cache<Config, CodecJackson> cache, Config key,
+                                       Callable<CodecJackson> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
         }
     }
 
@@ -100,6 +159,64 @@ public class CodecJackson {
         return validator;
     }
 
+    /** Cache that strings decoded from config values are shared through, or null if disabled. */
+    @Nullable public StringCanonicalizer getStringCanonicalizer() {
+        return stringCanonicalizer;
+    }
+
+    /**
+     * Builds (and caches in the object mapper) the deserializers and serializers for every plugin class of every
+     * category, along with their codable field metadata, one category per task on the given executor. This moves
+     * the cost of introspecting each type from its first use to start up. Classes that fail to warm up are
+     * logged and skipped; they will fail again, with a more useful error, when actually used.
+     *
+     * @return the time in milliseconds that each category took to warm up, once they all have
+     */
+    public ListenableFuture<Map<String, Long>> warmUp(Executor executor) {
+        final List<String> categories = new ArrayList<>(pluginRegistry.byCategory().keySet());
+        List<ListenableFuture<Long>> timings = new ArrayList<>(categories.size());
+        for (final String category : categories) {
+            ListenableFutureTask<Long> task = ListenableFutureTask.create(new Callable<Long>() {
+                @Override public Long call() {
+                    return warmUp(category);
+                }
+            });
+            executor.execute(task);
+            timings.add(task);
+        }
+        return Futures.transform(Futures.allAsList(timings), new Function<List<Long>, Map<String, Long>>() {
+            @Override public Map<String, Long> apply(List<Long> input) {
+                Map<String, Long> byCategory = new LinkedHashMap<>(categories.size());
+                for (int i = 0; i < categories.size(); i++) {
+                    byCategory.put(categories.get(i), input.get(i));
+                }
+                return byCategory;
+            }
+        });
+    }
+
+    private long warmUp(String category) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        PluginMap pluginMap = pluginRegistry.byCategory().get(category);
+        List<Class<?>> types = new ArrayList<>(pluginMap.asBiMap().size() + 1);
+        if (pluginMap.baseClass() != null) {
+            types.add(pluginMap.baseClass());
+        }
+        types.addAll(pluginMap.asBiMap().values());
+        for (Class<?> type : types) {
+            try {
+                Fields.getClassFieldMap(type, pluginRegistry);
+                objectMapper.canDeserialize(objectMapper.constructType(type));
+                objectMapper.canSerialize(type);
+            } catch (RuntimeException | LinkageError e) {
+                log.warn("could not warm up {} in plugin category {}", type, category, e);
+            }
+        }
+        long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        log.debug("warmed up {} classes in plugin category {} in {} ms", types.size(), category, elapsed);
+        return elapsed;
+    }
+
     // doesn't delegate
 
     /**
@@ -113,13 +230,15 @@ public class CodecJackson {
 
     public <T> T decodeObject(@Nonnull Class<T> type, ConfigValue configValue)
             throws JsonProcessingException, IOException {
-        ConfigTraversingParser configParser = new ConfigTraversingParser(configValue, objectMapper);
+        ConfigTraversingParser configParser = new ConfigTraversingParser(configValue, objectMapper,
+                                                                         stringCanonicalizer);
         return validate(configParser.readValueAs(type));
     }
 
     public <T> T decodeObject(@Nonnull TypeReference<T> type, ConfigValue configValue)
             throws JsonProcessingException, IOException {
-        ConfigTraversingParser configParser = new ConfigTraversingParser(configValue, objectMapper);
+        ConfigTraversingParser configParser = new ConfigTraversingParser(configValue, objectMapper,
+                                                                         stringCanonicalizer);
         return validate(configParser.readValueAs(type));
     }
 
@@ -18,9 +18,12 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 
 import java.util.Iterator;
+import java.util.Map;
 
 import com.addthis.codec.plugins.PluginMap;
 
+import com.google.common.collect.ImmutableMap;
+
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParser;
@@ -28,6 +31,7 @@ import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.databind.BeanProperty;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -38,9 +42,11 @@ import com.fasterxml.jackson.databind.deser.std.DelegatingDeserializer;
 import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
 import com.fasterxml.jackson.databind.jsontype.impl.TypeDeserializerBase;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigObject;
+import com.typesafe.config.ConfigValue;
 
 import static com.fasterxml.jackson.databind.JsonMappingException.wrapWithPath;
 
@@ -48,6 +54,8 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
     private final PluginMap pluginMap;
     private final JsonTypeInfo.As inludeAs;
     private final CodecTypeIdResolver idRes;
+    /** Every alias that has defaults; all other type ids have none. */
+    private final Map<String, AliasDefaults> aliasDefaults;
 
     protected CodecTypeDeserializer(PluginMap pluginMap, JsonTypeInfo.As inludeAs,
                                     JavaType baseType, CodecTypeIdResolver idRes,
@@ -57,6 +65,14 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
         this.pluginMap = pluginMap;
         this.inludeAs = inludeAs;
         this.idRes = idRes;
+        ImmutableMap.Builder<String, AliasDefaults> aliasDefaultsBuilder = ImmutableMap.builder();
+        for (String alias : pluginMap.config().root().keySet()) {
+            ConfigObject defaults = pluginMap.aliasDefaults(alias);
+            if (!defaults.isEmpty()) {
+                aliasDefaultsBuilder.put(alias, new AliasDefaults(defaults));
+            }
+        }
+        this.aliasDefaults = aliasDefaultsBuilder.build();
     }
 
     protected CodecTypeDeserializer(CodecTypeDeserializer src, BeanProperty property) {
@@ -64,6 +80,7 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
         this.pluginMap = src.pluginMap;
         this.inludeAs = src.inludeAs;
         this.idRes = src.idRes;
+        this.aliasDefaults = src.aliasDefaults;
     }
 
     @Override public CodecTypeDeserializer forProperty(BeanProperty prop) {
@@ -108,6 +125,20 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
         // empty objects can appear with END_OBJECT. that has special handling lots of places, but not in readTree
         if (jp.getCurrentToken() == JsonToken.END_OBJECT) {
             jsonNode = ctxt.getNodeFactory().objectNode();
+        } else if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
+            ObjectNode objectNode = ctxt.getNodeFactory().objectNode();
+            try {
+                if (jp.nextToken() == JsonToken.FIELD_NAME) {
+                    Object bean = _deserializeObjectFromLeadingProperty(jp, ctxt, objectNode);
+                    if (bean != null) {
+                        return bean;
+                    }
+                }
+            } catch (JsonMappingException ex) {
+                throw Jackson.maybeImproveLocation(currentLocation, ex);
+            }
+            readRestOfObject(jp, ctxt, objectNode);
+            jsonNode = objectNode;
         } else {
             jsonNode = jp.readValueAsTree();
         }
@@ -135,6 +166,70 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
         }
     }
 
+    /**
+     * The common case of an object that starts with a plain type property (eg. {@code {type: foo, ...}}) for
+     * a type without _primary sugar, and whose deserializer reads properties as it goes: the type is resolved
+     * right away and the rest of the object is handed over without building a tree, along with any alias
+     * defaults to apply to the properties it did not have. Otherwise any property that was read is added to the
+     * given object, the parser is left at the next FIELD_NAME or END_OBJECT, and null is returned.
+     */
+    @Nullable private Object _deserializeObjectFromLeadingProperty(JsonParser jp,
+                                                                   DeserializationContext ctxt,
+                                                                   ObjectNode objectNode) throws IOException {
+        if (_typeIdVisible || !_typePropertyName.equals(jp.getCurrentName())) {
+            return null;
+        }
+        JsonNode typeNode = readFieldValue(jp);
+        objectNode.set(_typePropertyName, typeNode);
+        String type = typeNode.isTextual() ? typeNode.textValue() : null;
+        jp.nextToken();
+        if ((type == null) || !idRes.isValidTypeId(type)) {
+            return null;
+        }
+        AliasDefaults defaults = aliasDefaults(type);
+        if (defaults.primary != null) {
+            return null;
+        }
+        ObjectNode defaultValues = defaults.isEmpty() ? null : defaults.fieldValues;
+        JsonDeserializer<Object> deser;
+        try {
+            deser = _findDeserializer(ctxt, type);
+        } catch (Throwable cause) {
+            throw wrapWithPath(cause, Class.class, _typePropertyName);
+        }
+        if (!(deser instanceof CodecBeanDeserializer)
+            || !((CodecBeanDeserializer) deser).canDeserializeFields(defaultValues)) {
+            return null;
+        }
+        return ((CodecBeanDeserializer) deser).deserializeFields(jp, ctxt, defaultValues);
+    }
+
+    /**
+     * Adds the remaining properties of an object to the given node, when its START_OBJECT and any leading
+     * property have already been consumed. Each value is read as a tree directly, so this costs the same as
+     * reading the whole object with {@link JsonParser#readValueAsTree()}.
+     */
+    private static void readRestOfObject(JsonParser jp, DeserializationContext ctxt, ObjectNode objectNode)
+            throws IOException {
+        boolean failOnDuplicates = ctxt.isEnabled(DeserializationFeature.FAIL_ON_READING_DUP_TREE_KEY);
+        for (; jp.getCurrentToken() == JsonToken.FIELD_NAME; jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            JsonNode old = objectNode.replace(fieldName, readFieldValue(jp));
+            if (failOnDuplicates && (old != null)) {
+                // same check and message as jackson's own tree deserializer
+                throw ctxt.mappingException("Duplicate field '" + fieldName + "' for ObjectNode: not allowed when "
+                                            + "FAIL_ON_READING_DUP_TREE_KEY enabled");
+            }
+        }
+    }
+
+    /** Reads the value of the current FIELD_NAME as a tree, leaving the parser at the end of the value. */
+    private static JsonNode readFieldValue(JsonParser jp) throws IOException {
+        jp.nextToken();
+        JsonNode value = jp.readValueAsTree();
+        return (value != null) ? value : NullNode.getInstance();
+    }
+
     @Nullable public Object _deserializeTypedFromObject(ObjectNode objectNode,
                                                         ObjectCodec objectCodec,
                                                         DeserializationContext ctxt) throws IOException {
@@ -153,16 +248,16 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
             return bean;
         }
         if (idRes.isValidTypeId("_default")) {
-            ConfigObject aliasDefaults = pluginMap.aliasDefaults("_default");
+            AliasDefaults defaults = aliasDefaults("_default");
             JsonDeserializer<Object> deser = _findDeserializer(ctxt, "_default");
-            boolean unwrapPrimary = handleDefaultsAndImplicitPrimary(objectNode, aliasDefaults, deser, ctxt);
+            boolean unwrapPrimary = handleDefaultsAndImplicitPrimary(objectNode, defaults, deser, ctxt);
             try {
                 JsonParser treeParser = objectCodec.treeAsTokens(objectNode);
                 treeParser.nextToken();
                 bean = deser.deserialize(treeParser, ctxt);
             } catch (IOException cause) {
                 if (unwrapPrimary) {
-                    throw Jackson.maybeUnwrapPath((String) aliasDefaults.get("_primary").unwrapped(), cause);
+                    throw Jackson.maybeUnwrapPath(defaults.primary, cause);
                 } else {
                     throw cause;
                 }
@@ -204,12 +299,12 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
             }
         }
         if (matched != null) {
-            ConfigObject aliasDefaults = pluginMap.aliasDefaults(matched);
+            AliasDefaults defaults = aliasDefaults(matched);
             JsonNode configValue = objectNode.get(matched);
-            String primaryField = (String) aliasDefaults.get("_primary").unwrapped();
+            String primaryField = defaults.primary;
             objectNode.remove(matched);
             Jackson.setAt(objectNode, configValue, primaryField);
-            Jackson.merge(objectNode, Jackson.configConverter(aliasDefaults));
+            Jackson.merge(objectNode, defaults.fieldValues);
             if (_typeIdVisible) {
                 objectNode.put(_typePropertyName, matched);
             }
@@ -236,13 +331,8 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
                                                              ObjectCodec objectCodec,
                                                              DeserializationContext ctxt) throws IOException {
         if (idRes.isValidTypeId(singleKeyName)) {
-            ConfigObject aliasDefaults = pluginMap.aliasDefaults(singleKeyName);
-            String primaryField;
-            if (aliasDefaults.containsKey("_primary")) {
-                primaryField = (String) aliasDefaults.get("_primary").unwrapped();
-            } else {
-                primaryField = null;
-            }
+            AliasDefaults defaults = aliasDefaults(singleKeyName);
+            String primaryField = defaults.primary;
             boolean unwrapPrimary = false;
             try {
                 JsonNode singleKeyValue = objectNode.get(singleKeyName);
@@ -252,13 +342,13 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
                     if (primaryField != null) {
                         ObjectNode singleKeyObject = (ObjectNode) objectCodec.createObjectNode();
                         Jackson.setAt(singleKeyObject, singleKeyValue, primaryField);
-                        Jackson.merge(singleKeyObject, Jackson.configConverter(aliasDefaults));
+                        Jackson.merge(singleKeyObject, defaults.fieldValues);
                         singleKeyValue = singleKeyObject;
                         unwrapPrimary = true;
                     } // else let the downstream serializer try to handle it or complain
                 } else {
                     ObjectNode singleKeyObject = (ObjectNode) singleKeyValue;
-                    unwrapPrimary = handleDefaultsAndImplicitPrimary(singleKeyObject, aliasDefaults, deser, ctxt);
+                    unwrapPrimary = handleDefaultsAndImplicitPrimary(singleKeyObject, defaults, deser, ctxt);
                 }
                 if (_typeIdVisible && singleKeyValue.isObject()) {
                     ((ObjectNode) singleKeyValue).put(_typePropertyName, singleKeyName);
@@ -291,14 +381,9 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
         } catch (Throwable cause) {
             throw wrapWithPath(cause, Class.class, _typePropertyName);
         }
-        ConfigObject aliasDefaults = pluginMap.aliasDefaults(type);
-        String primaryField;
-        if (aliasDefaults.containsKey("_primary")) {
-            primaryField = (String) aliasDefaults.get("_primary").unwrapped();
-        } else {
-            primaryField = null;
-        }
-        boolean unwrapPrimary = handleDefaultsAndImplicitPrimary(objectNode, aliasDefaults, deser, ctxt);
+        AliasDefaults defaults = aliasDefaults(type);
+        String primaryField = defaults.primary;
+        boolean unwrapPrimary = handleDefaultsAndImplicitPrimary(objectNode, defaults, deser, ctxt);
         try {
             JsonParser treeParser = objectCodec.treeAsTokens(objectNode);
             treeParser.nextToken();
@@ -316,13 +401,12 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
                                                         ObjectCodec objectCodec,
                                                         DeserializationContext ctxt) throws IOException {
         if (idRes.isValidTypeId("_array")) {
-            Config aliasDefaults = pluginMap.aliasDefaults("_array").toConfig();
-            String arrayField = aliasDefaults.getString("_primary");
+            AliasDefaults defaults = aliasDefaults("_array");
+            String arrayField = defaults.config.toConfig().getString("_primary");
             try {
                 ObjectNode objectFieldValues = (ObjectNode) objectCodec.createObjectNode();
                 Jackson.setAt(objectFieldValues, arrayNode, arrayField);
-                ObjectNode aliasFieldDefaults = Jackson.configConverter(aliasDefaults.root());
-                Jackson.merge(objectFieldValues, aliasFieldDefaults);
+                Jackson.merge(objectFieldValues, defaults.fieldValues);
                 JsonDeserializer<Object> deser = _findDeserializer(ctxt, "_array");
                 JsonParser treeParser = objectCodec.treeAsTokens(objectFieldValues);
                 treeParser.nextToken();
@@ -336,16 +420,16 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
     }
 
     private boolean handleDefaultsAndImplicitPrimary(ObjectNode fieldValues,
-                                                     ConfigObject aliasDefaults,
+                                                     AliasDefaults aliasDefaults,
                                                      JsonDeserializer<?> deserializer,
                                                      DeserializationContext ctxt) throws JsonMappingException {
         if (!aliasDefaults.isEmpty()) {
             if (deserializer instanceof DelegatingDeserializer) {
                 deserializer = ((DelegatingDeserializer) deserializer).getDelegatee();
             }
-            if ((deserializer instanceof BeanDeserializerBase) && (aliasDefaults.get("_primary") != null)) {
+            if ((deserializer instanceof BeanDeserializerBase) && (aliasDefaults.primary != null)) {
                 BeanDeserializerBase beanDeserializer = (BeanDeserializerBase) deserializer;
-                String primaryField = (String) aliasDefaults.get("_primary").unwrapped();
+                String primaryField = aliasDefaults.primary;
                 if (!fieldValues.has(primaryField)) {
                     // user has not explicitly set a value where _primary points, see if _primary is a plugin type
                     SettableBeanProperty primaryProperty = beanDeserializer.findProperty(primaryField);
@@ -383,7 +467,7 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
                                 // then wrap the value with its key (its type), and stash it in our primary field
                                 JsonNode inlinedPrimaryValue = fieldValues.remove(possibleInlinedPrimary);
                                 fieldValues.with(primaryField).set(possibleInlinedPrimary, inlinedPrimaryValue);
-                                Jackson.merge(fieldValues, Jackson.configConverter(aliasDefaults));
+                                Jackson.merge(fieldValues, aliasDefaults.fieldValues);
                                 return true;
                             }
                         }
@@ -391,8 +475,37 @@ public class CodecTypeDeserializer extends TypeDeserializerBase {
                 }
             }
             // merge alias defaults here since we check for empty etc anyway
-            Jackson.merge(fieldValues, Jackson.configConverter(aliasDefaults));
+            Jackson.merge(fieldValues, aliasDefaults.fieldValues);
         }
         return false;
     }
+
+    private AliasDefaults aliasDefaults(String alias) {
+        AliasDefaults defaults = aliasDefaults.get(alias);
+        return (defaults != null) ? defaults : AliasDefaults.NONE;
+    }
+
+    /**
+     * An alias's defaults (following its alias chain) as both config and json, converted once when the
+     * deserializer is built rather than for every value. The json is never modified; {@link Jackson#merge}
+     * copies what it takes from it.
+     */
+    private static final class AliasDefaults {
+        static final AliasDefaults NONE = new AliasDefaults(ConfigFactory.empty().root());
+
+        final ConfigObject     config;
+        final ObjectNode       fieldValues;
+        @Nullable final String primary;
+
+        AliasDefaults(ConfigObject config) {
+            this.config = config;
+            this.fieldValues = Jackson.configConverter(config);
+            ConfigValue primaryValue = config.get("_primary");
+            this.primary = (primaryValue != null) ? (String) primaryValue.unwrapped() : null;
+        }
+
+        boolean isEmpty() {
+            return config.isEmpty();
+        }
+    }
 }
@@ -60,14 +60,10 @@ public class CodecTypeIdResolver extends TypeIdResolverBase {
         if (cls == null) {
             cls = extraSubTypes.get(typeId);
         }
-        try {
-            if (cls == null) {
-                cls = pluginMap.getClass(typeId);
-            }
-        } catch (ClassNotFoundException ignored) {
-            return false;
+        if (cls == null) {
+            cls = pluginMap.findClass(typeId);
         }
-        return _baseType.getRawClass().isAssignableFrom(cls);
+        return (cls != null) && _baseType.getRawClass().isAssignableFrom(cls);
     }
 
     @Override
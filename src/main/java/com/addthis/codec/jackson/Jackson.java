@@ -28,11 +28,13 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.PropertyBindingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -77,9 +79,17 @@ public final class Jackson {
     }
 
     public static ObjectMapper newObjectMapper(PluginRegistry pluginRegistry) {
+        return newObjectMapper(pluginRegistry, new MappingJsonFactory());
+    }
+
+    /**
+     * Same as {@link #newObjectMapper(PluginRegistry)}, but reads and writes the format of the given factory,
+     * eg. {@link com.addthis.codec.binary.Bin2JsonFactory} for a compact binary encoding.
+     */
+    public static ObjectMapper newObjectMapper(PluginRegistry pluginRegistry, JsonFactory jsonFactory) {
         CodecModule codecModule = new CodecModule(pluginRegistry);
         Config globalConfig = pluginRegistry.config();
-        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
         toggleObjectMapperOptions(objectMapper);
         objectMapper.registerModule(codecModule);
         registerExtraModules(objectMapper);
@@ -24,6 +24,9 @@ import java.util.Set;
 
 import com.google.common.annotations.Beta;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableBiMap;
@@ -48,6 +51,9 @@ public class PluginMap {
 
     public static final PluginMap EMPTY = new PluginMap();
 
+    /** Bound on the number of unconfigured class names (found or not) remembered by each map. */
+    private static final int RESOLVED_CACHE_SIZE = 1024;
+
     @Nonnull private final Config config;
     @Nonnull private final BiMap<String, Class<?>> map;
     @Nonnull private final Map<String, String> aliases;
@@ -58,7 +64,23 @@ public class PluginMap {
 
     @Nullable private final Class<?> baseClass;
 
+    /**
+     * Results of searching for unconfigured class names, including misses, so that repeated lookups (eg.
+     * checking whether a field name is a type id) do not each throw and catch a ClassNotFoundException
+     * for every package prefix. Rebuilding the registry starts over with new maps.
+     */
+    @Nonnull private final Cache<String, Optional<Class<?>>> resolved =
+            CacheBuilder.newBuilder().maximumSize(RESOLVED_CACHE_SIZE).build();
+
     public PluginMap(@Nonnull String category, @Nonnull Config config) {
+        this(category, config, null);
+    }
+
+    /**
+     * Like {@link #PluginMap(String, Config)}, but aliases recorded in the snapshot (if it is not stale) are
+     * loaded by their recorded class names instead of being searched for.
+     */
+    public PluginMap(@Nonnull String category, @Nonnull Config config, @Nullable PluginSnapshot snapshot) {
         this.config = config;
         this.category = checkNotNull(category);
         classField = config.getString("_field");
@@ -75,6 +97,7 @@ public class PluginMap {
         } else {
             baseClass = null;
         }
+        Map<String, String> snapshotClassNames = (snapshot != null) ? snapshot.classNames(category, config) : null;
         Set<String> labels = config.root().keySet();
         BiMap<String, Class<?>> mutableMap = HashBiMap.create(labels.size());
         Map<String, String> mutableAliasMap = new HashMap<>();
@@ -105,7 +128,13 @@ public class PluginMap {
                 mutableAliasMap.put(label, className);
             } else {
                 try {
-                    Class<?> foundClass = findAndValidateClass(className);
+                    Class<?> foundClass = null;
+                    if (snapshotClassNames != null) {
+                        foundClass = snapshotClass(snapshotClassNames.get(label));
+                    }
+                    if (foundClass == null) {
+                        foundClass = findAndValidateClass(className);
+                    }
                     mutableMap.put(label, foundClass);
                 } catch (ClassNotFoundException maybeSwallowed) {
                     if (errorMissing) {
@@ -212,16 +241,34 @@ public class PluginMap {
      * any found class must be assignable to the base _class type.
      */
     @Nonnull public Class<?> getClass(String type) throws ClassNotFoundException {
+        Class<?> found = findClass(type);
+        if (found == null) {
+            throw new ClassNotFoundException(type);
+        }
+        return found;
+    }
+
+    /** Like {@link #getClass(String)}, but returns null rather than throwing if no class can be found. */
+    @Nullable public Class<?> findClass(String type) {
         Class<?> alt = map.get(type);
         if (alt != null) {
             return alt;
         } else {
             String aliasTarget = aliases.get(type);
             if (aliasTarget != null) {
-                return getClass(aliasTarget);
+                return findClass(aliasTarget);
+            }
+        }
+        Optional<Class<?>> cached = resolved.getIfPresent(type);
+        if (cached == null) {
+            try {
+                cached = Optional.<Class<?>>of(findAndValidateClass(type));
+            } catch (ClassNotFoundException ignored) {
+                cached = Optional.absent();
             }
+            resolved.put(type, cached);
         }
-        return findAndValidateClass(type);
+        return cached.orNull();
     }
 
     /** Like {@link #getClass(String)}, but will return null rather than try to locate a new class. */
@@ -249,6 +296,23 @@ public class PluginMap {
                       .toString();
     }
 
+    /** The recorded class, if there is one and it is still valid for this category; otherwise null. */
+    @Nullable private Class<?> snapshotClass(@Nullable String className) {
+        if (className == null) {
+            return null;
+        }
+        try {
+            Class<?> classValue = Class.forName(className);
+            if ((baseClass == null) || baseClass.isAssignableFrom(classValue)) {
+                return classValue;
+            }
+        } catch (ClassNotFoundException | LinkageError ignored) {
+            // fall back to the usual search, which will report the problem if there really is one
+        }
+        log.debug("plugin snapshot entry {} for category {} is stale; ignoring it", className, category);
+        return null;
+    }
+
     @Nonnull private Class<?> findAndValidateClass(String className) throws ClassNotFoundException {
         Class<?> classValue = null;
         // if baseClass is defined, support shared parent package omission
@@ -14,18 +14,26 @@
 package com.addthis.codec.plugins;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.addthis.codec.annotations.Pluggable;
 
 import com.google.common.annotations.Beta;
 import com.google.common.base.Objects;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
 import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
@@ -48,47 +56,56 @@ public class PluginRegistry {
     }
 
     @Nonnull private final Map<String, PluginMap> pluginMapsByCategory;
-    @Nonnull private final BiMap<Class<?>, PluginMap> pluginMapsByClass;
+    @Nonnull private final Map<Class<?>, PluginMap> pluginMapsByClass;
     @Nonnull private final Config config;
 
+    /**
+     * Each category's {@link PluginMap} (and so the loading of its plugin classes) is built on first
+     * access, except for {@code _strict} categories, which are built right away so that missing classes
+     * still fail fast.
+     */
     public PluginRegistry(@Nonnull Config config) {
         this.config = config;
-        Config defaultPluginMapSettings = config.getConfig(PLUGIN_DEFAULTS_PATH);
+        final Config defaultPluginMapSettings = config.getConfig(PLUGIN_DEFAULTS_PATH);
         String pluginPath = config.getString(PLUGINS_PATH_PATH);
-        Config pluginConfigs = config.getConfig(pluginPath);
+        final Config pluginConfigs = config.getConfig(pluginPath);
+        PluginSnapshot snapshot = null;
+        if (config.hasPath(PluginSnapshot.SNAPSHOT_PATH)) {
+            snapshot = PluginSnapshot.load(config.getString(PluginSnapshot.SNAPSHOT_PATH));
+        }
+        final PluginSnapshot finalSnapshot = snapshot;
 
         Set<String> categories = pluginConfigs.root().keySet();
-        Map<String, PluginMap> mapsFromConfig = new HashMap<>(categories.size());
-        BiMap<Class<?>, PluginMap> mapsFromConfigByClass = HashBiMap.create(categories.size());
-        for (String category : categories) {
-            Config pluginConfig = pluginConfigs.getConfig(category)
-                                               .withFallback(defaultPluginMapSettings);
-            PluginMap pluginMap = new PluginMap(category, pluginConfig);
-            mapsFromConfig.put(category, pluginMap);
-            Class<?> baseClass = pluginMap.baseClass();
-            if (baseClass != null) {
-                // if two categories define _class, then ensure the annotated one (if any) is the canonical one
-                if (mapsFromConfigByClass.containsKey(baseClass)) {
-                    AnnotatedClass annotatedClass =
-                            AnnotatedClass.construct(baseClass, new JacksonAnnotationIntrospector(), null);
-                    String existingCategory = mapsFromConfigByClass.get(baseClass).category();
-                    if (!annotatedClass.hasAnnotation(Pluggable.class)
-                        || !annotatedClass.getAnnotation(Pluggable.class).value().equals(existingCategory))  {
-                        mapsFromConfigByClass.put(pluginMap.baseClass(), pluginMap);
-                    }
-                } else {
-                    mapsFromConfigByClass.put(pluginMap.baseClass(), pluginMap);
+        ImmutableMap.Builder<String, Supplier<PluginMap>> suppliers = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<String, String> categoriesByBaseClass = ImmutableListMultimap.builder();
+        List<Supplier<PluginMap>> strict = new ArrayList<>();
+        for (final String category : categories) {
+            final Config pluginConfig = pluginConfigs.getConfig(category)
+                                                     .withFallback(defaultPluginMapSettings);
+            Supplier<PluginMap> supplier = Suppliers.memoize(new Supplier<PluginMap>() {
+                @Override public PluginMap get() {
+                    return new PluginMap(category, pluginConfig, finalSnapshot);
                 }
+            });
+            suppliers.put(category, supplier);
+            if (pluginConfig.hasPath("_class")) {
+                categoriesByBaseClass.put(pluginConfig.getString("_class"), category);
+            }
+            if (pluginConfig.getBoolean("_strict")) {
+                strict.add(supplier);
             }
         }
-        pluginMapsByCategory = Collections.unmodifiableMap(mapsFromConfig);
-        pluginMapsByClass = Maps.unmodifiableBiMap(mapsFromConfigByClass);
+        pluginMapsByCategory = Maps.transformValues(suppliers.build(), Suppliers.<PluginMap>supplierFunction());
+        pluginMapsByClass = new PluginMapsByClass(pluginMapsByCategory, categoriesByBaseClass.build());
+        for (Supplier<PluginMap> supplier : strict) {
+            supplier.get();
+        }
     }
 
     /** For immutable 'with' methods. */
     private PluginRegistry(@Nonnull Config config,
                            @Nonnull Map<String, PluginMap> pluginMapsByCategory,
-                           @Nonnull BiMap<Class<?>, PluginMap> pluginMapsByClass) {
+                           @Nonnull Map<Class<?>, PluginMap> pluginMapsByClass) {
         this.config = config;
         this.pluginMapsByCategory = pluginMapsByCategory;
         this.pluginMapsByClass = pluginMapsByClass;
@@ -104,6 +121,7 @@ public class PluginRegistry {
         String pluginPath = config.getString(PLUGINS_PATH_PATH);
         if (overrides.hasPath(PLUGIN_DEFAULTS_PATH)
             || overrides.hasPath(PLUGINS_PATH_PATH)
+            || overrides.hasPath(PluginSnapshot.SNAPSHOT_PATH)
             || overrides.hasPath(pluginPath)) {
             return new PluginRegistry(newConfig);
         } else {
@@ -130,8 +148,74 @@ public class PluginRegistry {
     @Override public String toString() {
         return Objects.toStringHelper(this)
                       .add("config.origin", config.origin())
-                      .add("pluginMapsByCategory", pluginMapsByCategory)
-                      .add("pluginMapsByClass", pluginMapsByClass)
+                      .add("categories", pluginMapsByCategory.keySet())
                       .toString();
     }
+
+    /**
+     * Finds the category for a base class from the {@code _class} names in the plugin configs, so that only
+     * the categories that could match are built. If more than one category names the same base class, then
+     * one whose category matches the class's {@link Pluggable} annotation wins.
+     */
+    private static final class PluginMapsByClass extends AbstractMap<Class<?>, PluginMap> {
+        private final Map<String, PluginMap>                byCategory;
+        private final ImmutableListMultimap<String, String> categoriesByBaseClass;
+        private final ConcurrentMap<Class<?>, PluginMap>    resolved = new ConcurrentHashMap<>();
+
+        PluginMapsByClass(Map<String, PluginMap> byCategory,
+                          ImmutableListMultimap<String, String> categoriesByBaseClass) {
+            this.byCategory = byCategory;
+            this.categoriesByBaseClass = categoriesByBaseClass;
+        }
+
+        @Nullable @Override public PluginMap get(Object key) {
+            if (!(key instanceof Class)) {
+                return null;
+            }
+            Class<?> type = (Class<?>) key;
+            List<String> categories = categoriesByBaseClass.get(type.getName());
+            if (categories.isEmpty()) {
+                return null;
+            }
+            PluginMap found = resolved.get(type);
+            if (found != null) {
+                return found;
+            }
+            for (String category : categories) {
+                PluginMap pluginMap = byCategory.get(category);
+                // the names match, but the class may still be from another class loader
+                if (pluginMap.baseClass() != type) {
+                    continue;
+                }
+                if (found == null) {
+                    found = pluginMap;
+                } else {
+                    AnnotatedClass annotatedClass =
+                            AnnotatedClass.construct(type, new JacksonAnnotationIntrospector(), null);
+                    if (!annotatedClass.hasAnnotation(Pluggable.class)
+                        || !annotatedClass.getAnnotation(Pluggable.class).value().equals(found.category())) {
+                        found = pluginMap;
+                    }
+                }
+            }
+            if (found != null) {
+                resolved.putIfAbsent(type, found);
+            }
+            return found;
+        }
+
+        @Override public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        /** Builds every category with a base class. */
+        @Override public Set<Entry<Class<?>, PluginMap>> entrySet() {
+            Map<Class<?>, PluginMap> all = new HashMap<>();
+            for (String baseClassName : categoriesByBaseClass.keySet()) {
+                Class<?> baseClass = byCategory.get(categoriesByBaseClass.get(baseClassName).get(0)).baseClass();
+                all.put(baseClass, get(baseClass));
+            }
+            return Collections.unmodifiableMap(all).entrySet();
+        }
+    }
 }
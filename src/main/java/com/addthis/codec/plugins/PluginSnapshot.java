@@ -0,0 +1,204 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.plugins;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+import com.google.common.hash.Hashing;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigRenderOptions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precomputed plugin alias resolutions, so that a {@link PluginRegistry} can load each plugin class by its
+ * fully qualified name instead of searching the base class's parent packages for it. Generate one at build
+ * time with {@link #main} and point {@value #SNAPSHOT_PATH} at it (a classpath resource or a file).
+ * <p/>
+ * Each category in the snapshot carries a fingerprint of the plugin config it was made from; categories
+ * whose config has since changed are ignored and resolved as usual. Snapshot entries are only trusted as
+ * far as the class they name still loads and is assignable to the category's base class, otherwise that
+ * alias falls back to the normal search too. A stale snapshot is therefore only ever slower, never wrong.
+ * <p/>
+ * The format is one tab separated record per line: {@code category <name> <fingerprint>} followed by one
+ * {@code alias <label> <class name>} for each resolved alias of that category.
+ */
+@Beta
+public final class PluginSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(PluginSnapshot.class);
+
+    public static final String SNAPSHOT_PATH = "addthis.codec.plugins.snapshot";
+
+    private static final String CATEGORY = "category";
+    private static final String ALIAS    = "alias";
+
+    /** category -> fingerprint and (alias -> class name) */
+    @Nonnull private final Map<String, Category> categories;
+
+    private PluginSnapshot(Map<String, Category> categories) {
+        this.categories = Collections.unmodifiableMap(categories);
+    }
+
+    /** Records the aliases as currently resolved by the registry. */
+    public static PluginSnapshot of(@Nonnull PluginRegistry pluginRegistry) {
+        Map<String, Category> categories = new TreeMap<>();
+        for (Map.Entry<String, PluginMap> entry : pluginRegistry.byCategory().entrySet()) {
+            PluginMap pluginMap = entry.getValue();
+            Category category = new Category(fingerprint(pluginMap.config()));
+            for (Map.Entry<String, Class<?>> alias : pluginMap.asBiMap().entrySet()) {
+                category.classes.put(alias.getKey(), alias.getValue().getName());
+            }
+            categories.put(entry.getKey(), category);
+        }
+        return new PluginSnapshot(categories);
+    }
+
+    public static PluginSnapshot read(@Nonnull Reader reader) throws IOException {
+        Map<String, Category> categories = new HashMap<>();
+        BufferedReader lines = new BufferedReader(reader);
+        Category current = null;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.isEmpty() || (line.charAt(0) == '#')) {
+                continue;
+            }
+            String[] parts = line.split("\t", -1);
+            if ((parts.length == 3) && CATEGORY.equals(parts[0])) {
+                current = new Category(parts[2]);
+                categories.put(parts[1], current);
+            } else if ((parts.length == 3) && ALIAS.equals(parts[0]) && (current != null)) {
+                current.classes.put(parts[1], parts[2]);
+            } else {
+                throw new IOException("malformed plugin snapshot line: " + line);
+            }
+        }
+        return new PluginSnapshot(categories);
+    }
+
+    /**
+     * Loads the snapshot from a classpath resource or, failing that, a file. Returns null (after logging why)
+     * if it cannot be read, since a snapshot is only an optimization.
+     */
+    @Nullable public static PluginSnapshot load(@Nonnull String location) {
+        try {
+            InputStream in = PluginSnapshot.class.getClassLoader().getResourceAsStream(location);
+            if ((in == null) && new File(location).isFile()) {
+                in = Files.newInputStream(new File(location).toPath());
+            }
+            if (in == null) {
+                log.warn("plugin snapshot {} not found; resolving plugins without it", location);
+                return null;
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                return read(reader);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("could not read plugin snapshot {}; resolving plugins without it", location, e);
+            return null;
+        }
+    }
+
+    public void writeTo(@Nonnull Writer writer) throws IOException {
+        writer.write("# codec plugin snapshot\n");
+        for (Map.Entry<String, Category> entry : categories.entrySet()) {
+            Category category = entry.getValue();
+            writer.write(CATEGORY + '\t' + entry.getKey() + '\t' + category.fingerprint + '\n');
+            for (Map.Entry<String, String> alias : new TreeMap<>(category.classes).entrySet()) {
+                writer.write(ALIAS + '\t' + alias.getKey() + '\t' + alias.getValue() + '\n');
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * The recorded alias to class name map for a category, or null if the category was not recorded or
+     * its config no longer matches.
+     */
+    @Nullable public Map<String, String> classNames(@Nonnull String category, @Nonnull Config config) {
+        Category recorded = categories.get(category);
+        if (recorded == null) {
+            return null;
+        }
+        if (!recorded.fingerprint.equals(fingerprint(config))) {
+            log.debug("plugin snapshot for category {} is stale; ignoring it", category);
+            return null;
+        }
+        return Collections.unmodifiableMap(recorded.classes);
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("categories", categories.keySet())
+                      .toString();
+    }
+
+    static String fingerprint(Config config) {
+        return Hashing.murmur3_128()
+                      .hashString(config.root().render(ConfigRenderOptions.concise()), StandardCharsets.UTF_8)
+                      .toString();
+    }
+
+    private static final class Category {
+        final String              fingerprint;
+        final Map<String, String> classes = new HashMap<>();
+
+        Category(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the plugins configured on the classpath (as loaded by {@link ConfigFactory#load()})
+     * to the file named by the first argument.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: PluginSnapshot <output file>");
+            System.exit(1);
+        }
+        Config config = ConfigFactory.load();
+        if (config.hasPath(SNAPSHOT_PATH)) {
+            // resolve everything from scratch rather than from a previous snapshot
+            config = config.withoutPath(SNAPSHOT_PATH);
+        }
+        PluginSnapshot snapshot = of(new PluginRegistry(config));
+        try (Writer writer = Files.newBufferedWriter(new File(args[0]).toPath(), StandardCharsets.UTF_8)) {
+            snapshot.writeTo(writer);
+        }
+        System.out.println("wrote " + snapshot.categories.size() + " plugin categories to " + args[0]);
+    }
+}
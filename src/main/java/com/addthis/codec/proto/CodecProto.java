@@ -0,0 +1,417 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.proto;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.addthis.codec.Codec;
+import com.addthis.codec.codables.ConcurrentCodable;
+import com.addthis.codec.codables.SuperCodable;
+import com.addthis.codec.proto.ProtoSchema.ProtoType;
+import com.addthis.codec.proto.ProtoSchema.Shape;
+import com.addthis.codec.proto.ProtoSchema.Slot;
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ImmutableMap;
+
+import static com.addthis.codec.proto.ProtoSchema.LENGTH_DELIMITED;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Encodes objects as protobuf messages, so that consumers with a matching .proto definition can read them
+ * directly. Each codable field is a protobuf field whose number comes from a
+ * {@link com.addthis.codec.annotations.ProtoField} annotation or, failing that, a stable hash of the field
+ * name (see {@link #fieldNumbers}). Annotating frequently used fields with numbers from 1 to 15 keeps their
+ * tags to a single byte.
+ * <ul>
+ * <li>booleans, integral numbers, chars and enum ordinals are varints (int32 / int64, or sint32 / sint64
+ * with {@code zigzag}), floats and doubles are fixed32 / fixed64</li>
+ * <li>strings and byte arrays are length delimited, as are nested objects, which are embedded messages</li>
+ * <li>other arrays and collections are repeated fields, packed when their elements are numeric</li>
+ * <li>maps are repeated entry messages with the key as field 1 and the value as field 2</li>
+ * </ul>
+ * Null values, nulls within collections, and empty arrays and collections are not written, so decoding
+ * leaves those fields at their defaults. Null map keys and values are not written either, and like any
+ * entry that omits its key or value they decode as the protobuf default for their type. Values of
+ * primitive fields are always written, even when zero. Fields with unknown numbers (or unexpected wire
+ * types) are skipped when decoding. Nested objects are decoded as their declared types, which must be
+ * concrete; pluggable types are not supported.
+ */
+@Beta
+public final class CodecProto implements Codec {
+
+    public static final CodecProto INSTANCE = new CodecProto();
+
+    private CodecProto() {
+    }
+
+    /** Field names and their protobuf field numbers, in field number order. */
+    public static Map<String, Integer> fieldNumbers(@Nonnull Class<?> type) {
+        ImmutableMap.Builder<String, Integer> numbers = ImmutableMap.builder();
+        for (Slot slot : ProtoSchema.of(type).slots) {
+            numbers.put(slot.field.getName(), slot.number);
+        }
+        return numbers.build();
+    }
+
+    @Override
+    public byte[] encode(Object obj) throws Exception {
+        ProtoOutput out = new ProtoOutput();
+        encodeMessage(checkNotNull(obj, "protobuf has no encoding for a null message"), out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(T shell, byte[] data) throws Exception {
+        decodeMessage(ProtoSchema.of(shell.getClass()), shell, new ProtoInput(data));
+        return shell;
+    }
+
+    @Override
+    public <T> T decode(Class<T> type, byte[] data) throws Exception {
+        return decode(type.cast(Fields.getClassFieldMap(type).newInstance()), data);
+    }
+
+    /** Always false; there is no encoding for a null message. */
+    @Override
+    public boolean storesNull(byte[] data) {
+        return false;
+    }
+
+    private void encodeMessage(Object object, ProtoOutput out) throws Exception {
+        boolean lock = object instanceof ConcurrentCodable;
+        if (lock) {
+            ((ConcurrentCodable) object).encodeLock();
+        }
+        try {
+            if (object instanceof SuperCodable) {
+                ((SuperCodable) object).preEncode();
+            }
+            for (Slot slot : ProtoSchema.of(object.getClass()).slots) {
+                Object value = slot.field.get(object);
+                if (value != null) {
+                    encodeField(slot, value, out);
+                }
+            }
+        } finally {
+            if (lock) {
+                ((ConcurrentCodable) object).encodeUnlock();
+            }
+        }
+    }
+
+    private void encodeField(Slot slot, Object value, ProtoOutput out) throws Exception {
+        switch (slot.shape) {
+            case SINGLE:
+                out.writeTag(slot.number, slot.valueType.wireType);
+                writeValue(slot.valueType, slot.zigzag, value, out);
+                break;
+            case ARRAY:
+                int length = Array.getLength(value);
+                List<Object> elements = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    elements.add(Array.get(value, i));
+                }
+                encodeRepeated(slot, elements, out);
+                break;
+            case COLLECTION:
+                encodeRepeated(slot, (Collection<?>) value, out);
+                break;
+            case MAP:
+                ProtoOutput entry = new ProtoOutput();
+                for (Map.Entry<?, ?> pair : ((Map<?, ?>) value).entrySet()) {
+                    entry.reset();
+                    if (pair.getKey() != null) {
+                        entry.writeTag(1, slot.keyType.wireType);
+                        writeValue(slot.keyType, slot.zigzag, pair.getKey(), entry);
+                    }
+                    if (pair.getValue() != null) {
+                        entry.writeTag(2, slot.valueType.wireType);
+                        writeValue(slot.valueType, slot.zigzag, pair.getValue(), entry);
+                    }
+                    out.writeTag(slot.number, LENGTH_DELIMITED);
+                    out.writeNested(entry);
+                }
+                break;
+            default:
+                throw new IllegalStateException("unhandled field shape " + slot.shape);
+        }
+    }
+
+    private void encodeRepeated(Slot slot, Collection<?> elements, ProtoOutput out) throws Exception {
+        if (slot.valueType.packable()) {
+            ProtoOutput packed = new ProtoOutput();
+            for (Object element : elements) {
+                if (element != null) {
+                    writeValue(slot.valueType, slot.zigzag, element, packed);
+                }
+            }
+            if (packed.size() > 0) {
+                out.writeTag(slot.number, LENGTH_DELIMITED);
+                out.writeNested(packed);
+            }
+        } else {
+            for (Object element : elements) {
+                if (element != null) {
+                    out.writeTag(slot.number, slot.valueType.wireType);
+                    writeValue(slot.valueType, slot.zigzag, element, out);
+                }
+            }
+        }
+    }
+
+    private void writeValue(ProtoType type, boolean zigzag, Object value, ProtoOutput out) throws Exception {
+        switch (type) {
+            case BOOL:
+                out.writeVarint((Boolean) value ? 1 : 0);
+                break;
+            case INT32:
+                int intValue = (value instanceof Character) ? (Character) value : ((Number) value).intValue();
+                if (zigzag) {
+                    out.writeVarint((intValue << 1) ^ (intValue >> 31));
+                } else {
+                    out.writeVarint((long) intValue);
+                }
+                break;
+            case INT64:
+                long longValue = ((Number) value).longValue();
+                out.writeVarint(zigzag ? ((longValue << 1) ^ (longValue >> 63)) : longValue);
+                break;
+            case FLOAT:
+                out.writeFixed32(Float.floatToIntBits((Float) value));
+                break;
+            case DOUBLE:
+                out.writeFixed64(Double.doubleToLongBits((Double) value));
+                break;
+            case STRING:
+                out.writeString((String) value);
+                break;
+            case BYTES:
+                out.writeBytes((byte[]) value);
+                break;
+            case ENUM:
+                out.writeVarint(((Enum<?>) value).ordinal());
+                break;
+            case MESSAGE:
+                ProtoOutput nested = new ProtoOutput();
+                encodeMessage(value, nested);
+                out.writeNested(nested);
+                break;
+            default:
+                throw new IllegalStateException("unhandled protobuf type " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object decodeMessage(ProtoSchema schema, Object object, ProtoInput in) throws Exception {
+        // repeated fields may be split up or interleaved with others, so they are collected until the end
+        Object[] repeated = null;
+        while (!in.isAtEnd()) {
+            int tag = in.readTag();
+            Slot slot = schema.find(tag >>> 3);
+            if ((slot == null) || !slot.accepts(tag & 7)) {
+                in.skipField(tag);
+                continue;
+            }
+            if (slot.shape == Shape.SINGLE) {
+                slot.field.set(object, readValue(slot.valueType, slot.valueClass, slot.zigzag, in));
+                continue;
+            }
+            if (repeated == null) {
+                repeated = new Object[schema.slots.length];
+            }
+            if (slot.shape == Shape.MAP) {
+                Map<Object, Object> map = (Map<Object, Object>) repeated[slot.index];
+                if (map == null) {
+                    map = newMap(slot.field.getTypeOrComponentType());
+                    repeated[slot.index] = map;
+                }
+                readEntry(slot, in.readNested(), map);
+                continue;
+            }
+            Collection<Object> elements = (Collection<Object>) repeated[slot.index];
+            if (elements == null) {
+                elements = (slot.shape == Shape.ARRAY) ? new ArrayList<>()
+                                                       : newCollection(slot.field.getTypeOrComponentType());
+                repeated[slot.index] = elements;
+            }
+            if (((tag & 7) == LENGTH_DELIMITED) && slot.valueType.packable()) {
+                ProtoInput packed = in.readNested();
+                while (!packed.isAtEnd()) {
+                    elements.add(readValue(slot.valueType, slot.valueClass, slot.zigzag, packed));
+                }
+            } else {
+                elements.add(readValue(slot.valueType, slot.valueClass, slot.zigzag, in));
+            }
+        }
+        if (repeated != null) {
+            for (Slot slot : schema.slots) {
+                Object value = repeated[slot.index];
+                if ((value != null) && (slot.shape == Shape.ARRAY)) {
+                    List<?> elements = (List<?>) value;
+                    value = Array.newInstance(slot.valueClass, elements.size());
+                    for (int i = 0; i < elements.size(); i++) {
+                        Array.set(value, i, elements.get(i));
+                    }
+                }
+                slot.field.set(object, value);
+            }
+        }
+        if (object instanceof SuperCodable) {
+            ((SuperCodable) object).postDecode();
+        }
+        return object;
+    }
+
+    private void readEntry(Slot slot, ProtoInput in, Map<Object, Object> map) throws Exception {
+        Object key = null;
+        Object value = null;
+        boolean hasKey = false;
+        boolean hasValue = false;
+        while (!in.isAtEnd()) {
+            int tag = in.readTag();
+            if (tag == ((1 << 3) | slot.keyType.wireType)) {
+                key = readValue(slot.keyType, slot.keyClass, slot.zigzag, in);
+                hasKey = true;
+            } else if (tag == ((2 << 3) | slot.valueType.wireType)) {
+                value = readValue(slot.valueType, slot.valueClass, slot.zigzag, in);
+                hasValue = true;
+            } else {
+                in.skipField(tag);
+            }
+        }
+        // as in protobuf, an entry without a key or value has the default for its type there
+        map.put(hasKey ? key : defaultValue(slot.keyType, slot.keyClass),
+                hasValue ? value : defaultValue(slot.valueType, slot.valueClass));
+    }
+
+    private Object readValue(ProtoType type, Class<?> valueClass, boolean zigzag, ProtoInput in) throws Exception {
+        switch (type) {
+            case BOOL:
+                return in.readVarint() != 0;
+            case INT32:
+                int intValue = in.readVarint32();
+                if (zigzag) {
+                    intValue = (intValue >>> 1) ^ -(intValue & 1);
+                }
+                return narrow(intValue, valueClass);
+            case INT64:
+                long longValue = in.readVarint();
+                return zigzag ? ((longValue >>> 1) ^ -(longValue & 1)) : longValue;
+            case FLOAT:
+                return Float.intBitsToFloat(in.readFixed32());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readFixed64());
+            case STRING:
+                return in.readString();
+            case BYTES:
+                return in.readBytes();
+            case ENUM:
+                int ordinal = in.readVarint32();
+                Object[] constants = valueClass.getEnumConstants();
+                // values from a newer enum are dropped rather than failing the whole message
+                return ((ordinal >= 0) && (ordinal < constants.length)) ? constants[ordinal] : null;
+            case MESSAGE:
+                ProtoSchema schema = ProtoSchema.of(valueClass);
+                return decodeMessage(schema, schema.classInfo.newInstance(), in.readNested());
+            default:
+                throw new IllegalStateException("unhandled protobuf type " + type);
+        }
+    }
+
+    /** The value of a field that is not present: zero, false, empty, the first enum constant or an empty message. */
+    @Nullable private Object defaultValue(ProtoType type, Class<?> valueClass) throws Exception {
+        switch (type) {
+            case BOOL:
+                return false;
+            case INT32:
+                return narrow(0, valueClass);
+            case INT64:
+                return 0L;
+            case FLOAT:
+                return 0f;
+            case DOUBLE:
+                return 0d;
+            case STRING:
+                return "";
+            case BYTES:
+                return new byte[0];
+            case ENUM:
+                Object[] constants = valueClass.getEnumConstants();
+                return (constants.length > 0) ? constants[0] : null;
+            case MESSAGE:
+                ProtoSchema schema = ProtoSchema.of(valueClass);
+                return decodeMessage(schema, schema.classInfo.newInstance(), new ProtoInput(new byte[0]));
+            default:
+                throw new IllegalStateException("unhandled protobuf type " + type);
+        }
+    }
+
+    private static Object narrow(int intValue, Class<?> valueClass) {
+        if ((valueClass == byte.class) || (valueClass == Byte.class)) {
+            return (byte) intValue;
+        } else if ((valueClass == short.class) || (valueClass == Short.class)) {
+            return (short) intValue;
+        } else if ((valueClass == char.class) || (valueClass == Character.class)) {
+            return (char) intValue;
+        }
+        return intValue;
+    }
+
+    private static boolean isNotConcrete(Class<?> type) {
+        int mod = type.getModifiers();
+        return Modifier.isAbstract(mod) || Modifier.isInterface(mod);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> newMap(Class<?> type) throws InstantiationException {
+        if (!isNotConcrete(type)) {
+            return (Map<Object, Object>) Fields.getClassFieldMap(type).newInstance();
+        } else if (SortedMap.class.isAssignableFrom(type)) {
+            return new TreeMap<>();
+        } else {
+            return new HashMap<>();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(Class<?> type) throws InstantiationException {
+        if (!isNotConcrete(type)) {
+            return (Collection<Object>) Fields.getClassFieldMap(type).newInstance();
+        } else if (SortedSet.class.isAssignableFrom(type)) {
+            return new TreeSet<>();
+        } else if (Set.class.isAssignableFrom(type)) {
+            return new HashSet<>();
+        } else {
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.proto;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+/** Reads protobuf wire format from a region of a byte array. */
+final class ProtoInput {
+
+    private final byte[] buf;
+    private final int    limit;
+    private int          pos;
+
+    ProtoInput(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    private ProtoInput(byte[] buf, int offset, int limit) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = limit;
+    }
+
+    boolean isAtEnd() {
+        return pos >= limit;
+    }
+
+    int readTag() throws IOException {
+        int tag = readVarint32();
+        if ((tag >>> 3) == 0) {
+            throw new IOException("invalid protobuf field number 0");
+        }
+        return tag;
+    }
+
+    long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    int readVarint32() throws IOException {
+        return (int) readVarint();
+    }
+
+    int readFixed32() throws IOException {
+        require(4);
+        int value = (buf[pos] & 0xFF) | ((buf[pos + 1] & 0xFF) << 8)
+                    | ((buf[pos + 2] & 0xFF) << 16) | ((buf[pos + 3] & 0xFF) << 24);
+        pos += 4;
+        return value;
+    }
+
+    long readFixed64() throws IOException {
+        long low = readFixed32() & 0xFFFFFFFFL;
+        return low | ((long) readFixed32() << 32);
+    }
+
+    byte[] readBytes() throws IOException {
+        int length = readLength();
+        byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+        pos += length;
+        return bytes;
+    }
+
+    String readString() throws IOException {
+        int length = readLength();
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    /** Reads a length and returns the delimited region as its own input, skipping over it in this one. */
+    ProtoInput readNested() throws IOException {
+        int length = readLength();
+        ProtoInput nested = new ProtoInput(buf, pos, pos + length);
+        pos += length;
+        return nested;
+    }
+
+    /** Skips the value of a field that has already had its tag read. */
+    void skipField(int tag) throws IOException {
+        switch (tag & 7) {
+            case ProtoSchema.VARINT:
+                readVarint();
+                break;
+            case ProtoSchema.FIXED64:
+                skip(8);
+                break;
+            case ProtoSchema.LENGTH_DELIMITED:
+                skip(readLength());
+                break;
+            case ProtoSchema.START_GROUP:
+                int end = ((tag >>> 3) << 3) | ProtoSchema.END_GROUP;
+                while (true) {
+                    int next = readTag();
+                    if (next == end) {
+                        break;
+                    }
+                    skipField(next);
+                }
+                break;
+            case ProtoSchema.FIXED32:
+                skip(4);
+                break;
+            default:
+                throw new IOException("unexpected wire type " + (tag & 7) + " for field " + (tag >>> 3));
+        }
+    }
+
+    private int readLength() throws IOException {
+        int length = readVarint32();
+        if (length < 0) {
+            throw new IOException("negative length " + length);
+        }
+        require(length);
+        return length;
+    }
+
+    private byte readByte() throws IOException {
+        require(1);
+        return buf[pos++];
+    }
+
+    private void skip(int bytes) throws IOException {
+        require(bytes);
+        pos += bytes;
+    }
+
+    private void require(int bytes) throws EOFException {
+        if ((limit - pos) < bytes) {
+            throw new EOFException("needed " + bytes + " bytes but only " + (limit - pos) + " remain");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.proto;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+/** Growable buffer of protobuf wire format output. */
+final class ProtoOutput {
+
+    private byte[] buf;
+    private int    count;
+
+    ProtoOutput() {
+        this(64);
+    }
+
+    ProtoOutput(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    int size() {
+        return count;
+    }
+
+    void reset() {
+        count = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    void writeTag(int number, int wireType) {
+        writeVarint((number << 3) | wireType);
+    }
+
+    /** Unsigned varint of an int, as used for tags and lengths. */
+    void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buf[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[count++] = (byte) value;
+    }
+
+    /** Unsigned varint of a long; negative int32 values are sign extended to 10 bytes, as protobuf does. */
+    void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[count++] = (byte) value;
+    }
+
+    void writeFixed32(int value) {
+        ensureCapacity(4);
+        buf[count++] = (byte) value;
+        buf[count++] = (byte) (value >> 8);
+        buf[count++] = (byte) (value >> 16);
+        buf[count++] = (byte) (value >> 24);
+    }
+
+    void writeFixed64(long value) {
+        writeFixed32((int) value);
+        writeFixed32((int) (value >> 32));
+    }
+
+    /** Writes the bytes length delimited. */
+    void writeBytes(byte[] bytes) {
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /** Writes the string as length delimited UTF-8, avoiding an intermediate array for ascii strings. */
+    @SuppressWarnings("deprecation")
+    void writeString(String value) {
+        int length = value.length();
+        int ascii = 0;
+        while ((ascii < length) && (value.charAt(ascii) < 0x80)) {
+            ascii++;
+        }
+        if (ascii < length) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        writeVarint(length);
+        ensureCapacity(length);
+        value.getBytes(0, length, buf, count);
+        count += length;
+    }
+
+    /** Writes the contents of another output length delimited, as for a nested message or packed values. */
+    void writeNested(ProtoOutput nested) {
+        writeVarint(nested.count);
+        ensureCapacity(nested.count);
+        System.arraycopy(nested.buf, 0, buf, count, nested.count);
+        count += nested.count;
+    }
+
+    private void ensureCapacity(int extra) {
+        if ((count + extra) > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(count + extra, buf.length << 1));
+        }
+    }
+}
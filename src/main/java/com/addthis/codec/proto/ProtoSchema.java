@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.proto;
+
+import javax.annotation.Nullable;
+
+import java.lang.reflect.Modifier;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.addthis.codec.annotations.ProtoField;
+import com.addthis.codec.reflection.CodableClassInfo;
+import com.addthis.codec.reflection.CodableFieldInfo;
+import com.addthis.codec.reflection.Fields;
+
+import com.google.common.hash.Hashing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/** Protobuf field numbers and value types for the codable fields of one class, resolved once and cached. */
+final class ProtoSchema {
+
+    static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+
+    private static final int FIRST_RESERVED = 19000;
+    private static final int LAST_RESERVED  = 19999;
+    private static final int FIRST_HASHED   = LAST_RESERVED + 1;
+    private static final int DIRECT_LOOKUP  = 128;
+
+    private static final ClassValue<ProtoSchema> SCHEMAS = new ClassValue<ProtoSchema>() {
+        @Override protected ProtoSchema computeValue(Class<?> type) {
+            return new ProtoSchema(type);
+        }
+    };
+
+    final Class<?>         type;
+    final CodableClassInfo classInfo;
+    /** In field number order. */
+    final Slot[]           slots;
+
+    private final Slot[]             direct;
+    private final Map<Integer, Slot> indirect;
+
+    private ProtoSchema(Class<?> type) {
+        checkArgument(ProtoType.of(type, false) == ProtoType.MESSAGE, "%s can not be encoded as a message", type);
+        this.type = type;
+        this.classInfo = Fields.getClassFieldMap(type);
+        Slot[] slots = new Slot[classInfo.size()];
+        int index = 0;
+        for (CodableFieldInfo field : classInfo.values()) {
+            slots[index++] = new Slot(field);
+        }
+        Arrays.sort(slots, new Comparator<Slot>() {
+            @Override public int compare(Slot a, Slot b) {
+                return Integer.compare(a.number, b.number);
+            }
+        });
+        this.direct = new Slot[DIRECT_LOOKUP];
+        this.indirect = new HashMap<>();
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[i];
+            slot.index = i;
+            if (i > 0) {
+                checkArgument(slots[i - 1].number != slot.number,
+                              "fields %s and %s of %s share protobuf field number %s; use @ProtoField to separate them",
+                              slots[i - 1].field.getName(), slot.field.getName(), type, slot.number);
+            }
+            if (slot.number < DIRECT_LOOKUP) {
+                direct[slot.number] = slot;
+            } else {
+                indirect.put(slot.number, slot);
+            }
+        }
+        this.slots = slots;
+    }
+
+    static ProtoSchema of(Class<?> type) {
+        return SCHEMAS.get(type);
+    }
+
+    @Nullable Slot find(int number) {
+        if (number < DIRECT_LOOKUP) {
+            return direct[number];
+        }
+        return indirect.get(number);
+    }
+
+    /** The annotated field number, or a stable hash of the field name above the reserved range. */
+    static int numberOf(CodableFieldInfo field) {
+        ProtoField annotation = field.getField().getAnnotation(ProtoField.class);
+        if (annotation == null) {
+            int hash = Hashing.murmur3_32().hashString(field.getName(), StandardCharsets.UTF_8).asInt();
+            return FIRST_HASHED + ((hash & Integer.MAX_VALUE) % (MAX_FIELD_NUMBER - FIRST_HASHED + 1));
+        }
+        int number = annotation.value();
+        checkArgument((number > 0) && (number <= MAX_FIELD_NUMBER), "protobuf field number %s of %s is out of range",
+                      number, field.getName());
+        checkArgument((number < FIRST_RESERVED) || (number > LAST_RESERVED),
+                      "protobuf field number %s of %s is in the reserved range", number, field.getName());
+        return number;
+    }
+
+    static final int VARINT           = 0;
+    static final int FIXED64          = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int START_GROUP      = 3;
+    static final int END_GROUP        = 4;
+    static final int FIXED32          = 5;
+
+    enum ProtoType {
+        BOOL(VARINT), INT32(VARINT), INT64(VARINT), FLOAT(FIXED32), DOUBLE(FIXED64),
+        STRING(LENGTH_DELIMITED), BYTES(LENGTH_DELIMITED), ENUM(VARINT), MESSAGE(LENGTH_DELIMITED);
+
+        final int wireType;
+
+        ProtoType(int wireType) {
+            this.wireType = wireType;
+        }
+
+        /** Scalar numeric types may be packed into a single length delimited run when repeated. */
+        boolean packable() {
+            return wireType != LENGTH_DELIMITED;
+        }
+
+        /** Protobuf map keys may be any integral or string type. */
+        boolean validKey() {
+            return (this == BOOL) || (this == INT32) || (this == INT64) || (this == STRING) || (this == ENUM);
+        }
+
+        @Nullable static ProtoType of(@Nullable Class<?> type, boolean array) {
+            if (type == null) {
+                return null;
+            } else if (array) {
+                return (type == byte.class) ? BYTES : null;
+            } else if ((type == boolean.class) || (type == Boolean.class)) {
+                return BOOL;
+            } else if ((type == int.class) || (type == Integer.class) || (type == short.class)
+                       || (type == Short.class) || (type == byte.class) || (type == Byte.class)
+                       || (type == char.class) || (type == Character.class)) {
+                return INT32;
+            } else if ((type == long.class) || (type == Long.class)) {
+                return INT64;
+            } else if ((type == float.class) || (type == Float.class)) {
+                return FLOAT;
+            } else if ((type == double.class) || (type == Double.class)) {
+                return DOUBLE;
+            } else if (type == String.class) {
+                return STRING;
+            } else if (type.isEnum()) {
+                return ENUM;
+            } else if ((type == Object.class) || type.isArray() || Fields.isNative(type)
+                       || Collection.class.isAssignableFrom(type)
+                       || Map.class.isAssignableFrom(type) || Modifier.isAbstract(type.getModifiers())
+                       || type.isInterface()) {
+                return null;
+            } else {
+                return MESSAGE;
+            }
+        }
+    }
+
+    enum Shape {
+        SINGLE, ARRAY, COLLECTION, MAP
+    }
+
+    static final class Slot {
+        final CodableFieldInfo field;
+        final int              number;
+        final boolean          zigzag;
+        final Shape            shape;
+        final ProtoType        valueType;
+        final Class<?>         valueClass;
+        @Nullable final ProtoType keyType;
+        @Nullable final Class<?>  keyClass;
+        int index;
+
+        Slot(CodableFieldInfo field) {
+            this.field = field;
+            this.number = numberOf(field);
+            ProtoField annotation = field.getField().getAnnotation(ProtoField.class);
+            this.zigzag = (annotation != null) && annotation.zigzag();
+            Class<?> type = field.getTypeOrComponentType();
+            if (field.isArray() && (type != byte.class)) {
+                shape = Shape.ARRAY;
+                valueClass = type;
+                valueType = ProtoType.of(type, false);
+                keyType = null;
+                keyClass = null;
+            } else if (field.isMap()) {
+                shape = Shape.MAP;
+                keyClass = field.getMapKeyClass();
+                keyType = ProtoType.of(keyClass, field.isMapKeyArray());
+                valueClass = field.getMapValueClass();
+                valueType = ProtoType.of(valueClass, field.isMapValueArray());
+                checkArgument((keyType != null) && keyType.validKey(), "map field %s of %s has key type %s, "
+                              + "which is not a valid protobuf map key", field.getName(),
+                              field.getField().getDeclaringClass(), keyClass);
+            } else if (field.isCollection()) {
+                shape = Shape.COLLECTION;
+                valueClass = field.getCollectionClass();
+                valueType = ProtoType.of(valueClass, field.isCollectionArray());
+                keyType = null;
+                keyClass = null;
+            } else {
+                shape = Shape.SINGLE;
+                valueClass = type;
+                valueType = ProtoType.of(type, field.isArray());
+                keyType = null;
+                keyClass = null;
+            }
+            checkArgument(valueType != null, "field %s of %s has type %s, which has no protobuf encoding",
+                          field.getName(), field.getField().getDeclaringClass(), field.getField().getGenericType());
+        }
+
+        boolean accepts(int wireType) {
+            switch (shape) {
+                case SINGLE:
+                    return wireType == valueType.wireType;
+                case MAP:
+                    return wireType == LENGTH_DELIMITED;
+                default:
+                    return (wireType == valueType.wireType)
+                           || (valueType.packable() && (wireType == LENGTH_DELIMITED));
+            }
+        }
+    }
+}
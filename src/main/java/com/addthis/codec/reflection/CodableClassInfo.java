@@ -46,9 +46,11 @@ public class CodableClassInfo {
     private static final Logger log = LoggerFactory.getLogger(CodableClassInfo.class);
 
     @Nonnull private final Class<?>     baseClass;
+    @Nonnull private final Instantiator instantiator;
     @Nonnull private final PluginMap    pluginMap;
     @Nonnull private final Config       fieldDefaults;
     @Nonnull private final ImmutableSortedMap<String, CodableFieldInfo> classData;
+    private final boolean flat;
 
     public CodableClassInfo(@Nonnull Class<?> clazz) {
         this(clazz, ConfigFactory.load(), PluginRegistry.defaultRegistry());
@@ -57,10 +59,12 @@ public class CodableClassInfo {
     public CodableClassInfo(@Nonnull Class<?> clazz,
                             @Nonnull Config globalDefaults,
                             @Nonnull PluginRegistry pluginRegistry) {
+        instantiator = new Instantiator(clazz);
 
         // skip native classes
         if (Fields.isNative(clazz) || clazz.isArray()) {
             classData = ImmutableSortedMap.of();
+            flat = false;
             baseClass = clazz;
             pluginMap = PluginMap.EMPTY;
             fieldDefaults = ConfigFactory.empty();
@@ -130,6 +134,7 @@ public class CodableClassInfo {
         Map<String, CodableFieldInfo> buildClassData = buildFieldInfoMap(fields.values());
         classData = ImmutableSortedMap.<String, CodableFieldInfo>naturalOrder()
                                       .putAll(buildClassData).build();
+        flat = isFlat(classData.values());
     }
 
     @Nonnull public PluginMap getPluginMap() {
@@ -156,6 +161,22 @@ public class CodableClassInfo {
         return pluginMap.defaultSugar();
     }
 
+    /**
+     * Creates a new instance of the class this info was built for. The constructor is resolved once
+     * per class, so this is considerably cheaper than {@link Class#newInstance()}.
+     */
+    @Nonnull public Object newInstance() throws InstantiationException {
+        return instantiator.newInstance();
+    }
+
+    /**
+     * Like {@link #newInstance()}, but for the common JDK maps and collections (such as {@link java.util.HashMap}
+     * and {@link java.util.ArrayList}) the new instance is presized to hold the expected number of elements.
+     */
+    @Nonnull public Object newInstance(int expectedSize) throws InstantiationException {
+        return instantiator.newInstance(expectedSize);
+    }
+
     @Nullable public String getClassName(Object val) {
         if (val.getClass() != baseClass) {
             return pluginMap.getClassName(val.getClass());
@@ -168,6 +189,14 @@ public class CodableClassInfo {
         return pluginMap.getClass(name);
     }
 
+    /**
+     * True if the class has at least one codable field and every codable field is a primitive (not an array
+     * and not a box), so that every instance can be stored in the same fixed number of bytes.
+     */
+    public boolean isFlat() {
+        return flat;
+    }
+
     public int size() {
         return classData.size();
     }
@@ -194,6 +223,18 @@ public class CodableClassInfo {
         return !Modifier.isFinal(modifierBitSet) && Modifier.isPublic(modifierBitSet);
     }
 
+    private static boolean isFlat(Collection<CodableFieldInfo> fields) {
+        if (fields.isEmpty()) {
+            return false;
+        }
+        for (CodableFieldInfo field : fields) {
+            if (field.isArray() || !field.getTypeOrComponentType().isPrimitive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Nonnull private static Map<String, CodableFieldInfo> buildFieldInfoMap(Iterable<Field> fields) {
         SortedMap<String, CodableFieldInfo> buildClassData = new TreeMap<>();
         for (Field field : fields) {
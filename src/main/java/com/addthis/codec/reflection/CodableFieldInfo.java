@@ -158,7 +158,7 @@ public final class CodableFieldInfo {
     }
 
     public Object newInstance() throws Exception {
-        return typeOrComponentType.newInstance();
+        return Fields.getClassFieldMap(typeOrComponentType).newInstance();
     }
 
     @Nullable public Class<?> getCollectionClass() {
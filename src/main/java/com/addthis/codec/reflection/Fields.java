@@ -10,9 +10,16 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.addthis.codec.plugins.PluginRegistry;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /*
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -30,20 +37,105 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public final class Fields {
     private Fields() {}
 
-    private static final ConcurrentMap<Class<?>, CodableClassInfo> fieldMaps =
-            new ConcurrentHashMap<>();
+    /**
+     * Bumped by {@link #flushClassFieldMaps()}; since a {@link ClassValue} cannot be cleared, cached
+     * entries from an older generation are ignored and rebuilt instead.
+     */
+    private static final AtomicInteger generation = new AtomicInteger();
 
-    public static CodableClassInfo getClassFieldMap(Class<?> clazz) {
-        CodableClassInfo fieldMap = fieldMaps.get(clazz);
-        if (fieldMap == null) {
-            fieldMap = new CodableClassInfo(clazz);
-            fieldMaps.put(clazz, fieldMap);
+    /**
+     * Held by the class itself rather than by a static map, so caching metadata for a class does not keep
+     * it (or its class loader) from being unloaded.
+     */
+    private static final ClassValue<ClassFieldMaps> fieldMaps = new ClassValue<ClassFieldMaps>() {
+        @Override protected ClassFieldMaps computeValue(Class<?> type) {
+            return new ClassFieldMaps(type);
         }
-        return fieldMap;
+    };
+
+    /** Metadata for the class using the global config defaults and the default plugin registry. */
+    public static CodableClassInfo getClassFieldMap(Class<?> clazz) {
+        return fieldMaps.get(clazz).current().defaultInfo();
+    }
+
+    /** Metadata for the class using the config defaults and plugins of the given registry. */
+    public static CodableClassInfo getClassFieldMap(Class<?> clazz, PluginRegistry pluginRegistry) {
+        return fieldMaps.get(clazz).current().registryInfo(pluginRegistry);
     }
 
     public static void flushClassFieldMaps() {
-        fieldMaps.clear();
+        generation.incrementAndGet();
+    }
+
+    /** Per class holder for the metadata of the current generation. */
+    private static final class ClassFieldMaps {
+        private final Class<?>             type;
+        private volatile ClassFieldMapsGen gen;
+
+        ClassFieldMaps(Class<?> type) {
+            this.type = type;
+        }
+
+        ClassFieldMapsGen current() {
+            ClassFieldMapsGen current = gen;
+            int currentGeneration = generation.get();
+            if ((current == null) || (current.generation != currentGeneration)) {
+                synchronized (this) {
+                    current = gen;
+                    if ((current == null) || (current.generation != currentGeneration)) {
+                        current = new ClassFieldMapsGen(type, currentGeneration);
+                        gen = current;
+                    }
+                }
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Each info is built at most once, even when many threads ask for it at the same time; the others wait
+     * for the first instead of racing to build duplicates.
+     */
+    private static final class ClassFieldMapsGen {
+        final int generation;
+
+        private final Class<?> type;
+        private final LoadingCache<PluginRegistry, CodableClassInfo> byRegistry;
+
+        private volatile CodableClassInfo defaultInfo;
+
+        ClassFieldMapsGen(final Class<?> type, int generation) {
+            this.type = type;
+            this.generation = generation;
+            this.byRegistry = CacheBuilder.newBuilder().weakKeys().build(
+                    new CacheLoader<PluginRegistry, CodableClassInfo>() {
+                        @Override public CodableClassInfo load(PluginRegistry pluginRegistry) {
+                            return new CodableClassInfo(type, pluginRegistry.config(), pluginRegistry);
+                        }
+                    });
+        }
+
+        CodableClassInfo defaultInfo() {
+            CodableClassInfo info = defaultInfo;
+            if (info == null) {
+                synchronized (this) {
+                    info = defaultInfo;
+                    if (info == null) {
+                        info = new CodableClassInfo(type);
+                        defaultInfo = info;
+                    }
+                }
+            }
+            return info;
+        }
+
+        CodableClassInfo registryInfo(PluginRegistry pluginRegistry) {
+            try {
+                return byRegistry.getUnchecked(pluginRegistry);
+            } catch (UncheckedExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
     }
 
     public static boolean isNative(@Nonnull Class<?> type) {
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.reflection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Creates new instances of a single class through method handles resolved once, rather than through
+ * {@link Class#newInstance()} which repeats access checks and rethrows checked exceptions on every call.
+ * The common JDK maps and collections may also be created presized.
+ */
+final class Instantiator {
+
+    private static final MethodType NO_ARGS = MethodType.methodType(Object.class);
+    private static final MethodType INT_ARG = MethodType.methodType(Object.class, int.class);
+
+    // JDK containers whose int constructor takes a hash table capacity
+    private static final ImmutableSet<Class<?>> HASHED = ImmutableSet.<Class<?>>of(
+            HashMap.class, LinkedHashMap.class, HashSet.class, LinkedHashSet.class, Hashtable.class,
+            WeakHashMap.class);
+    // JDK containers whose int constructor takes an element count. Only exact classes are trusted, since
+    // others may give an int argument another meaning, such as the fixed bound of a blocking queue.
+    private static final ImmutableSet<Class<?>> COUNTED = ImmutableSet.<Class<?>>of(
+            ArrayList.class, Vector.class, ArrayDeque.class, PriorityQueue.class, IdentityHashMap.class,
+            ConcurrentHashMap.class);
+
+    @Nonnull private final Class<?> type;
+    @Nullable private final MethodHandle constructor;
+    @Nullable private final MethodHandle sizedConstructor;
+    private final boolean hashed;
+
+    Instantiator(@Nonnull Class<?> type) {
+        this.type = type;
+        if (isConcrete(type)) {
+            constructor = findConstructor(type, NO_ARGS);
+            if (HASHED.contains(type) || COUNTED.contains(type)) {
+                sizedConstructor = findConstructor(type, INT_ARG);
+            } else {
+                sizedConstructor = null;
+            }
+        } else {
+            constructor = null;
+            sizedConstructor = null;
+        }
+        hashed = HASHED.contains(type);
+    }
+
+    @Nonnull Object newInstance() throws InstantiationException {
+        if (constructor == null) {
+            throw new InstantiationException("no accessible no-arg constructor for " + type);
+        }
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw instantiationException(ex);
+        }
+    }
+
+    /**
+     * Creates a new instance sized to hold the expected number of elements if there is a suitable constructor,
+     * and otherwise falls back to the no-arg constructor. Callers should not trust an expected size read from
+     * untrusted input without bounding it first.
+     */
+    @Nonnull Object newInstance(int expectedSize) throws InstantiationException {
+        if (sizedConstructor == null) {
+            return newInstance();
+        }
+        // some containers (such as PriorityQueue) reject a capacity of zero
+        int capacity = hashed ? hashCapacity(expectedSize) : Math.max(expectedSize, 1);
+        try {
+            return (Object) sizedConstructor.invokeExact(capacity);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw instantiationException(ex);
+        }
+    }
+
+    /** Table capacity that holds the expected number of elements at the default load factor without resizing. */
+    static int hashCapacity(int expectedSize) {
+        if (expectedSize < 3) {
+            return Math.max(expectedSize + 1, 1);
+        } else if (expectedSize < (1 << 30)) {
+            return (int) ((expectedSize / 0.75f) + 1.0f);
+        } else {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private InstantiationException instantiationException(Throwable cause) {
+        InstantiationException ex = new InstantiationException("could not instantiate " + type);
+        ex.initCause(cause);
+        return ex;
+    }
+
+    private static boolean isConcrete(Class<?> type) {
+        int mod = type.getModifiers();
+        return !(Modifier.isAbstract(mod) || Modifier.isInterface(mod) || type.isArray() || type.isPrimitive());
+    }
+
+    @Nullable private static MethodHandle findConstructor(Class<?> type, MethodType methodType) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor(methodType.parameterArray());
+            if (!Modifier.isPublic(constructor.getModifiers()) || !Modifier.isPublic(type.getModifiers())) {
+                constructor.setAccessible(true);
+            }
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(methodType);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ignored) {
+            // no such constructor, or the jvm will not let us use it; callers will treat both the same way
+            return null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.utils;
+
+import javax.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Objects;
+import com.typesafe.config.Config;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded, lock-free cache that hands out one shared instance for equal short strings, so that
+ * decoding many records with low-cardinality string values does not retain a copy per record.
+ * <p/>
+ * The table is direct-mapped: each slot holds at most one immutable entry and a colliding string
+ * simply replaces it. Entries are published without synchronization; a racing reader either sees
+ * a complete entry or misses and decodes the string itself. Byte lookups compare the encoded utf-8
+ * bytes in place, so a hit does not allocate at all.
+ */
+@Beta
+public final class StringCanonicalizer {
+
+    private static final class Entry {
+        final byte[] utf8;
+        final String value;
+
+        Entry(byte[] utf8, String value) {
+            this.utf8 = utf8;
+            this.value = value;
+        }
+    }
+
+    private final Entry[] byBytes;
+    private final Entry[] byString;
+    private final int     mask;
+    private final int     maxLength;
+
+    /**
+     * @param size      number of slots in each table; rounded up to a power of two
+     * @param maxLength strings longer than this (in chars, or in encoded bytes) are never cached
+     */
+    public StringCanonicalizer(int size, int maxLength) {
+        checkArgument(size > 0, "size (%s) must be positive", size);
+        checkArgument(maxLength >= 0, "maxLength (%s) must not be negative", maxLength);
+        int slots = Integer.highestOneBit(Math.min(size, 1 << 30));
+        if (slots < size) {
+            slots <<= 1;
+        }
+        this.byBytes = new Entry[slots];
+        this.byString = new Entry[slots];
+        this.mask = slots - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Builds a canonicalizer from the {@code addthis.codec.strings.canonicalize} section of the given
+     * config, or returns null if it is disabled (a size of zero).
+     */
+    @Nullable public static StringCanonicalizer fromConfig(Config config) {
+        Config section = config.getConfig("addthis.codec.strings.canonicalize");
+        int size = section.getInt("size");
+        if (size <= 0) {
+            return null;
+        }
+        return new StringCanonicalizer(size, section.getInt("max-length"));
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /** Decodes {@code length} utf-8 bytes starting at {@code offset}, returning a shared instance if one is cached. */
+    public String canonicalize(byte[] buf, int offset, int length) {
+        if (length > maxLength) {
+            return new String(buf, offset, length, StandardCharsets.UTF_8);
+        }
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = (31 * hash) + buf[i];
+        }
+        int slot = spread(hash) & mask;
+        Entry entry = byBytes[slot];
+        if ((entry != null) && bytesEqual(entry.utf8, buf, offset, length)) {
+            return entry.value;
+        }
+        byte[] utf8 = new byte[length];
+        System.arraycopy(buf, offset, utf8, 0, length);
+        String value = canonicalize(new String(utf8, StandardCharsets.UTF_8));
+        byBytes[slot] = new Entry(utf8, value);
+        return value;
+    }
+
+    /** Returns a previously cached instance equal to {@code value}, or caches and returns {@code value} itself. */
+    @Nullable public String canonicalize(@Nullable String value) {
+        if ((value == null) || (value.length() > maxLength)) {
+            return value;
+        }
+        int slot = spread(value.hashCode()) & mask;
+        Entry entry = byString[slot];
+        if ((entry != null) && value.equals(entry.value)) {
+            return entry.value;
+        }
+        byString[slot] = new Entry(null, value);
+        return value;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean bytesEqual(byte[] cached, byte[] buf, int offset, int length) {
+        if (cached.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override public String toString() {
+        return Objects.toStringHelper(this)
+                      .add("size", byBytes.length)
+                      .add("maxLength", maxLength)
+                      .toString();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.addthis.codec.jackson.Jackson;
+import com.addthis.codec.plugins.Greeter;
+import com.addthis.codec.plugins.MultiGreet;
+import com.addthis.codec.plugins.PluginRegistry;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Bin2JsonFactoryTest {
+
+    public static class Values {
+        public int                 small   = -3;
+        public long                big     = Long.MIN_VALUE;
+        public float               ratio   = 0.1f;
+        public double              precise = Math.PI;
+        public BigInteger          huge    = BigInteger.TEN.pow(30).negate();
+        public BigDecimal          money   = new BigDecimal("1234.5678");
+        public byte[]              raw     = {0, 1, -1, 127};
+        public String              text    = "snow \u2603";
+        public boolean             flag    = true;
+        public List<Integer>       list    = new ArrayList<>(Arrays.asList(1, 2, 3));
+        public Map<String, String> map     = new TreeMap<>();
+    }
+
+    private static final ObjectMapper MAPPER =
+            Jackson.newObjectMapper(PluginRegistry.defaultRegistry(), new Bin2JsonFactory());
+
+    @Test
+    public void roundTrip() throws Exception {
+        Values values = new Values();
+        values.map.put("k", "v");
+        byte[] encoded = MAPPER.writeValueAsBytes(values);
+        Values decoded = MAPPER.readValue(encoded, Values.class);
+        assertEquals(values.small, decoded.small);
+        assertEquals(values.big, decoded.big);
+        assertEquals(values.ratio, decoded.ratio, 0);
+        assertEquals(values.precise, decoded.precise, 0);
+        assertEquals(values.huge, decoded.huge);
+        assertEquals(values.money, decoded.money);
+        assertArrayEquals(values.raw, decoded.raw);
+        assertEquals(values.text, decoded.text);
+        assertEquals(values.flag, decoded.flag);
+        assertEquals(values.list, decoded.list);
+        assertEquals(values.map, decoded.map);
+        // the same tree as json, other than the binary value
+        Values noBinary = new Values();
+        noBinary.raw = null;
+        assertEquals(Jackson.defaultMapper().valueToTree(noBinary),
+                     MAPPER.readTree(MAPPER.writeValueAsBytes(noBinary)));
+    }
+
+    @Test
+    public void pluginTypes() throws Exception {
+        MultiGreet greet = new MultiGreet();
+        greet.prefix = "hello ";
+        greet.message = "world";
+        greet.suffix = "!";
+        greet.parts = new String[]{"a", "b"};
+        Greeter decoded = MAPPER.readValue(MAPPER.writeValueAsBytes(greet), Greeter.class);
+        assertTrue(decoded instanceof MultiGreet);
+        assertEquals(greet.greet(), decoded.greet());
+    }
+
+    @Test
+    public void sharedNames() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (int i = 0; i < 100; i++) {
+                generator.writeStartObject();
+                generator.writeNumberField("a_long_field_name", i);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        // the name is only written once
+        assertTrue(out.size() < (100 * "a_long_field_name".length()));
+        JsonParser parser = MAPPER.getFactory().createParser(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+            assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+            assertEquals("a_long_field_name", parser.getCurrentName());
+            assertEquals(JsonToken.VALUE_NUMBER_INT, parser.nextToken());
+            assertEquals(i, parser.getIntValue());
+            assertEquals(JsonToken.END_OBJECT, parser.nextToken());
+        }
+        assertEquals(JsonToken.END_ARRAY, parser.nextToken());
+        assertNull(parser.nextToken());
+    }
+
+    @Test
+    public void rejectsCharacters() throws Exception {
+        Bin2JsonFactory factory = new Bin2JsonFactory();
+        assertFalse(factory.canUseCharArrays());
+        try {
+            factory.createParser("{}");
+            fail("parsed a string");
+        } catch (UnsupportedOperationException expected) {
+            assertTrue(expected.getMessage().contains("non-byte-based source"));
+        }
+        try {
+            factory.createParser(new StringReader("{}"));
+            fail("parsed a reader");
+        } catch (UnsupportedOperationException expected) {
+            assertTrue(expected.getMessage().contains("non-byte-based source"));
+        }
+        try {
+            factory.createGenerator(new StringWriter());
+            fail("generated to a writer");
+        } catch (UnsupportedOperationException expected) {
+            assertTrue(expected.getMessage().contains("non-byte-based target"));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.addthis.codec.annotations.Pluggable;
+import com.addthis.codec.codables.Codable;
+
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class Bin2ParserTest {
+
+    public enum Size { SMALL, LARGE }
+
+    @Pluggable("bin2-parser-test")
+    public static class Shape implements Codable {
+        public String name = "shape";
+    }
+
+    public static class Circle extends Shape {
+        public float radius = 1.5f;
+    }
+
+    public static class Drawing implements Codable {
+        public byte[]              bytes  = {1, -1};
+        public List<Shape>         shapes = new ArrayList<>(Arrays.asList(new Shape(), new Circle()));
+        public Map<String, Long>   counts = new TreeMap<>();
+        public Map<Size, String>   sized  = new TreeMap<>();
+        public Size                size   = Size.LARGE;
+        public String              title;
+        public double              scale  = 0.25;
+        public boolean             draft  = true;
+        public String[]            tags   = {"a", "b"};
+    }
+
+    @Test
+    public void transcode() throws Exception {
+        Drawing drawing = new Drawing();
+        drawing.counts.put("x", 3L);
+        byte[] encoded = CodecBin2.encodeBytes(drawing);
+        String json = Bin2JsonTranscoder.toJson(Drawing.class, encoded);
+        String expected = "{\"bytes\":[1,-1],\"counts\":{\"x\":3},\"draft\":true,\"scale\":0.25,"
+                          + "\"shapes\":[{\"name\":\"shape\"},{\"class\":\"" + Circle.class.getName() + "\","
+                          + "\"name\":\"shape\",\"radius\":1.5}],\"size\":\"LARGE\",\"sized\":[],"
+                          + "\"tags\":[\"a\",\"b\"],\"title\":null}";
+        assertEquals(expected, json);
+    }
+
+    @Test
+    public void pullTokens() throws Exception {
+        Drawing drawing = new Drawing();
+        byte[] encoded = CodecBin2.encodeBytes(drawing);
+        Bin2Parser parser = new Bin2Parser(Drawing.class, encoded);
+        assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+        assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+        assertEquals("bytes", parser.getCurrentName());
+        assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+        parser.skipChildren();
+        assertEquals(JsonToken.END_ARRAY, parser.getCurrentToken());
+        assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+        assertEquals("counts", parser.getText());
+        int depth = 1;
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token == JsonToken.START_OBJECT) {
+                depth += 1;
+            } else if (token == JsonToken.END_OBJECT) {
+                depth -= 1;
+            }
+        }
+        assertEquals(0, depth);
+        assertNull(parser.nextToken());
+    }
+
+    @Test
+    public void nullRoot() throws Exception {
+        assertEquals("null", Bin2JsonTranscoder.toJson(Drawing.class, CodecBin2.encodeBytes(null)));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Bin2ScannerTest {
+
+    public enum Color { RED, GREEN }
+
+    public static class Child implements Codable {
+        public String label = "child";
+    }
+
+    // fields are encoded alphabetically, so most predicates have something complicated to skip first
+    public static class Row implements Codable {
+        public int[]                 aInts    = {1, 2, 3};
+        public List<String>          bList    = new ArrayList<>(Arrays.asList("x", "y"));
+        public Child                 cChild   = new Child();
+        public Map<String, Child>    dMap     = new HashMap<>();
+        public Color                 color    = Color.RED;
+        public long                  count;
+        public double                score;
+        public String                name;
+        public boolean               flag;
+        public Integer               optional;
+
+        public Row() {}
+
+        Row(String name, long count, double score) {
+            this.name = name;
+            this.count = count;
+            this.score = score;
+            this.dMap.put(name, new Child());
+        }
+    }
+
+    private static List<byte[]> rows() throws Exception {
+        List<byte[]> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Row row = new Row("row" + i, i, i / 2.0);
+            row.flag = (i % 2) == 0;
+            row.color = (i < 5) ? Color.RED : Color.GREEN;
+            row.optional = (i == 3) ? 3 : null;
+            rows.add(CodecBin2.encodeBytes(row));
+        }
+        rows.add(CodecBin2.encodeBytes(null));
+        return rows;
+    }
+
+    private static List<Long> counts(Bin2Predicate... predicates) throws Exception {
+        List<Long> counts = new ArrayList<>();
+        for (Row row : new Bin2Scanner<>(Row.class, predicates).scan(rows())) {
+            counts.add(row.count);
+        }
+        return counts;
+    }
+
+    @Test
+    public void equality() throws Exception {
+        assertEquals(Arrays.asList(4L), counts(Bin2Predicate.equalTo("name", "row4")));
+        assertEquals(Arrays.asList(7L), counts(Bin2Predicate.equalTo("count", 7)));
+        assertEquals(Arrays.asList(5L, 6L, 7L, 8L, 9L), counts(Bin2Predicate.equalTo("color", Color.GREEN)));
+        assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L), counts(Bin2Predicate.equalTo("flag", false)));
+        assertEquals(Arrays.asList(3L), counts(Bin2Predicate.equalTo("score", 1.5)));
+    }
+
+    @Test
+    public void ranges() throws Exception {
+        assertEquals(Arrays.asList(2L, 3L, 4L), counts(Bin2Predicate.between("count", 2, 4)));
+        assertEquals(Arrays.asList(8L, 9L), counts(Bin2Predicate.greaterThan("score", 3.5)));
+        assertEquals(Arrays.asList(0L, 1L), counts(Bin2Predicate.lessThan("name", "row2")));
+        assertEquals(Arrays.asList(2L, 3L), counts(Bin2Predicate.atLeast("count", 2),
+                                                   Bin2Predicate.atMost("name", "row3")));
+    }
+
+    @Test
+    public void nullChecks() throws Exception {
+        assertEquals(Arrays.asList(3L), counts(Bin2Predicate.notNull("optional")));
+        assertEquals(9, counts(Bin2Predicate.isNull("optional")).size());
+        assertEquals(Arrays.asList(3L), counts(Bin2Predicate.notNull("optional"), Bin2Predicate.equalTo("count", 3)));
+    }
+
+    @Test
+    public void fullyDecodesMatches() throws Exception {
+        Bin2Scanner<Row> scanner = new Bin2Scanner<>(Row.class, Bin2Predicate.equalTo("name", "row4"));
+        List<byte[]> rows = rows();
+        assertNull(scanner.decodeIfMatches(rows.get(3)));
+        Row row = scanner.decodeIfMatches(rows.get(4));
+        assertEquals("row4", row.name);
+        assertEquals("child", row.dMap.get("row4").label);
+        assertFalse(scanner.matches(rows.get(10)));
+        assertTrue(new Bin2Scanner<>(Row.class).matches(rows.get(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownField() {
+        new Bin2Scanner<>(Row.class, Bin2Predicate.isNull("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonNativeField() {
+        new Bin2Scanner<>(Row.class, Bin2Predicate.equalTo("cChild", "child"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void enumRange() {
+        new Bin2Scanner<>(Row.class, Bin2Predicate.atLeast("color", Color.RED));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.net.InetAddress;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.addthis.basis.util.LessBytes;
+
+import com.addthis.codec.annotations.Pluggable;
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryTypeHandlersTest {
+
+    public static class Values implements Codable {
+        public byte               tiny     = -7;
+        public Character          letter   = 'x';
+        public BigInteger         huge     = BigInteger.TEN.pow(40).negate();
+        public BigDecimal         money    = new BigDecimal("-12.345");
+        public UUID               id       = new UUID(1, -2);
+        public Instant            when     = Instant.ofEpochSecond(1500000000L, 123);
+        public Duration           howLong  = Duration.ofMillis(-1500);
+        public BitSet             bits     = BitSet.valueOf(new long[]{5L});
+        public InetAddress        address;
+        public char[]             chars    = {'a', 'b'};
+        public List<BigDecimal>   prices   = new ArrayList<>();
+        public Map<UUID, Instant> seen     = new HashMap<>();
+        public List<UUID[]>       batches  = new ArrayList<>();
+        public Money              custom   = new Money(250);
+        public BigDecimal         missing;
+        public int                trailing = 42;
+    }
+
+    public static class Priced implements Codable {
+        public BigDecimal price    = new BigDecimal("9.99");
+        public int        trailing = 42;
+    }
+
+    public static class Money {
+        final long cents;
+
+        Money(long cents) {
+            this.cents = cents;
+        }
+    }
+
+    @Pluggable("binary-type-handlers-test")
+    public static class Animal implements Codable {
+        public String name = "animal";
+    }
+
+    public static class Cat extends Animal {
+        public int lives = 9;
+    }
+
+    public static class Zoo implements Codable {
+        public Cat          cat     = new Cat();
+        public List<Animal> animals = new ArrayList<>();
+    }
+
+    private static final CodecBin2 CODEC = CodecBin2.INSTANCE.withBuiltInHandlers()
+            // only reached through fields declared as Cat
+            .withTypeHandler(Cat.class, new BinaryTypeHandler<Cat>() {
+                @Override public void write(Cat value, OutputStream out) throws IOException {
+                    LessBytes.writeString(value.name, out);
+                }
+
+                @Override public Cat read(InputStream in) throws IOException {
+                    Cat cat = new Cat();
+                    cat.name = LessBytes.readString(in);
+                    cat.lives = 1;
+                    return cat;
+                }
+            })
+            .withTypeHandler(Money.class, new BinaryTypeHandler<Money>() {
+                @Override public void write(Money value, OutputStream out) throws IOException {
+                    LessBytes.writeLong(value.cents, out);
+                }
+
+                @Override public Money read(InputStream in) throws IOException {
+                    return new Money(LessBytes.readLong(in));
+                }
+            });
+
+    private static Values values() throws Exception {
+        Values values = new Values();
+        values.address = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+        values.prices.add(BigDecimal.ONE);
+        values.prices.add(null);
+        values.seen.put(new UUID(3, 4), Instant.EPOCH);
+        values.batches.add(new UUID[]{new UUID(5, 6), null});
+        return values;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Values values = values();
+        Values decoded = (Values) CODEC.decode(Values.class, CODEC.encode(values));
+        assertEquals(values.tiny, decoded.tiny);
+        assertEquals(values.letter, decoded.letter);
+        assertEquals(values.huge, decoded.huge);
+        assertEquals(values.money, decoded.money);
+        assertEquals(values.id, decoded.id);
+        assertEquals(values.when, decoded.when);
+        assertEquals(values.howLong, decoded.howLong);
+        assertEquals(values.bits, decoded.bits);
+        assertEquals(values.address, decoded.address);
+        assertArrayEquals(values.chars, decoded.chars);
+        assertEquals(values.prices, decoded.prices);
+        assertEquals(values.seen, decoded.seen);
+        assertArrayEquals(values.batches.get(0), decoded.batches.get(0));
+        assertEquals(250, decoded.custom.cents);
+        assertNull(decoded.missing);
+        assertEquals(42, decoded.trailing);
+    }
+
+    @Test
+    public void scannerAndParserSkipHandledValues() throws Exception {
+        byte[] encoded = CODEC.encode(values());
+        assertTrue(new Bin2Scanner<>(CODEC, Values.class, Bin2Predicate.equalTo("trailing", 42),
+                                     Bin2Predicate.isNull("missing")).matches(encoded));
+        String json = Bin2JsonTranscoder.toJson(CODEC, Values.class, encoded);
+        assertTrue(json, json.contains("\"money\":\"-12.345\""));
+        assertTrue(json, json.contains("\"tiny\":-7"));
+        assertTrue(json, json.contains("\"trailing\":42,"));
+    }
+
+    @Test
+    public void chosenByDeclaredType() throws Exception {
+        Zoo zoo = new Zoo();
+        zoo.cat.name = "tom";
+        Cat cat = new Cat();
+        cat.name = "felix";
+        zoo.animals.add(cat);
+        Zoo decoded = (Zoo) CODEC.decode(Zoo.class, CODEC.encode(zoo));
+        assertEquals("tom", decoded.cat.name);
+        assertEquals(1, decoded.cat.lives);
+        // declared as Animal, so written field by field even though Cat has a handler
+        Cat animal = (Cat) decoded.animals.get(0);
+        assertEquals("felix", animal.name);
+        assertEquals(9, animal.lives);
+    }
+
+    @Test
+    public void resolvesSupertypes() throws Exception {
+        BinaryTypeHandlers handlers = BinaryTypeHandlers.BUILT_INS;
+        assertEquals(handlers.forType(InetAddress.class),
+                     handlers.forType(InetAddress.getByAddress(new byte[4]).getClass()));
+        assertNull(handlers.forType(String.class));
+    }
+
+    @Test
+    public void scopedToTheCodec() throws Exception {
+        assertTrue(CodecBin2.INSTANCE.getTypeHandlers().isEmpty());
+        assertNull(CodecBin2.INSTANCE.getTypeHandlers().forType(BigDecimal.class));
+        assertSame(CodecBin2.INSTANCE, CODEC.withTypeHandlers(BinaryTypeHandlers.NONE));
+        // the same class is planned separately for each handler set
+        Priced priced = new Priced();
+        byte[] plain = CodecBin2.encodeBytes(priced);
+        assertFalse(Arrays.equals(plain, CODEC.encode(priced)));
+        Priced decoded = (Priced) CodecBin2.INSTANCE.decode(Priced.class, plain);
+        assertEquals(priced.price, decoded.price);
+        assertEquals(42, decoded.trailing);
+        decoded = (Priced) CODEC.decode(Priced.class, CODEC.encode(priced));
+        assertEquals(priced.price, decoded.price);
+        assertEquals(42, decoded.trailing);
+    }
+}
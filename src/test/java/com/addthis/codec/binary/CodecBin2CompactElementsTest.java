@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.math.BigDecimal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.addthis.codec.codables.Codable;
+import com.addthis.codec.codables.SuperCodable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodecBin2CompactElementsTest {
+
+    private static final CodecBin2 COMPACT =
+            // built-in handlers for the BigDecimal prices
+            CodecBin2.INSTANCE.withBuiltInHandlers().withOption(CodecBin2.Option.COMPACT_ELEMENTS, true);
+
+    public enum Color { RED, GREEN }
+
+    public static final class Point implements SuperCodable {
+        public int x;
+        public int y;
+        public transient boolean decoded;
+
+        public Point() {}
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override public void postDecode() {
+            decoded = true;
+        }
+
+        @Override public void preEncode() {}
+    }
+
+    public static class Shapes implements Codable {
+        public List<String>            names   = new ArrayList<>();
+        public Map<String, Long>       counts  = new TreeMap<>();
+        public HashSet<Color>          colors  = new HashSet<>();
+        public List<Point>             points  = new ArrayList<>();
+        public Map<Integer, BigDecimal> prices = new HashMap<>();
+        public List<int[]>             arrays  = new ArrayList<>();
+    }
+
+    private static Shapes shapes() {
+        Shapes shapes = new Shapes();
+        shapes.names.addAll(Arrays.asList("a", "b", "c"));
+        shapes.counts.put("x", 1L);
+        shapes.counts.put("y", -2L);
+        shapes.colors.add(Color.GREEN);
+        shapes.points.add(new Point(1, 2));
+        shapes.points.add(null);
+        shapes.prices.put(7, new BigDecimal("1.5"));
+        shapes.prices.put(8, null);
+        shapes.arrays.add(new int[]{1, 2});
+        return shapes;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Shapes shapes = shapes();
+        byte[] encoded = COMPACT.encode(shapes);
+        Shapes decoded = (Shapes) COMPACT.decode(Shapes.class, encoded);
+        assertEquals(shapes.names, decoded.names);
+        assertEquals(shapes.counts, decoded.counts);
+        assertEquals(shapes.colors, decoded.colors);
+        assertEquals(2, decoded.points.size());
+        assertEquals(2, decoded.points.get(0).y);
+        assertTrue(decoded.points.get(0).decoded);
+        assertNull(decoded.points.get(1));
+        assertEquals(shapes.prices, decoded.prices);
+        assertArrayEquals(shapes.arrays.get(0), decoded.arrays.get(0));
+        // the non-null final codable element drops its (empty) class name
+        Shapes points = new Shapes();
+        points.points.addAll(shapes.points);
+        assertEquals(CodecBin2.encodeBytes(points).length - 1, COMPACT.encode(points).length);
+    }
+
+    @Test
+    public void nullNativeElements() throws Exception {
+        Shapes shapes = new Shapes();
+        shapes.names.add(null);
+        try {
+            COMPACT.encode(shapes);
+            fail("null string elements can not be encoded compactly");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void options() {
+        assertTrue(COMPACT.hasOption(CodecBin2.Option.COMPACT_ELEMENTS));
+        assertFalse(CodecBin2.INSTANCE.hasOption(CodecBin2.Option.COMPACT_ELEMENTS));
+        assertSame(COMPACT, COMPACT.withOption(CodecBin2.Option.COMPACT_ELEMENTS, true));
+        assertSame(CodecBin2.INSTANCE, COMPACT.withOption(CodecBin2.Option.COMPACT_ELEMENTS, false)
+                                              .withTypeHandlers(BinaryTypeHandlers.NONE));
+        assertSame(BinaryTypeHandlers.BUILT_INS, COMPACT.getTypeHandlers());
+        CodecBin2 utf8 = COMPACT.withStringMode(CodecBin2.StringMode.UTF8);
+        assertTrue(utf8.hasOption(CodecBin2.Option.COMPACT_ELEMENTS));
+        assertSame(CodecBin2.StringMode.UTF8, utf8.getStringMode());
+    }
+}
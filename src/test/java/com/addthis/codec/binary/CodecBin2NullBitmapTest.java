@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CodecBin2NullBitmapTest {
+
+    private static final CodecBin2 BITMAP = CodecBin2.INSTANCE.withOption(CodecBin2.Option.NULL_BITMAP, true);
+
+    public static class Small implements Codable {
+        public int     a;
+        public long    b;
+        public boolean c;
+        public double  d;
+    }
+
+    public static class Mixed implements Codable {
+        public int         count;
+        public String      name;
+        public Integer     boxed;
+        public long[]      longs;
+        public Small       small;
+        public List<Small> smalls = new ArrayList<>();
+        public String      s1;
+        public String      s2;
+        public String      s3;
+        public String      s4;
+        public String      s5;
+        public String      s6;
+        public String      s7 = "seven";
+        public boolean     flag;
+    }
+
+    @Test
+    public void primitivesHaveNoMarkers() throws Exception {
+        Small small = new Small();
+        small.a = 1;
+        small.b = 2;
+        small.c = true;
+        small.d = 0.5;
+        byte[] encoded = BITMAP.encode(small);
+        // the default format has a byte per field, and there is nothing to put in the bitmap
+        assertEquals(CodecBin2.encodeBytes(small).length - 4, encoded.length);
+        Small decoded = (Small) BITMAP.decode(Small.class, encoded);
+        assertEquals(1, decoded.a);
+        assertEquals(2, decoded.b);
+        assertEquals(true, decoded.c);
+        assertEquals(0.5, decoded.d, 0);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Mixed mixed = new Mixed();
+        mixed.count = 3;
+        mixed.name = "name";
+        mixed.longs = new long[]{4, 5};
+        mixed.small = new Small();
+        mixed.small.a = 6;
+        mixed.smalls.add(new Small());
+        mixed.flag = true;
+        for (CodecBin2 codec : new CodecBin2[]{BITMAP,
+                                               BITMAP.withOption(CodecBin2.Option.COMPACT_ELEMENTS, true)}) {
+            byte[] encoded = codec.encode(mixed);
+            // 2 bitmap bytes for the 12 nullable fields instead of 14 presence bytes, and 4 fewer for each Small
+            assertEquals(CodecBin2.encodeBytes(mixed).length - 20, encoded.length);
+            Mixed decoded = (Mixed) codec.decode(Mixed.class, encoded);
+            assertEquals(3, decoded.count);
+            assertEquals("name", decoded.name);
+            assertNull(decoded.boxed);
+            assertArrayEquals(mixed.longs, decoded.longs);
+            assertEquals(6, decoded.small.a);
+            assertEquals(1, decoded.smalls.size());
+            assertNull(decoded.s6);
+            assertEquals("seven", decoded.s7);
+            assertEquals(true, decoded.flag);
+        }
+    }
+}
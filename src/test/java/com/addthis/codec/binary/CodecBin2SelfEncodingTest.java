@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.codec.annotations.Pluggable;
+import com.addthis.codec.codables.ByteBufCodable;
+import com.addthis.codec.codables.BytesCodable;
+import com.addthis.codec.codables.Codable;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodecBin2SelfEncodingTest {
+
+    private static final CodecBin2 CODEC = CodecBin2.INSTANCE.withOption(CodecBin2.Option.SELF_ENCODING, true);
+
+    public static class Point implements ByteBufCodable {
+        // would be encoded if the fields were reflected over
+        public int x;
+        public int y;
+        public String ignored = "ignored";
+
+        @Override public void writeBytes(ByteBuf buf) {
+            buf.writeShort(x);
+            buf.writeShort(y);
+        }
+
+        @Override public void readBytes(ByteBuf buf) {
+            x = buf.readShort();
+            y = buf.readShort();
+            ignored = null;
+        }
+    }
+
+    public static class Tag implements BytesCodable {
+        public String name;
+
+        @Override public byte[] bytesEncode(long version) {
+            return name.getBytes();
+        }
+
+        @Override public void bytesDecode(byte[] b, long version) {
+            name = new String(b);
+        }
+    }
+
+    /** Writes more than fits in the output's initial array. */
+    public static class Blob implements ByteBufCodable {
+        public byte[] data;
+
+        @Override public void writeBytes(ByteBuf buf) {
+            buf.writeBytes(data);
+        }
+
+        @Override public void readBytes(ByteBuf buf) {
+            data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+        }
+    }
+
+    public static class Blobs implements Codable {
+        public Blob first;
+        public Blob second;
+        public int  after;
+    }
+
+    public static class Shape implements Codable {
+        public Point       origin;
+        public List<Point> points = new ArrayList<>();
+        public Tag         tag;
+        public int         sides;
+    }
+
+    @Pluggable("bin2-self-encoding-test")
+    public static class Mark implements Codable {
+        public int weight = 1;
+    }
+
+    /** Only the subclass encodes itself, so readers have to look past the declared type. */
+    public static class Label extends Mark implements BytesCodable {
+        public String text;
+
+        @Override public byte[] bytesEncode(long version) {
+            return text.getBytes();
+        }
+
+        @Override public void bytesDecode(byte[] b, long version) {
+            text = new String(b);
+        }
+    }
+
+    public static class Sketch implements Codable {
+        public List<Mark> marks = new ArrayList<>();
+        public int        strokes;
+    }
+
+    private static Shape shape() {
+        Shape shape = new Shape();
+        shape.origin = new Point();
+        shape.origin.x = 1;
+        shape.origin.y = -1;
+        for (int i = 0; i < 3; i++) {
+            Point point = new Point();
+            point.x = i;
+            shape.points.add(point);
+        }
+        shape.tag = new Tag();
+        shape.tag.name = "triangle";
+        shape.sides = 3;
+        return shape;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] encoded = CODEC.encode(shape());
+        Shape decoded = (Shape) CODEC.decode(Shape.class, encoded);
+        assertEquals(1, decoded.origin.x);
+        assertEquals(-1, decoded.origin.y);
+        assertEquals(null, decoded.origin.ignored);
+        assertEquals(3, decoded.points.size());
+        assertEquals(2, decoded.points.get(2).x);
+        assertEquals("triangle", decoded.tag.name);
+        assertEquals(3, decoded.sides);
+    }
+
+    @Test
+    public void fieldsWithoutOption() throws Exception {
+        byte[] encoded = CodecBin2.encodeBytes(shape());
+        Shape decoded = (Shape) CodecBin2.INSTANCE.decode(Shape.class, encoded);
+        assertEquals("ignored", decoded.origin.ignored);
+        assertEquals(-1, decoded.origin.y);
+        assertEquals("triangle", decoded.tag.name);
+        String json = Bin2JsonTranscoder.toJson(Shape.class, encoded);
+        assertTrue(json, json.startsWith("{\"origin\":{\"ignored\":\"ignored\",\"x\":1,\"y\":-1},"));
+    }
+
+    @Test
+    public void largeOutput() throws Exception {
+        Blobs blobs = new Blobs();
+        blobs.first = new Blob();
+        blobs.first.data = new byte[300];
+        blobs.first.data[299] = 7;
+        blobs.second = new Blob();
+        blobs.second.data = new byte[]{1, 2};
+        blobs.after = 5;
+        Blobs decoded = (Blobs) CODEC.decode(Blobs.class, CODEC.encode(blobs));
+        assertArrayEquals(blobs.first.data, decoded.first.data);
+        assertArrayEquals(blobs.second.data, decoded.second.data);
+        assertEquals(5, decoded.after);
+    }
+
+    @Test
+    public void skipped() throws Exception {
+        byte[] encoded = CODEC.encode(shape());
+        assertTrue(new Bin2Scanner<>(CODEC, Shape.class, Bin2Predicate.equalTo("sides", 3)).matches(encoded));
+        // self encoded objects are reported as their raw bytes
+        assertEquals("{\"origin\":\"AAH//w==\",\"points\":[\"AAAAAA==\",\"AAEAAA==\",\"AAIAAA==\"],"
+                     + "\"sides\":3,\"tag\":\"dHJpYW5nbGU=\"}",
+                     Bin2JsonTranscoder.toJson(CODEC, Shape.class, encoded));
+    }
+
+    @Test
+    public void pluggableSubclass() throws Exception {
+        Sketch sketch = new Sketch();
+        sketch.marks.add(new Mark());
+        Label label = new Label();
+        label.text = "hi";
+        sketch.marks.add(label);
+        sketch.strokes = 2;
+        byte[] encoded = CODEC.encode(sketch);
+        Sketch decoded = (Sketch) CODEC.decode(Sketch.class, encoded);
+        assertEquals(1, decoded.marks.get(0).weight);
+        assertEquals("hi", ((Label) decoded.marks.get(1)).text);
+        assertTrue(new Bin2Scanner<>(CODEC, Sketch.class, Bin2Predicate.equalTo("strokes", 2)).matches(encoded));
+        assertEquals("{\"marks\":[{\"weight\":1},\"aGk=\"],\"strokes\":2}",
+                     Bin2JsonTranscoder.toJson(CODEC, Sketch.class, encoded));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CodecBin2StringModeTest {
+
+    public enum Mood { HAPPY, SAD }
+
+    public static class Strings implements Codable {
+        public String       value;
+        public List<String> values = new ArrayList<>();
+        public Mood         mood   = Mood.SAD;
+    }
+
+    private static final String[] SAMPLES = {
+            "", "plain ascii", "caf\u00e9", "\u65e5\u672c\u8a9e", "emoji \ud83d\ude00 pair",
+            "lone \ud83d high", "lone \ude00 low", "trailing \ud83d", "mixed a\u00e9\u65e5\ud83d\ude00z"
+    };
+
+    private static Strings sample(String value) {
+        Strings strings = new Strings();
+        strings.value = value;
+        strings.values.addAll(Arrays.asList(SAMPLES));
+        return strings;
+    }
+
+    @Test
+    public void utf8MatchesLessBytes() throws Exception {
+        CodecBin2 utf8 = CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.UTF8);
+        for (String value : SAMPLES) {
+            byte[] expected = CodecBin2.INSTANCE.encode(sample(value));
+            byte[] actual = utf8.encode(sample(value));
+            assertArrayEquals(value, expected, actual);
+            Strings decoded = (Strings) utf8.decode(Strings.class, expected);
+            assertEquals(new String(value.getBytes("UTF-8"), "UTF-8"), decoded.value);
+            assertEquals(Mood.SAD, decoded.mood);
+        }
+    }
+
+    @Test
+    public void largeString() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append("x\u00e9\u65e5");
+        }
+        CodecBin2 utf8 = CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.UTF8);
+        byte[] encoded = utf8.encode(sample(builder.toString()));
+        assertArrayEquals(CodecBin2.INSTANCE.encode(sample(builder.toString())), encoded);
+        assertEquals(builder.toString(), ((Strings) utf8.decode(Strings.class, encoded)).value);
+    }
+
+    @Test
+    public void charStrings() throws Exception {
+        CodecBin2 chars = CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.CHAR_STRING);
+        assertSame(CodecBin2.StringMode.CHAR_STRING, chars.getStringMode());
+        byte[] encoded = chars.encode(sample("caf\u00e9"));
+        Strings decoded = (Strings) chars.decode(Strings.class, encoded);
+        assertEquals("caf\u00e9", decoded.value);
+        assertEquals(Arrays.asList(SAMPLES), decoded.values);
+    }
+
+    @Test
+    public void modesAreCached() {
+        assertSame(CodecBin2.INSTANCE, CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.LESS_BYTES));
+        CodecBin2 utf8 = CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.UTF8);
+        assertSame(utf8, utf8.withStringMode(CodecBin2.StringMode.UTF8));
+    }
+}
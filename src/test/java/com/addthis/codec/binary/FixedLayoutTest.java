@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FixedLayoutTest {
+
+    public static class Sample implements Codable {
+        public boolean valid;
+        public byte    kind;
+        public char    code;
+        public short   port;
+        public int     count;
+        public float   ratio;
+        public long    time;
+        public double  value;
+    }
+
+    public static class Named implements Codable {
+        public int    count;
+        public String name;
+    }
+
+    public static class Boxed implements Codable {
+        public Integer count;
+    }
+
+    private static Sample sample(int i) {
+        Sample sample = new Sample();
+        sample.valid = (i % 2) == 0;
+        sample.kind = (byte) -i;
+        sample.code = (char) ('a' + i);
+        sample.port = (short) (i * 1000);
+        sample.count = i * i;
+        sample.ratio = i / 4f;
+        sample.time = Long.MAX_VALUE - i;
+        sample.value = -i * 1.5;
+        return sample;
+    }
+
+    @Test
+    public void layout() {
+        FixedLayout<Sample> layout = FixedLayout.of(Sample.class);
+        assertSame(layout, FixedLayout.of(Sample.class));
+        // 8 + 8 + 4 + 4 + 2 + 2 + 1 + 1 = 30, padded to the 8 byte alignment
+        assertEquals(32, layout.size());
+        assertEquals(0, layout.offset("time"));
+        assertEquals(8, layout.offset("value"));
+        assertEquals(16, layout.offset("count"));
+        assertEquals(20, layout.offset("ratio"));
+        assertEquals(24, layout.offset("code"));
+        assertEquals(26, layout.offset("port"));
+        assertEquals(28, layout.offset("kind"));
+        assertEquals(29, layout.offset("valid"));
+    }
+
+    @Test
+    public void supports() {
+        assertTrue(FixedLayout.supports(Sample.class));
+        assertFalse(FixedLayout.supports(Named.class));
+        assertFalse(FixedLayout.supports(Boxed.class));
+        assertFalse(FixedLayout.supports(String.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsVariableWidth() {
+        FixedLayout.of(Named.class);
+    }
+
+    @Test
+    public void randomAccess() throws Exception {
+        FixedLayout<Sample> layout = FixedLayout.of(Sample.class);
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(layout.size() * 10).order(order);
+            for (int i = 9; i >= 0; i--) {
+                layout.write(sample(i), buf, i);
+            }
+            assertEquals(0, buf.position());
+            assertEquals(10, layout.count(buf));
+            assertEquals(7 * 7, buf.getInt((7 * layout.size()) + layout.offset("count")));
+            Sample reused = new Sample();
+            for (int i = 0; i < 10; i++) {
+                Sample expected = sample(i);
+                Sample actual = layout.read(buf, i, reused);
+                assertEquals(expected.valid, actual.valid);
+                assertEquals(expected.kind, actual.kind);
+                assertEquals(expected.code, actual.code);
+                assertEquals(expected.port, actual.port);
+                assertEquals(expected.count, actual.count);
+                assertEquals(expected.ratio, actual.ratio, 0f);
+                assertEquals(expected.time, actual.time);
+                assertEquals(expected.value, actual.value, 0d);
+            }
+            assertEquals(Long.MAX_VALUE - 3, layout.read(buf, 3).time);
+        }
+    }
+}
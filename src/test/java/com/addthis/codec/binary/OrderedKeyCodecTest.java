@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.addthis.codec.codables.Codable;
+
+import com.google.common.collect.Ordering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OrderedKeyCodecTest {
+
+    public enum Color { RED, GREEN, BLUE }
+
+    public static class Row implements Codable {
+        public int     shard;
+        public long    time;
+        public double  score;
+        public String  name;
+        public Color   color;
+        public Integer count;
+        public float   ignored;
+    }
+
+    private static final OrderedKeyCodec<Row> CODEC = OrderedKeyCodec.builder(Row.class)
+                                                                     .ascending("shard")
+                                                                     .descending("time")
+                                                                     .ascending("name")
+                                                                     .ascending("score")
+                                                                     .descending("color")
+                                                                     .ascending("count")
+                                                                     .build();
+
+    private static final Comparator<Row> NATURAL = new Comparator<Row>() {
+        @Override public int compare(Row a, Row b) {
+            int result = Integer.compare(a.shard, b.shard);
+            if (result == 0) {
+                result = Long.compare(b.time, a.time);
+            }
+            if (result == 0) {
+                result = Ordering.natural().nullsFirst().compare(a.name, b.name);
+            }
+            if (result == 0) {
+                result = Double.compare(a.score, b.score);
+            }
+            if (result == 0) {
+                result = Ordering.natural().nullsFirst().reverse().compare(a.color, b.color);
+            }
+            if (result == 0) {
+                result = Ordering.natural().nullsFirst().compare(a.count, b.count);
+            }
+            return result;
+        }
+    };
+
+    private static final int[]    INTS    = {Integer.MIN_VALUE, -100, -1, 0, 1, 100, Integer.MAX_VALUE};
+    private static final long[]   LONGS   = {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE};
+    private static final double[] DOUBLES = {Double.NEGATIVE_INFINITY, -1.5, -Double.MIN_VALUE, -0.0, 0.0,
+                                             Double.MIN_VALUE, 2.25, Double.POSITIVE_INFINITY};
+    private static final String[] STRINGS = {null, "", "\u0000", "\u0000a", "a", "a\u0000", "a\u0000\u0000",
+                                             "ab", "b", "\u00e9", "\u4e2d"};
+
+    private static Row randomRow(Random random) {
+        Row row = new Row();
+        row.shard = INTS[random.nextInt(INTS.length)];
+        row.time = LONGS[random.nextInt(LONGS.length)];
+        row.score = DOUBLES[random.nextInt(DOUBLES.length)];
+        row.name = STRINGS[random.nextInt(STRINGS.length)];
+        int color = random.nextInt(Color.values().length + 1);
+        row.color = (color == 0) ? null : Color.values()[color - 1];
+        int count = random.nextInt(INTS.length + 1);
+        row.count = (count == 0) ? null : INTS[count - 1];
+        row.ignored = random.nextFloat();
+        return row;
+    }
+
+    @Test
+    public void byteOrderMatchesFieldOrder() throws Exception {
+        Random random = new Random(38);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            rows.add(randomRow(random));
+        }
+        for (int i = 0; i < rows.size(); i += 2) {
+            Row a = rows.get(i);
+            Row b = rows.get(i + 1);
+            assertEquals(Integer.signum(NATURAL.compare(a, b)),
+                         Integer.signum(OrderedKeyCodec.comparator().compare(CODEC.encode(a), CODEC.encode(b))));
+        }
+        List<byte[]> keys = new ArrayList<>();
+        for (Row row : rows) {
+            keys.add(CODEC.encode(row));
+        }
+        Collections.sort(rows, NATURAL);
+        Collections.sort(keys, OrderedKeyCodec.comparator());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(0, NATURAL.compare(rows.get(i), CODEC.decode(keys.get(i))));
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Row row = new Row();
+        row.shard = -3;
+        row.time = 1234567890123L;
+        row.score = -0.0;
+        row.name = "a\u0000b\u00e9";
+        row.color = Color.GREEN;
+        row.ignored = 1.5f;
+        Row decoded = CODEC.decode(CODEC.encode(row));
+        assertEquals(-3, decoded.shard);
+        assertEquals(1234567890123L, decoded.time);
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(decoded.score));
+        assertEquals("a\u0000b\u00e9", decoded.name);
+        assertEquals(Color.GREEN, decoded.color);
+        assertNull(decoded.count);
+        assertEquals(0f, decoded.ignored, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownField() {
+        OrderedKeyCodec.builder(Row.class).ascending("missing");
+    }
+}
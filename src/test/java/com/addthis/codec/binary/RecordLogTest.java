@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecordLogTest {
+
+    public static class Event implements Codable {
+        public int    id;
+        public String name;
+
+        public Event() {}
+
+        Event(int id) {
+            this.id = id;
+            this.name = "event-" + id;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(int count) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("events.log");
+        try (RecordLogWriter writer = new RecordLogWriter(path, CodecBin2.INSTANCE, 4, 3, false)) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, writer.append(new Event(i)));
+            }
+        }
+        return path;
+    }
+
+    @Test
+    public void randomAccess() throws Exception {
+        Path path = write(50);
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(50, reader.size());
+            for (int i : new int[]{0, 1, 3, 4, 5, 31, 49}) {
+                Event event = reader.get(i, Event.class);
+                assertEquals(i, event.id);
+                assertEquals("event-" + i, event.name);
+            }
+        }
+    }
+
+    @Test
+    public void iterate() throws Exception {
+        Path path = write(10);
+        int next = 0;
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            for (byte[] record : reader) {
+                assertEquals(next++, ((Event) CodecBin2.INSTANCE.decode(Event.class, record)).id);
+            }
+        }
+        assertEquals(10, next);
+    }
+
+    @Test
+    public void reopenAndAppend() throws Exception {
+        Path path = write(10);
+        try (RecordLogWriter writer = new RecordLogWriter(path)) {
+            assertEquals(10, writer.size());
+            assertEquals(10, writer.append(new Event(10)));
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(11, reader.size());
+            assertEquals(9, reader.get(9, Event.class).id);
+            assertEquals(10, reader.get(10, Event.class).id);
+        }
+    }
+
+    @Test
+    public void tornTail() throws Exception {
+        Path path = write(10);
+        long size = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2);
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(9, reader.size());
+        }
+        try (RecordLogWriter writer = new RecordLogWriter(path)) {
+            assertEquals(9, writer.size());
+            writer.append(new Event(9));
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(10, reader.size());
+            assertEquals(9, reader.get(9, Event.class).id);
+        }
+    }
+
+    @Test
+    public void negativeLength() throws Exception {
+        Path path = write(10);
+        long offset;
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            offset = reader.offsetOf(9);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // a length of -4 would point the next record back at this one
+            channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(-RecordLog.RECORD_HEADER_SIZE).flip(), offset);
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(9, reader.size());
+        }
+        try (RecordLogWriter writer = new RecordLogWriter(path)) {
+            assertEquals(9, writer.size());
+            writer.append(new Event(9));
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(10, reader.size());
+            assertEquals(9, reader.get(9, Event.class).id);
+        }
+    }
+
+    @Test
+    public void missingIndex() throws Exception {
+        Path path = write(20);
+        Files.delete(RecordLog.indexPath(path));
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(20, reader.size());
+            assertEquals(17, reader.get(17, Event.class).id);
+        }
+        try (RecordLogWriter writer = new RecordLogWriter(path)) {
+            assertEquals(20, writer.size());
+        }
+        assertEquals(RecordLog.INDEX_HEADER_SIZE + (20 / RecordLog.DEFAULT_INDEX_INTERVAL + 1) * 8,
+                     Files.size(RecordLog.indexPath(path)));
+    }
+
+    @Test
+    public void corruptIndexInterval() throws Exception {
+        Path path = write(20);
+        try (FileChannel channel = FileChannel.open(RecordLog.indexPath(path), StandardOpenOption.WRITE)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(0).flip(), 0);
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(20, reader.size());
+            assertEquals(17, reader.get(17, Event.class).id);
+        }
+        try (RecordLogWriter writer = new RecordLogWriter(path, CodecBin2.INSTANCE, 4, 3, false)) {
+            assertEquals(20, writer.size());
+            writer.append(new Event(20));
+        }
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            assertEquals(21, reader.size());
+            assertEquals(20, reader.get(20, Event.class).id);
+        }
+        assertEquals(RecordLog.INDEX_HEADER_SIZE + (21 / 4 + 1) * 8, Files.size(RecordLog.indexPath(path)));
+    }
+
+        @Test(expected = IndexOutOfBoundsException.class)
+    public void outOfRange() throws Exception {
+        Path path = write(3);
+        try (RecordLogReader reader = new RecordLogReader(path)) {
+            reader.get(3);
+        }
+    }
+}
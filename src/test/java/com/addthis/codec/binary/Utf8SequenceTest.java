@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.binary;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Utf8SequenceTest {
+
+    public static class Lazy implements Codable {
+        public CharSequence country;
+        public CharSequence city;
+        public CharSequence missing;
+        public int          count;
+    }
+
+    public static class Eager implements Codable {
+        public String country;
+        public String city;
+        public String missing;
+        public int    count;
+    }
+
+    private static Lazy lazy() {
+        Lazy lazy = new Lazy();
+        lazy.country = "US";
+        lazy.city = "Z\u00fcrich";
+        lazy.count = 3;
+        return lazy;
+    }
+
+    @Test
+    public void decodesViews() throws Exception {
+        byte[] encoded = CodecBin2.encodeBytes(lazy());
+        Lazy decoded = (Lazy) CodecBin2.INSTANCE.decode(Lazy.class, encoded);
+        assertTrue(decoded.country instanceof Utf8Sequence);
+        Utf8Sequence city = (Utf8Sequence) decoded.city;
+        assertFalse(city.isInflated());
+        assertEquals(2, decoded.country.length());
+        assertEquals('S', decoded.country.charAt(1));
+        assertEquals("Z\u00fcrich", city.toString());
+        assertEquals(6, city.length());
+        assertEquals("Z\u00fcrich".hashCode(), city.hashCode());
+        assertEquals("US".hashCode(), decoded.country.hashCode());
+        assertNull(decoded.missing);
+        assertEquals(3, decoded.count);
+    }
+
+    @Test
+    public void sameBytesAsStrings() throws Exception {
+        Eager eager = new Eager();
+        eager.country = "US";
+        eager.city = "Z\u00fcrich";
+        eager.count = 3;
+        byte[] encoded = CodecBin2.encodeBytes(lazy());
+        assertArrayEquals(CodecBin2.encodeBytes(eager), encoded);
+        // views are written back out without decoding
+        Lazy decoded = (Lazy) CodecBin2.INSTANCE.decode(Lazy.class, encoded);
+        assertArrayEquals(encoded, CodecBin2.encodeBytes(decoded));
+        assertFalse(((Utf8Sequence) decoded.city).isInflated());
+    }
+
+    @Test
+    public void charStringMode() throws Exception {
+        CodecBin2 chars = CodecBin2.INSTANCE.withStringMode(CodecBin2.StringMode.CHAR_STRING);
+        Lazy decoded = (Lazy) chars.decode(Lazy.class, chars.encode(lazy()));
+        assertEquals("Z\u00fcrich", decoded.city);
+    }
+
+    @Test
+    public void scanAndParse() throws Exception {
+        byte[] encoded = CodecBin2.encodeBytes(lazy());
+        assertTrue(new Bin2Scanner<>(Lazy.class, Bin2Predicate.equalTo("city", "Z\u00fcrich")).matches(encoded));
+        assertFalse(new Bin2Scanner<>(Lazy.class, Bin2Predicate.equalTo("country", "FR")).matches(encoded));
+        assertEquals("{\"city\":\"Z\u00fcrich\",\"count\":3,\"country\":\"US\",\"missing\":null}",
+                     Bin2JsonTranscoder.toJson(Lazy.class, encoded));
+    }
+
+    @Test
+    public void views() {
+        Utf8Sequence sequence = Utf8Sequence.of("hello world");
+        assertEquals(Utf8Sequence.of("world"), sequence.subSequence(6, 11));
+        assertTrue(Utf8Sequence.of("a").compareTo(Utf8Sequence.of("\u00e9")) < 0);
+        assertArrayEquals("hello world".getBytes(), sequence.toUtf8Bytes());
+    }
+}
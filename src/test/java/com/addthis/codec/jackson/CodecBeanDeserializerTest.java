@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.jackson;
+
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.codec.annotations.Bytes;
+import com.addthis.codec.annotations.Time;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodecBeanDeserializerTest {
+
+    public static class Bean {
+        @JsonProperty public int                   fallback;
+        @JsonProperty public String                kept = "initial";
+        @JsonProperty public String                cleared;
+        @JsonProperty(required = true) public long needed;
+        @Time(TimeUnit.SECONDS) @JsonProperty public long timeout;
+        @Bytes @JsonProperty public int            size;
+        @Time(TimeUnit.MILLISECONDS) @JsonProperty public long defaultTimeout;
+    }
+
+    private static final CodecJackson CODEC = Jackson.defaultCodec().withOverrides(ConfigFactory.parseString(
+            "com.addthis.codec.jackson.CodecBeanDeserializerTest.Bean { fallback = 5, defaultTimeout = 2 seconds }"));
+
+    private static Bean read(String json) throws Exception {
+        ObjectMapper objectMapper = CODEC.getObjectMapper();
+        return objectMapper.readValue(json, Bean.class);
+    }
+
+    @Test
+    public void defaultsAndUnits() throws Exception {
+        Bean bean = read("{\"needed\": 1, \"timeout\": \"2 minutes\", \"size\": \"1KB\", \"kept\": null,"
+                         + " \"cleared\": \"x\", \"_ignored\": {\"a\": [1, 2]}}");
+        assertEquals(5, bean.fallback);
+        assertEquals("initial", bean.kept);
+        assertEquals("x", bean.cleared);
+        assertEquals(1, bean.needed);
+        assertEquals(120, bean.timeout);
+        assertEquals(1024, bean.size);
+        assertEquals(2000, bean.defaultTimeout);
+    }
+
+    @Test
+    public void explicitValuesWin() throws Exception {
+        Bean bean = read("{\"fallback\": 7, \"needed\": 2, \"timeout\": 30, \"defaultTimeout\": null}");
+        assertEquals(7, bean.fallback);
+        assertEquals(30, bean.timeout);
+        // null counts as missing, so the default still applies
+        assertEquals(2000, bean.defaultTimeout);
+        assertNull(bean.cleared);
+    }
+
+    @Test
+    public void sameAsConfig() throws Exception {
+        Bean bean = CODEC.decodeObject(Bean.class, "needed = 3, timeout = 1 hour, size = 2KB");
+        assertEquals(5, bean.fallback);
+        assertEquals(3600, bean.timeout);
+        assertEquals(2048, bean.size);
+    }
+
+    @Test
+    public void missingRequired() throws Exception {
+        try {
+            read("{\"fallback\": 7}");
+            fail("expected a missing property exception");
+        } catch (MissingPropertyException expected) {
+            assertEquals("needed", expected.getPropertyName());
+        }
+    }
+
+    @Test
+    public void duplicateProperty() throws Exception {
+        try {
+            read("{\"needed\": 1, \"needed\": 2}");
+            fail("expected a duplicate property exception");
+        } catch (JsonMappingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Duplicate field 'needed'"));
+        }
+    }
+
+    @Test
+    public void unknownProperty() throws Exception {
+        try {
+            read("{\"needed\": 1, \"unknown\": 2}");
+            fail("expected an unrecognized property exception");
+        } catch (JsonMappingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("unknown"));
+        }
+    }
+}
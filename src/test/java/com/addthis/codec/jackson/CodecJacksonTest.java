@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.jackson;
+
+import java.lang.reflect.Field;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.addthis.codec.plugins.SimpleGreet;
+
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.deser.DeserializerCache;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CodecJacksonTest {
+
+    @Test
+    public void warmsEveryCategory() throws Exception {
+        // a codec with its own object mapper, which nothing else has used yet
+        CodecJackson codec = Jackson.defaultCodec().withOverrides(ConfigFactory.parseString("warm-up-test = true"));
+        JavaType simple = codec.getObjectMapper().constructType(SimpleGreet.class);
+        assertFalse(cachedDeserializers(codec).containsKey(simple));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, Long> timings = codec.warmUp(executor).get();
+            assertEquals(codec.getPluginRegistry().byCategory().keySet(), timings.keySet());
+            assertTrue(timings.containsKey("letter"));
+            assertTrue(timings.containsKey("empty"));
+            for (long elapsed : timings.values()) {
+                assertTrue(elapsed >= 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cachedDeserializers(codec).containsKey(simple));
+    }
+
+    /** Jackson has no public view of the deserializers an object mapper has cached. */
+    @SuppressWarnings("unchecked")
+    private static Map<JavaType, ?> cachedDeserializers(CodecJackson codec) throws Exception {
+        Field cacheField = DeserializationContext.class.getDeclaredField("_cache");
+        cacheField.setAccessible(true);
+        Object cache = cacheField.get(codec.getObjectMapper().getDeserializationContext());
+        Field cachedField = DeserializerCache.class.getDeclaredField("_cachedDeserializers");
+        cachedField.setAccessible(true);
+        return (Map<JavaType, ?>) cachedField.get(cache);
+    }
+
+    @Test
+    public void derivedCodecsAreCached() {
+        CodecJackson codec = Jackson.defaultCodec();
+        CodecJackson derived = codec.withOverrides(ConfigFactory.parseString("some.tenant.setting = 1"));
+        assertSame(derived, codec.withOverrides(ConfigFactory.parseString("some.tenant.setting = 1")));
+        assertNotSame(derived, codec.withOverrides(ConfigFactory.parseString("some.tenant.setting = 2")));
+        // plugin definitions were left alone, so the plugin maps are shared
+        assertSame(codec.getPluginRegistry().byCategory(), derived.getPluginRegistry().byCategory());
+
+        Config config = ConfigFactory.parseString("other.setting = true").withFallback(ConfigFactory.load());
+        CodecJackson configured = codec.withConfig(config);
+        assertSame(configured, codec.withConfig(ConfigFactory.parseString("other.setting = true")
+                                                            .withFallback(ConfigFactory.load())));
+        assertNotSame(codec.getObjectMapper(), configured.getObjectMapper());
+    }
+}
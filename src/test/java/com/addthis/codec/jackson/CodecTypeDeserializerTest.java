@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.jackson;
+
+import java.util.List;
+
+import com.addthis.codec.plugins.Greeter;
+import com.addthis.codec.plugins.PluginRegistry;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodecTypeDeserializerTest {
+
+    // not the default mapper, since other tests change its settings
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper(PluginRegistry.defaultRegistry());
+
+    private static final ObjectMapper STRICT = Jackson.newObjectMapper(PluginRegistry.defaultRegistry())
+                                                      .enable(DeserializationFeature.FAIL_ON_READING_DUP_TREE_KEY);
+
+    private static List<Greeter> read(String json) throws Exception {
+        return MAPPER.readValue(json, new TypeReference<List<Greeter>>() {});
+    }
+
+    @Test
+    public void leadingTypeProperty() throws Exception {
+        List<Greeter> greeters = read("[{\"type\": \"simple\", \"suffix\": \"!\"}, {\"type\": \"simple\"},"
+                                      + " {\"suffix\": \"?\", \"type\": \"simple\"}, {\"type\": \"simpler\"},"
+                                      + " {\"type\": \"simple\", \"_note\": [1, {\"a\": null}], \"suffix\": \".\"}]");
+        assertEquals("Hello World!", greeters.get(0).greet());
+        assertEquals("Hello World! What a pleasant default suffix we are having!", greeters.get(1).greet());
+        assertEquals("Hello World?", greeters.get(2).greet());
+        assertEquals("Hello World even simpler", greeters.get(3).greet());
+        assertEquals("Hello World.", greeters.get(4).greet());
+    }
+
+    @Test
+    public void leadingTypePropertyWithAliasDefaults() throws Exception {
+        List<Greeter> greeters = read("[{\"type\": \"simpler\"}, {\"type\": \"simpler\", \"suffix\": \"!\"},"
+                                      + " {\"type\": \"simplerer\"}, {\"type\": \"simpler\", \"suffix\": null}]");
+        assertEquals("Hello World even simpler", greeters.get(0).greet());
+        assertEquals("Hello World!", greeters.get(1).greet());
+        assertEquals("Hello World even simpler", greeters.get(2).greet());
+        // explicit nulls are not replaced by alias defaults, same as when merging trees
+        assertEquals("Hello World! What a pleasant default suffix we are having!", greeters.get(3).greet());
+        // a streamed duplicate names the bean, where one in a tree names ObjectNode
+        try {
+            STRICT.readValue("{\"type\": \"simpler\", \"suffix\": \"a\", \"suffix\": \"b\"}", Greeter.class);
+            fail("expected a duplicate field exception");
+        } catch (JsonMappingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("SimpleGreet"));
+        }
+    }
+
+    @Test
+    public void treeDuplicates() throws Exception {
+        // the type is not first, so this object is read as a tree
+        Greeter greeter = STRICT.readValue("{\"suffix\": \"!\", \"type\": \"simple\"}", Greeter.class);
+        assertEquals("Hello World!", greeter.greet());
+        try {
+            STRICT.readValue("{\"suffix\": \"a\", \"type\": \"simple\", \"suffix\": \"b\"}", Greeter.class);
+            fail("expected a duplicate field exception");
+        } catch (JsonMappingException expected) {
+            String message = expected.getMessage();
+            assertTrue(message, message.contains("Duplicate field 'suffix' for ObjectNode"));
+        }
+    }
+
+    @Test
+    public void aliasDefaultsAreNotShared() throws Exception {
+        List<Greeter> greeters = read("[{\"type\": \"multi-array-primary\", \"prefix\": \"a\","
+                                      + " \"parts\": [\"x\"]}, {\"multi-array-primary\": [\"y\", \"z\"]},"
+                                      + " {\"type\": \"multi-array-primary\"}]");
+        assertEquals("a: [x]", greeters.get(0).greet());
+        assertEquals("listing parts: [y, z]", greeters.get(1).greet());
+        assertEquals("listing parts: ", greeters.get(2).greet());
+    }
+
+    @Test
+    public void leadingTypePropertyErrors() throws Exception {
+        try {
+            read("[{\"type\": \"simple\", \"bogus\": 1}]");
+            fail("expected an unrecognized property exception");
+        } catch (JsonMappingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("bogus"));
+        }
+        try {
+            read("[{\"type\": \"not-a-greeter\", \"suffix\": \"!\"}]");
+            fail("expected an unknown type exception");
+        } catch (JsonMappingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("not-a-greeter"));
+        }
+    }
+}
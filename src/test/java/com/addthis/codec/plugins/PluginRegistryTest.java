@@ -102,4 +102,35 @@ public class PluginRegistryTest {
         thrown.expectCause(isA(ClassNotFoundException.class));
         PluginRegistry shouldThrowClassNotFoundException = new PluginRegistry(testPluginConfig);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void lazyCategories() {
+        Config testPluginConfig = ConfigFactory.parseString(
+                "addthis.codec.plugins.path: plugins-lazy\n"
+                + "plugins-lazy.greet { _class: com.addthis.codec.plugins.Greeter, easy: EasyGreet }\n"
+                + "plugins-lazy.broken { _class: com.addthis.error.Missing, _strict: false }")
+                                              .withFallback(ConfigFactory.load("plugins/greet-good"));
+        // the broken category is not loaded until it is asked for
+        PluginRegistry pluginRegistry = new PluginRegistry(testPluginConfig);
+        Assert.assertEquals(2, pluginRegistry.asMap().size());
+        Assert.assertTrue(pluginRegistry.asMap().containsKey("broken"));
+        PluginMap greet = pluginRegistry.asMap().get("greet");
+        Assert.assertSame(greet, pluginRegistry.asMap().get("greet"));
+        Assert.assertSame(greet, pluginRegistry.byClass().get(Greeter.class));
+        Assert.assertFalse(pluginRegistry.byClass().containsKey(EasyGreet.class));
+        thrown.expectCause(isA(ClassNotFoundException.class));
+        pluginRegistry.asMap().get("broken");
+    }
+
+    @Test
+    public void cachedResolution() throws ClassNotFoundException {
+        Config testPluginConfig = ConfigFactory.load("plugins/greet-with-baseclass");
+        PluginMap greet = new PluginRegistry(testPluginConfig).asMap().get("greet");
+        Assert.assertSame(ListGreet.class, greet.findClass("ListGreet"));
+        Assert.assertSame(ListGreet.class, greet.getClass("ListGreet"));
+        Assert.assertNull(greet.findClass("NoSuchGreet"));
+        Assert.assertNull(greet.findClass("NoSuchGreet"));
+        thrown.expect(isA(ClassNotFoundException.class));
+        greet.getClass("NoSuchGreet");
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.plugins;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.Map;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PluginSnapshotTest {
+
+    private static Config greetConfig() {
+        return ConfigFactory.load("plugins/greet-with-baseclass");
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        PluginRegistry pluginRegistry = new PluginRegistry(greetConfig());
+        StringWriter writer = new StringWriter();
+        PluginSnapshot.of(pluginRegistry).writeTo(writer);
+        PluginSnapshot snapshot = PluginSnapshot.read(new StringReader(writer.toString()));
+        Map<String, String> classNames = snapshot.classNames("greet", pluginRegistry.asMap().get("greet").config());
+        assertEquals(EasyGreet.class.getName(), classNames.get("easy"));
+        assertEquals(SimpleGreet.class.getName(), classNames.get("simple"));
+    }
+
+    @Test
+    public void staleCategoriesAreIgnored() throws Exception {
+        PluginRegistry pluginRegistry = new PluginRegistry(greetConfig());
+        PluginSnapshot snapshot = PluginSnapshot.of(pluginRegistry);
+        Config changed = pluginRegistry.asMap().get("greet").config()
+                                       .withValue("other", ConfigValueFactory.fromAnyRef("EasyGreet"));
+        assertNull(snapshot.classNames("greet", changed));
+        assertNull(snapshot.classNames("missing", changed));
+    }
+
+    @Test
+    public void registryUsesSnapshot() throws Exception {
+        PluginRegistry plain = new PluginRegistry(greetConfig());
+        String fingerprint = PluginSnapshot.fingerprint(plain.asMap().get("greet").config());
+        File file = File.createTempFile("codec-plugins", ".snapshot");
+        file.deleteOnExit();
+        // 'easy' is recorded as some other class to show that the snapshot was trusted, and 'simple' as a
+        // class that no longer exists, so it must fall back to the usual search
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("category\tgreet\t" + fingerprint + '\n');
+            writer.write("alias\teasy\t" + CrowdGreet.class.getName() + '\n');
+            writer.write("alias\tsimple\tcom.example.Missing\n");
+        }
+        PluginRegistry pluginRegistry = new PluginRegistry(
+                greetConfig().withValue(PluginSnapshot.SNAPSHOT_PATH,
+                                        ConfigValueFactory.fromAnyRef(file.getAbsolutePath())));
+        PluginMap greet = pluginRegistry.asMap().get("greet");
+        assertSame(CrowdGreet.class, greet.getClass("easy"));
+        assertSame(SimpleGreet.class, greet.getClass("simple"));
+    }
+
+    @Test
+    public void missingSnapshotIsIgnored() throws Exception {
+        PluginRegistry pluginRegistry = new PluginRegistry(
+                greetConfig().withValue(PluginSnapshot.SNAPSHOT_PATH,
+                                        ConfigValueFactory.fromAnyRef("does/not/exist.snapshot")));
+        assertEquals(2, pluginRegistry.asMap().get("greet").asBiMap().size());
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.proto;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.addthis.codec.annotations.ProtoField;
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CodecProtoTest {
+
+    /** The examples from the protobuf encoding documentation. */
+    public static class Documented implements Codable {
+        @ProtoField(1) public int a;
+        @ProtoField(2) public String b;
+        @ProtoField(4) public int[] d;
+    }
+
+    public enum Level { LOW, HIGH }
+
+    public static class Inner implements Codable {
+        @ProtoField(1) public String name;
+        @ProtoField(2) public double weight;
+    }
+
+    public static class Outer implements Codable {
+        @ProtoField(1) public long id;
+        @ProtoField(value = 2, zigzag = true) public int delta;
+        @ProtoField(3) public boolean flag;
+        @ProtoField(4) public float ratio;
+        @ProtoField(5) public Level level;
+        @ProtoField(6) public byte[] raw;
+        @ProtoField(7) public Inner inner;
+        @ProtoField(8) public List<Inner> inners = new ArrayList<>();
+        @ProtoField(9) public Set<String> tags;
+        @ProtoField(10) public Map<String, Integer> counts;
+        @ProtoField(11) public long[] times;
+        @ProtoField(12) public char letter;
+        public short   hashed;
+        public String  missing;
+        public Integer boxed = 5;
+    }
+
+    /** Same message as {@link Outer} with most fields removed and a new one added. */
+    public static class Reader implements Codable {
+        @ProtoField(1) public long id;
+        @ProtoField(100) public String added = "default";
+        public short hashed;
+    }
+
+    public static class Entries implements Codable {
+        @ProtoField(1) public SortedMap<Integer, Inner> inners;
+        @ProtoField(2) public Map<String, Level>        levels;
+    }
+
+    public static class Clash implements Codable {
+        @ProtoField(3) public int one;
+        @ProtoField(3) public int two;
+    }
+
+    public static class Unsupported implements Codable {
+        public Object anything;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void wireFormat() throws Exception {
+        Documented documented = new Documented();
+        documented.a = 150;
+        assertArrayEquals(bytes(0x08, 0x96, 0x01), CodecProto.INSTANCE.encode(documented));
+        documented.a = 0;
+        documented.b = "testing";
+        documented.d = new int[]{3, 270, 86942};
+        assertArrayEquals(bytes(0x08, 0x00, 0x12, 0x07, 0x74, 0x65, 0x73, 0x74, 0x69, 0x6e, 0x67,
+                                0x22, 0x06, 0x03, 0x8E, 0x02, 0x9E, 0xA7, 0x05),
+                          CodecProto.INSTANCE.encode(documented));
+        documented.a = -1;
+        documented.b = null;
+        documented.d = null;
+        // negative int32 values are sign extended to ten bytes
+        assertArrayEquals(bytes(0x08, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01),
+                          CodecProto.INSTANCE.encode(documented));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Outer outer = new Outer();
+        outer.id = Long.MIN_VALUE;
+        outer.delta = -2;
+        outer.flag = true;
+        outer.ratio = 0.25f;
+        outer.level = Level.HIGH;
+        outer.raw = bytes(1, 2, 3);
+        outer.inner = new Inner();
+        outer.inner.name = "n\u00e9";
+        outer.inner.weight = -1.5;
+        for (int i = 0; i < 3; i++) {
+            Inner inner = new Inner();
+            inner.name = "i" + i;
+            outer.inners.add(inner);
+        }
+        outer.inners.add(null);
+        outer.tags = new HashSet<>();
+        outer.tags.add("a");
+        outer.tags.add("b");
+        outer.counts = new TreeMap<>();
+        outer.counts.put("x", 1);
+        outer.counts.put("y", null);
+        outer.times = new long[]{-1, 0, Long.MAX_VALUE};
+        outer.letter = '\u4e2d';
+        outer.hashed = -300;
+        outer.boxed = null;
+
+        Outer decoded = CodecProto.INSTANCE.decode(Outer.class, CodecProto.INSTANCE.encode(outer));
+        assertEquals(Long.MIN_VALUE, decoded.id);
+        assertEquals(-2, decoded.delta);
+        assertTrue(decoded.flag);
+        assertEquals(0.25f, decoded.ratio, 0f);
+        assertEquals(Level.HIGH, decoded.level);
+        assertArrayEquals(bytes(1, 2, 3), decoded.raw);
+        assertEquals("n\u00e9", decoded.inner.name);
+        assertEquals(-1.5, decoded.inner.weight, 0d);
+        assertEquals(3, decoded.inners.size());
+        assertEquals("i2", decoded.inners.get(2).name);
+        assertEquals(outer.tags, decoded.tags);
+        // protobuf has no null map values, so the missing value decodes as zero
+        outer.counts.put("y", 0);
+        assertEquals(outer.counts, decoded.counts);
+        assertArrayEquals(outer.times, decoded.times);
+        assertEquals('\u4e2d', decoded.letter);
+        assertEquals(-300, decoded.hashed);
+        assertNull(decoded.missing);
+        // nulls are not written, so the default is kept
+        assertEquals(Integer.valueOf(5), decoded.boxed);
+    }
+
+    @Test
+    public void zigzag() throws Exception {
+        Outer outer = new Outer();
+        outer.delta = -2;
+        outer.boxed = null;
+        byte[] encoded = CodecProto.INSTANCE.encode(outer);
+        // id = 0, then sint32 -2 zigzags to 3
+        assertEquals(0x10, encoded[2]);
+        assertEquals(0x03, encoded[3]);
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception {
+        Outer outer = new Outer();
+        outer.id = 42;
+        outer.inner = new Inner();
+        outer.inner.name = "skipped";
+        outer.counts = new TreeMap<>();
+        outer.counts.put("skipped", 1);
+        outer.times = new long[]{1, 2};
+        outer.hashed = 7;
+        Reader reader = CodecProto.INSTANCE.decode(Reader.class, CodecProto.INSTANCE.encode(outer));
+        assertEquals(42, reader.id);
+        assertEquals(7, reader.hashed);
+        assertEquals("default", reader.added);
+    }
+
+    @Test
+    public void entryDefaults() throws Exception {
+        Entries entries = CodecProto.INSTANCE.decode(Entries.class, bytes(
+                // {value: {name: "a"}}, then {key: 3}
+                0x0A, 0x05, 0x12, 0x03, 0x0A, 0x01, 0x61, 0x0A, 0x02, 0x08, 0x03,
+                // {key: "k"}
+                0x12, 0x03, 0x0A, 0x01, 0x6B));
+        assertEquals(2, entries.inners.size());
+        assertEquals("a", entries.inners.get(0).name);
+        assertNull(entries.inners.get(3).name);
+        assertEquals(0d, entries.inners.get(3).weight, 0d);
+        assertEquals(Level.LOW, entries.levels.get("k"));
+    }
+
+    @Test
+    public void fieldNumbers() {
+        Map<String, Integer> numbers = CodecProto.fieldNumbers(Outer.class);
+        assertEquals(Integer.valueOf(1), numbers.get("id"));
+        assertEquals(numbers.get("hashed"), CodecProto.fieldNumbers(Reader.class).get("hashed"));
+        assertTrue(numbers.get("hashed") >= 20000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNumbers() throws Exception {
+        CodecProto.INSTANCE.encode(new Clash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedType() throws Exception {
+        CodecProto.INSTANCE.encode(new Unsupported());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.reflection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.addthis.codec.codables.Codable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodableClassInfoTest {
+
+    static class PackagePrivate implements Codable {
+        public int value = 5;
+
+        PackagePrivate() {}
+    }
+
+    abstract static class Abstract implements Codable {}
+
+    @Test
+    public void newInstance() throws Exception {
+        Object instance = Fields.getClassFieldMap(PackagePrivate.class).newInstance();
+        assertEquals(5, ((PackagePrivate) instance).value);
+    }
+
+    @Test(expected = InstantiationException.class)
+    public void newAbstractInstance() throws Exception {
+        Fields.getClassFieldMap(Abstract.class).newInstance();
+    }
+
+    @Test
+    public void presizedContainers() throws Exception {
+        assertTrue(Fields.getClassFieldMap(ArrayList.class).newInstance(100) instanceof ArrayList);
+        assertTrue(Fields.getClassFieldMap(HashMap.class).newInstance(100) instanceof HashMap);
+        // no capacity constructor, so fall back to the no-arg constructor
+        List<?> list = (List<?>) Fields.getClassFieldMap(LinkedList.class).newInstance(100);
+        assertEquals(0, list.size());
+        // rejects a capacity of zero
+        assertTrue(Fields.getClassFieldMap(PriorityQueue.class).newInstance(0) instanceof PriorityQueue);
+        // the int argument is a bound, not a size hint, so it is left alone
+        LinkedBlockingQueue<?> queue = (LinkedBlockingQueue<?>)
+                Fields.getClassFieldMap(LinkedBlockingQueue.class).newInstance(0);
+        assertEquals(Integer.MAX_VALUE, queue.remainingCapacity());
+    }
+
+    @Test
+    public void hashCapacity() {
+        assertEquals(1, Instantiator.hashCapacity(0));
+        assertEquals(134, Instantiator.hashCapacity(100));
+    }
+}
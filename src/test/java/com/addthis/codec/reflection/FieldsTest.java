@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.reflection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.addthis.codec.plugins.PluginRegistry;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class FieldsTest {
+
+    public static class Holder {
+        public int    value;
+        public String name;
+    }
+
+    @Test
+    public void concurrentLookupsShareOneInfo() throws Exception {
+        Fields.flushClassFieldMaps();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CodableClassInfo>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<CodableClassInfo>() {
+                    @Override public CodableClassInfo call() throws Exception {
+                        start.await();
+                        return Fields.getClassFieldMap(Holder.class);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<CodableClassInfo> future : futures) {
+                assertSame(futures.get(0).get(), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void keyedByRegistry() {
+        PluginRegistry first = new PluginRegistry(ConfigFactory.load());
+        PluginRegistry second = new PluginRegistry(ConfigFactory.load());
+        CodableClassInfo info = Fields.getClassFieldMap(Holder.class, first);
+        assertSame(info, Fields.getClassFieldMap(Holder.class, first));
+        assertNotSame(info, Fields.getClassFieldMap(Holder.class, second));
+        assertNotSame(info, Fields.getClassFieldMap(Holder.class));
+        assertEquals(2, info.size());
+    }
+
+    @Test
+    public void flush() {
+        CodableClassInfo info = Fields.getClassFieldMap(Holder.class);
+        assertSame(info, Fields.getClassFieldMap(Holder.class));
+        Fields.flushClassFieldMaps();
+        assertNotSame(info, Fields.getClassFieldMap(Holder.class));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.addthis.codec.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.addthis.codec.binary.CodecBin2;
+import com.addthis.codec.codables.Codable;
+import com.addthis.codec.config.ConfigTraversingParser;
+import com.addthis.codec.jackson.Jackson;
+
+import com.typesafe.config.ConfigFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StringCanonicalizerTest {
+
+    public static class Countries implements Codable {
+        public String       home;
+        public List<String> visited = new ArrayList<>();
+    }
+
+    @Test
+    public void sharesEqualStrings() throws Exception {
+        StringCanonicalizer canonicalizer = new StringCanonicalizer(16, 8);
+        byte[] bytes = "xxUSxx\u00e9".getBytes("UTF-8");
+        String first = canonicalizer.canonicalize(bytes, 2, 2);
+        assertEquals("US", first);
+        assertSame(first, canonicalizer.canonicalize(bytes.clone(), 2, 2));
+        assertSame(first, canonicalizer.canonicalize(new String("US")));
+        assertEquals("xx\u00e9", canonicalizer.canonicalize(bytes, 4, 4));
+        assertNull(canonicalizer.canonicalize(null));
+        // too long to be cached
+        String longer = new String("abcdefghi");
+        assertSame(longer, canonicalizer.canonicalize(longer));
+        assertNotSame(longer, canonicalizer.canonicalize(new String("abcdefghi")));
+    }
+
+    @Test
+    public void collisionsReplace() {
+        StringCanonicalizer canonicalizer = new StringCanonicalizer(1, 8);
+        for (int i = 0; i < 100; i++) {
+            String value = Integer.toString(i);
+            byte[] bytes = value.getBytes();
+            assertEquals(value, canonicalizer.canonicalize(bytes, 0, bytes.length));
+        }
+    }
+
+    @Test
+    public void bin2Decode() throws Exception {
+        Countries countries = new Countries();
+        countries.home = "US";
+        countries.visited.add("FR");
+        countries.visited.add("US");
+        StringCanonicalizer canonicalizer = new StringCanonicalizer(64, 32);
+        for (CodecBin2.StringMode mode : CodecBin2.StringMode.values()) {
+            CodecBin2 codec = CodecBin2.INSTANCE.withStringMode(mode).withStringCanonicalizer(canonicalizer);
+            assertSame(mode, codec.getStringMode());
+            assertSame(codec, codec.withStringMode(mode));
+            byte[] encoded = codec.encode(countries);
+            Countries a = (Countries) codec.decode(Countries.class, encoded);
+            Countries b = (Countries) codec.decode(Countries.class, encoded);
+            assertEquals(countries.visited, a.visited);
+            assertSame(a.home, b.home);
+            assertSame(a.home, a.visited.get(1));
+            assertSame(a.visited.get(0), b.visited.get(0));
+            assertSame(CodecBin2.INSTANCE.withStringMode(mode), codec.withStringCanonicalizer(null));
+        }
+    }
+
+    @Test
+    public void configDecode() throws Exception {
+        assertNull(Jackson.defaultCodec().getStringCanonicalizer());
+        StringCanonicalizer canonicalizer = StringCanonicalizer.fromConfig(
+                ConfigFactory.parseString("addthis.codec.strings.canonicalize.size = 128")
+                             .withFallback(ConfigFactory.load()));
+        assertEquals(32, canonicalizer.getMaxLength());
+        Countries a = read(canonicalizer, "home = US, visited = [FR, US]");
+        Countries b = read(canonicalizer, "home = US, visited = [FR]");
+        assertSame(a.home, b.home);
+        assertSame(a.home, a.visited.get(1));
+        assertSame(a.visited.get(0), b.visited.get(0));
+    }
+
+    private static Countries read(StringCanonicalizer canonicalizer, String config) throws Exception {
+        ConfigTraversingParser parser = new ConfigTraversingParser(ConfigFactory.parseString(config).root(),
+                                                                   Jackson.defaultMapper(), canonicalizer);
+        return parser.readValueAs(Countries.class);
+    }
+}